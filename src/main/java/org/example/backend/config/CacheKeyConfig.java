@@ -22,17 +22,35 @@ public class CacheKeyConfig {
     // ==================== 聊天消息相关 ====================
 
     /**
-     * 聊天消息列表缓存键
+     * 聊天消息列表缓存键（旧版，整段消息存为一个值，仅在删除会话时清理）
      * 完整键: chat:messages:{sessionId}
      */
     public static final String CHAT_MESSAGES_KEY = "chat:messages:";
 
+    /**
+     * 聊天消息列表（Redis List，按顺序追加，只保留最近的消息）
+     * 完整键: chat:messages:list:{sessionId}
+     */
+    public static final String CHAT_MESSAGE_LIST_KEY = "chat:messages:list:";
+
+    /**
+     * 聊天消息元数据（Redis Hash：seq 已写入的消息总数，system 当前系统消息）
+     * 完整键: chat:messages:meta:{sessionId}
+     */
+    public static final String CHAT_MESSAGE_META_KEY = "chat:messages:meta:";
+
     /**
      * 聊天内存缓存键
      * 完整键: chat:memory:{memoryId}
      */
     public static final String CHAT_MEMORY_KEY = "chat:memory:";
 
+    /**
+     * 对话滚动摘要（Redis Hash：text 摘要内容，tail 最后一条已合并消息的标识）
+     * 完整键: chat:memory:summary:{sessionId}
+     */
+    public static final String CHAT_MEMORY_SUMMARY_KEY = "chat:memory:summary:";
+
     // ==================== 构建完整键的方法 ====================
 
     public static String buildSessionKey(String sessionId) {
@@ -47,7 +65,19 @@ public class CacheKeyConfig {
         return CHAT_MESSAGES_KEY + sessionId;
     }
 
+    public static String buildMessageListKey(String sessionId) {
+        return CHAT_MESSAGE_LIST_KEY + sessionId;
+    }
+
+    public static String buildMessageMetaKey(String sessionId) {
+        return CHAT_MESSAGE_META_KEY + sessionId;
+    }
+
     public static String buildMemoryKey(String memoryId) {
         return CHAT_MEMORY_KEY + memoryId;
     }
+
+    public static String buildSummaryKey(String sessionId) {
+        return CHAT_MEMORY_SUMMARY_KEY + sessionId;
+    }
 }
\ No newline at end of file
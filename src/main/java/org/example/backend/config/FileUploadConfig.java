@@ -7,6 +7,7 @@ import org.springframework.context.annotation.Configuration;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 
 @Data
 @Configuration
@@ -14,10 +15,12 @@ import java.nio.file.Paths;
 public class FileUploadConfig {
     private String path;                // 文件存储根路径
     private Long chunkSize;             // 分片大小
+    private Long minChunkSize = 1024L * 1024; // 最小分片大小，用于限制分片总数
     private Long maxFileSize;           // 最大文件大小
     private String chunkTempDir;        // 临时分片目录
     private Integer maxConcurrent;      // 最大并发数
     private Long timeout;               // 超时时间
+    private Cleanup cleanup = new Cleanup(); // 过期临时文件回收
 
     public Path getRootPath() {
         return Paths.get(path).toAbsolutePath().normalize();
@@ -26,4 +29,12 @@ public class FileUploadConfig {
     public Path getChunkTempPath() {
         return Paths.get(chunkTempDir).toAbsolutePath().normalize();
     }
-}
\ No newline at end of file
+
+    @Data
+    public static class Cleanup {
+        private Boolean enabled = true;                 // 是否启用定时回收
+        private Duration maxAge = Duration.ofHours(24); // 超过该时间未修改且无引用的临时文件才会被回收
+        private Integer batchSize = 500;                // 每个目录每轮最多检查的条目数
+        private Integer maxDeletesPerSecond = 200;      // 每秒最多删除的条目数，避免集中删除占满磁盘IO
+    }
+}
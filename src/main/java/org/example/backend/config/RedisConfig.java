@@ -1,13 +1,19 @@
 package org.example.backend.config;
 
+import org.example.backend.config.cache.TwoLevelCacheManager;
+import org.example.backend.config.cache.TwoLevelCacheProperties;
 import org.example.backend.model.ChatSessionEntity;
 import org.example.backend.service.ai.session.SessionManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -60,10 +66,11 @@ public class RedisConfig {
 
     // ========== RedisCacheManager 配置 ==========
     @Bean
-    public RedisCacheManager cacheManager(RedisConnectionFactory redisConnectionFactory,
-                                          FastJson2RedisSerializer<Object> fastJson2RedisSerializer,
-                                          FastJson2RedisSerializer<SessionManager.ChatSession> chatSessionSerializer,
-                                          FastJson2RedisSerializer<ChatSessionEntity> chatSessionEntitySerializer) {
+    public RedisCacheManager redisCacheManager(RedisConnectionFactory redisConnectionFactory,
+                                               FastJson2RedisSerializer<Object> fastJson2RedisSerializer,
+                                               FastJson2RedisSerializer<SessionManager.ChatSession> chatSessionSerializer,
+                                               FastJson2RedisSerializer<ChatSessionEntity> chatSessionEntitySerializer,
+                                               TwoLevelCacheProperties twoLevelCacheProperties) {
         // 通用缓存配置（默认10分钟过期）
         RedisCacheConfiguration defaultConfig = RedisCacheConfiguration.defaultCacheConfig()
                 .entryTtl(Duration.ofMinutes(10))
@@ -83,11 +90,42 @@ public class RedisConfig {
                 .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(chatSessionEntitySerializer));
 
         // 构建缓存管理器
-        return RedisCacheManager.builder(redisConnectionFactory)
+        RedisCacheManager.RedisCacheManagerBuilder builder = RedisCacheManager.builder(redisConnectionFactory)
                 .cacheDefaults(defaultConfig)
                 .withCacheConfiguration("chat:sessions", sessionConfig)          // 会话缓存
                 .withCacheConfiguration("chat:sessionEntity", sessionEntityConfig) // 实体缓存
-                .withCacheConfiguration("chat:memory", defaultConfig)        // 聊天内存缓存
-                .build();
+                .withCacheConfiguration("chat:memory", defaultConfig);       // 聊天内存缓存
+
+        // 二级缓存配置中单独指定了 Redis 过期时间的缓存
+        twoLevelCacheProperties.getCaches().forEach((name, spec) -> {
+            if (spec.getRemoteTtl() != null) {
+                RedisCacheConfiguration base = builder.getCacheConfigurationFor(name).orElse(defaultConfig);
+                builder.withCacheConfiguration(name, base.entryTtl(spec.getRemoteTtl()));
+            }
+        });
+        return builder.build();
+    }
+
+    // ========== 二级缓存（本地 Caffeine + Redis）配置 ==========
+    @Bean
+    @Primary
+    public TwoLevelCacheManager cacheManager(RedisCacheManager redisCacheManager,
+                                             TwoLevelCacheProperties twoLevelCacheProperties,
+                                             FastJson2RedisSerializer<Object> fastJson2RedisSerializer,
+                                             StringRedisTemplate stringRedisTemplate) {
+        return new TwoLevelCacheManager(redisCacheManager, twoLevelCacheProperties,
+                fastJson2RedisSerializer, stringRedisTemplate);
+    }
+
+    // 订阅缓存失效广播，删除本实例的本地副本
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory redisConnectionFactory,
+                                                                           TwoLevelCacheManager cacheManager,
+                                                                           TwoLevelCacheProperties twoLevelCacheProperties) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(cacheManager,
+                new ChannelTopic(twoLevelCacheProperties.getChannel()));
+        return container;
     }
 }
\ No newline at end of file
@@ -99,6 +99,7 @@ public class SecurityConfig {
                                 "/swagger-ui/**",
                                 "/v3/api-docs/**",
                                 "/api/questions",
+                                "/api/questions/feed",
                                 "/api/debug/**",
 
                                 // 文件相关的公共接口
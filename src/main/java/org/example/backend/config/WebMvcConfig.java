@@ -1,15 +1,31 @@
 package org.example.backend.config;
 
+import org.example.backend.utils.UploadResourceCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.format.FormatterRegistry;
+import org.springframework.http.CacheControl;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 @Configuration
 public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final UploadResourceCache uploadResourceCache;
+
+    // 带内容摘要的地址内容永不变化，可以长期缓存
+    @Value("${upload.static.immutable-max-age:365d}")
+    private Duration immutableMaxAge;
+
+    public WebMvcConfig(UploadResourceCache uploadResourceCache) {
+        this.uploadResourceCache = uploadResourceCache;
+    }
+
     @Override
     public void addFormatters(FormatterRegistry registry) {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy/M/d HH:mm:ss");
@@ -17,9 +33,24 @@ public class WebMvcConfig implements WebMvcConfigurer {
     }
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        // 带内容摘要的地址：/uploads/v/question/a-<md5>.png，摘要与文件内容不符时返回404
+        registry.addResourceHandler(UploadResourceCache.VERSIONED_PREFIX + "**")
+                .addResourceLocations("file:uploads/")
+                .setCacheControl(CacheControl.maxAge(immutableMaxAge).cachePublic().immutable())
+                .setEtagGenerator(uploadResourceCache::etag)
+                .resourceChain(false)
+                .addResolver(uploadResourceCache.hotResolver())
+                .addResolver(uploadResourceCache.versionedOnlyResolver())
+                .addResolver(new VersionResourceResolver().addVersionStrategy(uploadResourceCache.versionStrategy(), "/**"));
+
         // 将 /uploads/** 路径映射到文件系统中的 uploads 目录
+        // 原地址可能被替换内容，浏览器每次用 ETag / Last-Modified 条件请求确认，未变化时返回304
         registry.addResourceHandler("/uploads/**")
-                .addResourceLocations("file:uploads/");
+                .addResourceLocations("file:uploads/")
+                .setCacheControl(CacheControl.noCache().cachePublic())
+                .setEtagGenerator(uploadResourceCache::etag)
+                .resourceChain(false)
+                .addResolver(uploadResourceCache.hotResolver());
     }
 
 //    @Override
@@ -27,4 +58,4 @@ public class WebMvcConfig implements WebMvcConfigurer {
 //        registry.addConverter(String.class, LocalDateTime.class, source ->
 //                LocalDateTime.parse(source, DateTimeFormatter.ISO_LOCAL_DATE_TIME));
 //    }
-}
\ No newline at end of file
+}
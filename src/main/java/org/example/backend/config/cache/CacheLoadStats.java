@@ -0,0 +1,53 @@
+package org.example.backend.config.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个缓存的加载统计
+ */
+public class CacheLoadStats {
+
+    private final LongAdder loads = new LongAdder();          // 实际执行加载方法的次数
+    private final LongAdder coalesced = new LongAdder();      // 合并到其他请求加载结果上的次数
+    private final LongAdder earlyRefreshes = new LongAdder(); // 过期前提前刷新的次数
+    private final LongAdder loadFailures = new LongAdder();   // 加载失败次数
+    private final LongAdder waitTimeouts = new LongAdder();   // 等待其他请求加载超时的次数
+    private final LongAdder refreshRejected = new LongAdder(); // 刷新线程池已满而放弃的提前刷新次数
+
+    void recordLoad() {
+        loads.increment();
+    }
+
+    void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    void recordEarlyRefresh() {
+        earlyRefreshes.increment();
+    }
+
+    void recordLoadFailure() {
+        loadFailures.increment();
+    }
+
+    void recordWaitTimeout() {
+        waitTimeouts.increment();
+    }
+
+    void recordRefreshRejected() {
+        refreshRejected.increment();
+    }
+
+    public Map<String, Long> snapshot() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("loads", loads.sum());
+        result.put("coalesced", coalesced.sum());
+        result.put("earlyRefreshes", earlyRefreshes.sum());
+        result.put("loadFailures", loadFailures.sum());
+        result.put("waitTimeouts", waitTimeouts.sum());
+        result.put("refreshRejected", refreshRejected.sum());
+        return result;
+    }
+}
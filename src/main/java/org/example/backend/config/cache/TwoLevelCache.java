@@ -0,0 +1,315 @@
+package org.example.backend.config.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 二级缓存：本地 Caffeine（L1）在前，Redis（L2）在后
+ * 读取先查本地，未命中再查 Redis 并回填本地；写入和删除同时作用于两级，
+ * 并通过 Redis 发布订阅通知其他实例删除各自的本地副本。
+ * 本地缓存的 key 统一转成字符串，与 Redis 中的 key 以及广播消息保持一致。
+ *
+ * 以 @Cacheable(sync = true) 访问时额外提供击穿保护：
+ * 同一个 key 在本实例内同时只有一个请求去查 Redis 和执行加载方法，其余请求等待它的结果；
+ * 本实例加载过的条目会记录加载耗时，临近 Redis 过期时按概率（XFetch）在后台提前刷新。
+ * 等待其他请求的结果最多 loadWaitTimeout，超时后改读 Redis 中的旧值，没有旧值时自己加载。
+ */
+@Slf4j
+public class TwoLevelCache extends AbstractValueAdaptingCache {
+
+    private final String name;
+    private final org.springframework.cache.Cache remote;
+    @Nullable
+    private final Cache<String, Object> local;
+    private final TwoLevelCacheManager cacheManager;
+    private final double earlyRefreshBeta;
+    // 本实例加载过的条目的加载耗时和 Redis 过期时间，用于判断是否提前刷新
+    @Nullable
+    private final Cache<String, LoadMeta> loadMetas;
+    // 正在加载中的 key
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final CacheLoadStats stats = new CacheLoadStats();
+    private final Executor refreshExecutor;
+    private final Duration loadWaitTimeout;
+
+    public TwoLevelCache(String name,
+                         org.springframework.cache.Cache remote,
+                         @Nullable Cache<String, Object> local,
+                         TwoLevelCacheManager cacheManager,
+                         double earlyRefreshBeta,
+                         @Nullable Cache<String, LoadMeta> loadMetas,
+                         Executor refreshExecutor,
+                         Duration loadWaitTimeout) {
+        super(true);
+        this.name = name;
+        this.remote = remote;
+        this.local = local;
+        this.cacheManager = cacheManager;
+        this.earlyRefreshBeta = earlyRefreshBeta;
+        this.loadMetas = loadMetas;
+        this.refreshExecutor = refreshExecutor;
+        this.loadWaitTimeout = loadWaitTimeout;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this;
+    }
+
+    public CacheLoadStats getStats() {
+        return stats;
+    }
+
+    @Override
+    @Nullable
+    protected Object lookup(Object key) {
+        String localKey = key.toString();
+        if (local != null) {
+            Object cached = local.getIfPresent(localKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ValueWrapper wrapper = remote.get(key);
+        if (wrapper == null) {
+            return null;
+        }
+        Object storeValue = toStoreValue(wrapper.get());
+        if (local != null) {
+            local.put(localKey, storeValue);
+        }
+        return storeValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String localKey = key.toString();
+        if (local != null) {
+            Object cached = local.getIfPresent(localKey);
+            if (cached != null) {
+                refreshEarlyIfNeeded(key, localKey, valueLoader);
+                return (T) fromStoreValue(cached);
+            }
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(localKey, future);
+        if (running != null) {
+            // 已有请求在加载同一个 key，等待它的结果
+            stats.recordCoalesced();
+            return (T) fromStoreValue(await(key, localKey, valueLoader, running));
+        }
+
+        try {
+            Object storeValue;
+            ValueWrapper wrapper = remote.get(key);
+            if (wrapper != null) {
+                storeValue = toStoreValue(wrapper.get());
+                if (local != null) {
+                    local.put(localKey, storeValue);
+                }
+                refreshEarlyIfNeeded(key, localKey, valueLoader);
+            } else {
+                storeValue = load(key, localKey, valueLoader);
+            }
+            future.complete(storeValue);
+            return (T) fromStoreValue(storeValue);
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(localKey, future);
+        }
+    }
+
+    @Override
+    public void put(Object key, @Nullable Object value) {
+        remote.put(key, value);
+        if (local != null) {
+            local.put(key.toString(), toStoreValue(value));
+        }
+        forgetLoadMeta(key.toString());
+        cacheManager.publishEviction(name, key.toString());
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        evictLocal(key.toString());
+        cacheManager.publishEviction(name, key.toString());
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean present = remote.evictIfPresent(key);
+        evictLocal(key.toString());
+        cacheManager.publishEviction(name, key.toString());
+        return present;
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        clearLocal();
+        cacheManager.publishEviction(name, null);
+    }
+
+    /**
+     * 只删除本实例的本地副本（收到其他实例的广播时调用）
+     */
+    void evictLocal(String key) {
+        if (local != null) {
+            local.invalidate(key);
+        }
+        forgetLoadMeta(key);
+    }
+
+    void clearLocal() {
+        if (local != null) {
+            local.invalidateAll();
+        }
+        if (loadMetas != null) {
+            loadMetas.invalidateAll();
+        }
+    }
+
+    /**
+     * 执行加载方法并写入两级缓存
+     */
+    private Object load(Object key, String localKey, Callable<?> valueLoader) {
+        long start = System.currentTimeMillis();
+        Object value;
+        try {
+            stats.recordLoad();
+            value = valueLoader.call();
+        } catch (Exception e) {
+            stats.recordLoadFailure();
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+        long costMillis = System.currentTimeMillis() - start;
+
+        remote.put(key, value);
+        Object storeValue = toStoreValue(value);
+        if (local != null) {
+            local.put(localKey, storeValue);
+        }
+        cacheManager.publishEviction(name, localKey);
+        recordLoadMeta(key, localKey, value, costMillis);
+        return storeValue;
+    }
+
+    /**
+     * XFetch：剩余时间越短、加载越慢，越有可能提前刷新；
+     * 条件为 now - delta * beta * ln(random) >= expiresAt
+     */
+    private void refreshEarlyIfNeeded(Object key, String localKey, Callable<?> valueLoader) {
+        if (loadMetas == null) {
+            return;
+        }
+        LoadMeta meta = loadMetas.getIfPresent(localKey);
+        if (meta == null) {
+            return;
+        }
+        double random = ThreadLocalRandom.current().nextDouble();
+        double gap = -meta.costMillis() * earlyRefreshBeta * Math.log(random);
+        if (System.currentTimeMillis() + gap < meta.expiresAtMillis()) {
+            return;
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(localKey, future) != null) {
+            return;
+        }
+        // 刷新期间旧值继续提供服务，等待中的请求拿到的是新值
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    future.complete(load(key, localKey, valueLoader));
+                } catch (Throwable e) {
+                    log.warn("缓存提前刷新失败: cache={}, key={}", name, localKey, e);
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(localKey, future);
+                }
+            });
+            stats.recordEarlyRefresh();
+        } catch (RejectedExecutionException e) {
+            // 刷新线程池已满，放弃本次刷新，条目到期后正常加载
+            stats.recordRefreshRejected();
+            inFlight.remove(localKey, future);
+            future.cancel(false);
+        }
+    }
+
+    private void recordLoadMeta(Object key, String localKey, @Nullable Object value, long costMillis) {
+        if (loadMetas == null || !(remote instanceof RedisCache redisCache)) {
+            return;
+        }
+        Duration ttl = redisCache.getCacheConfiguration().getTtlFunction().getTimeToLive(key, value);
+        if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+            return;
+        }
+        loadMetas.put(localKey, new LoadMeta(costMillis, System.currentTimeMillis() + ttl.toMillis()));
+    }
+
+    private void forgetLoadMeta(String localKey) {
+        if (loadMetas != null) {
+            loadMetas.invalidate(localKey);
+        }
+    }
+
+    /**
+     * 等待其他请求的加载结果；超时后不再等待，改读 Redis 中的旧值，没有旧值时自己加载
+     */
+    private Object await(Object key, String localKey, Callable<?> valueLoader, CompletableFuture<Object> running) {
+        try {
+            return running.get(loadWaitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | CancellationException e) {
+            stats.recordWaitTimeout();
+            ValueWrapper wrapper = remote.get(key);
+            if (wrapper != null) {
+                return toStoreValue(wrapper.get());
+            }
+            return load(key, localKey, valueLoader);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new ValueRetrievalException(key, valueLoader, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+    }
+
+    /**
+     * @param costMillis 加载耗时
+     * @param expiresAtMillis Redis 中该条目的过期时间
+     */
+    record LoadMeta(long costMillis, long expiresAtMillis) {
+    }
+}
@@ -0,0 +1,174 @@
+package org.example.backend.config.cache;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 二级缓存管理器
+ * 包装 RedisCacheManager，为每个缓存加一层按字节数限容的本地 Caffeine 缓存；
+ * 同时作为 Redis 频道的监听者，处理其他实例广播的失效消息。
+ * 所有缓存的提前刷新共用一个有界线程池，不占用公共 ForkJoinPool。
+ */
+@Slf4j
+public class TwoLevelCacheManager implements CacheManager, MessageListener {
+
+    // 每个缓存最多记录多少个条目的加载耗时
+    private static final int LOAD_META_MAX_SIZE = 10_000;
+
+    // 当前实例标识，用于忽略自己发出的广播
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final CacheManager remoteCacheManager;
+    private final TwoLevelCacheProperties properties;
+    private final RedisSerializer<Object> sizeEstimator;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<String, TwoLevelCache> caches = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor refreshExecutor;
+
+    public TwoLevelCacheManager(CacheManager remoteCacheManager,
+                                TwoLevelCacheProperties properties,
+                                RedisSerializer<Object> sizeEstimator,
+                                StringRedisTemplate stringRedisTemplate) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.properties = properties;
+        this.sizeEstimator = sizeEstimator;
+        this.stringRedisTemplate = stringRedisTemplate;
+        AtomicInteger threadIndex = new AtomicInteger();
+        int workers = Math.max(1, properties.getRefreshWorkers());
+        // 队列满时拒绝，由调用方放弃本次刷新，旧值继续提供服务
+        this.refreshExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getRefreshQueueCapacity())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cache-refresh-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 容器关闭时停止刷新线程（@Bean 推断的销毁方法）
+     */
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    private TwoLevelCache createCache(String name) {
+        Cache remote = remoteCacheManager.getCache(name);
+        TwoLevelCacheProperties.Spec spec = properties.specFor(name);
+        com.github.benmanes.caffeine.cache.Cache<String, Object> local = null;
+        if (Boolean.TRUE.equals(spec.getLocalEnabled())) {
+            local = Caffeine.newBuilder()
+                    .expireAfterWrite(spec.getLocalTtl())
+                    .maximumWeight(spec.getLocalMaxBytes())
+                    .weigher((String key, Object value) -> estimateSize(key, value))
+                    .build();
+        }
+        double earlyRefreshBeta = spec.getEarlyRefreshBeta() != null ? spec.getEarlyRefreshBeta() : 0;
+        com.github.benmanes.caffeine.cache.Cache<String, TwoLevelCache.LoadMeta> loadMetas = null;
+        if (earlyRefreshBeta > 0) {
+            loadMetas = Caffeine.newBuilder()
+                    .maximumSize(LOAD_META_MAX_SIZE)
+                    .build();
+        }
+        log.info("创建二级缓存: name={}, local={}, localTtl={}, localMaxBytes={}, earlyRefreshBeta={}",
+                name, local != null, spec.getLocalTtl(), spec.getLocalMaxBytes(), earlyRefreshBeta);
+        return new TwoLevelCache(name, remote, local, this, earlyRefreshBeta, loadMetas,
+                refreshExecutor, properties.getLoadWaitTimeout());
+    }
+
+    /**
+     * 各缓存的加载统计，key 为缓存名
+     */
+    public Map<String, Map<String, Long>> getLoadStats() {
+        Map<String, Map<String, Long>> result = new TreeMap<>();
+        caches.forEach((name, cache) -> result.put(name, cache.getStats().snapshot()));
+        return result;
+    }
+
+    /**
+     * 以序列化后的字节数估算本地缓存条目的大小
+     */
+    private int estimateSize(String key, Object value) {
+        int keySize = key.length() * 2;
+        if (value == null || value instanceof NullValue) {
+            return keySize + 16;
+        }
+        try {
+            byte[] bytes = sizeEstimator.serialize(value);
+            return keySize + (bytes != null ? bytes.length : 0);
+        } catch (Exception e) {
+            // 无法估算时按上限计，避免撑爆本地缓存
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 广播失效消息，key 为 null 表示清空整个缓存
+     */
+    void publishEviction(String cacheName, String key) {
+        JSONObject message = new JSONObject();
+        message.put("origin", instanceId);
+        message.put("cache", cacheName);
+        message.put("key", key);
+        try {
+            stringRedisTemplate.convertAndSend(properties.getChannel(), message.toJSONString());
+        } catch (Exception e) {
+            // 广播失败只影响其他实例的本地副本，它们会在本地TTL到期后自愈
+            log.warn("发布缓存失效消息失败: cache={}, key={}", cacheName, key, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            JSONObject payload = JSON.parseObject(new String(message.getBody(), StandardCharsets.UTF_8));
+            if (instanceId.equals(payload.getString("origin"))) {
+                return;
+            }
+            TwoLevelCache cache = caches.get(payload.getString("cache"));
+            if (cache == null) {
+                return;
+            }
+            String key = payload.getString("key");
+            if (key == null) {
+                cache.clearLocal();
+            } else {
+                cache.evictLocal(key);
+            }
+        } catch (Exception e) {
+            log.warn("处理缓存失效消息失败", e);
+        }
+    }
+}
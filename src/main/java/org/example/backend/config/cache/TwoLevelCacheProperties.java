@@ -0,0 +1,51 @@
+package org.example.backend.config.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 二级缓存配置
+ * 未单独配置的缓存使用 defaults，例如：
+ * cache.two-level.caches.questionList.local-ttl=30s
+ * cache.two-level.caches.questionList.local-max-bytes=33554432
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "cache.two-level")
+public class TwoLevelCacheProperties {
+    private String channel = "cache:invalidation";  // 失效广播的 Redis 频道
+    private int refreshWorkers = 2;                 // 提前刷新的线程数
+    private int refreshQueueCapacity = 100;         // 等待执行的提前刷新任务上限，超出时放弃本次刷新
+    private Duration loadWaitTimeout = Duration.ofSeconds(3); // 等待其他请求加载结果的最长时间
+    private Spec defaults = new Spec();             // 默认配置
+    private Map<String, Spec> caches = new HashMap<>(); // 按缓存名单独配置
+
+    public Spec specFor(String cacheName) {
+        Spec spec = caches.get(cacheName);
+        if (spec == null) {
+            return defaults;
+        }
+        // 未填写的字段沿用默认配置
+        Spec merged = new Spec();
+        merged.setLocalEnabled(spec.getLocalEnabled() != null ? spec.getLocalEnabled() : defaults.getLocalEnabled());
+        merged.setLocalTtl(spec.getLocalTtl() != null ? spec.getLocalTtl() : defaults.getLocalTtl());
+        merged.setLocalMaxBytes(spec.getLocalMaxBytes() != null ? spec.getLocalMaxBytes() : defaults.getLocalMaxBytes());
+        merged.setRemoteTtl(spec.getRemoteTtl() != null ? spec.getRemoteTtl() : defaults.getRemoteTtl());
+        merged.setEarlyRefreshBeta(spec.getEarlyRefreshBeta() != null ? spec.getEarlyRefreshBeta() : defaults.getEarlyRefreshBeta());
+        return merged;
+    }
+
+    @Data
+    public static class Spec {
+        private Boolean localEnabled = true;           // 是否启用本地缓存
+        private Duration localTtl = Duration.ofSeconds(60); // 本地缓存过期时间
+        private Long localMaxBytes = 16L * 1024 * 1024; // 本地缓存容量上限（按序列化后的字节数估算）
+        private Duration remoteTtl;                     // Redis 过期时间，为空时使用 RedisConfig 中的默认值
+        private Double earlyRefreshBeta = 1.0;          // 提前刷新的激进程度，越大越早刷新，0 表示关闭
+    }
+}
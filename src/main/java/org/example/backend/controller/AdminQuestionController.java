@@ -79,6 +79,18 @@ public class AdminQuestionController {
         return adminQuestionService.reviewQuestion(questionId, approved);
     }
 
+    // 重建问题搜索索引
+    @PostMapping("/search-index/rebuild")
+    public ApiResponse rebuildSearchIndex() {
+        return adminQuestionService.rebuildSearchIndex();
+    }
+
+    // 查看缓存加载统计
+    @GetMapping("/cache-stats")
+    public ApiResponse getCacheLoadStats() {
+        return adminQuestionService.getCacheLoadStats();
+    }
+
     @GetMapping("/reports")
     public ResponseEntity<ApiResponse> getQuestionReportList(
             @RequestParam(name="status", required = false) QuestionReport.ReportStatus status,
@@ -357,53 +357,16 @@ public class AichatController {
             // 4. 获取原始消息列表（包含SYSTEM）
             List<ChatMessageDTO> allMessages = chatMessageService.getMessagesAsDTO(sessionId);
 
-            // 5. 最终精准过滤+内容截断
-            List<ChatMessageDTO> filteredMessages = new ArrayList<>();
+            // 5. 过滤SYSTEM消息；用户消息保存时已与检索内容分开，内容直接展示
+            List<ChatMessageDTO> filteredMessages = new ArrayList<>(allMessages.size());
             for (ChatMessageDTO dto : allMessages) {
-                // 第一步：过滤SYSTEM类型消息
-                if (dto.getType() != null && "SYSTEM".equals(dto.getType())) {
+                if ("SYSTEM".equals(dto.getType())) {
                     continue;
                 }
-
-                String content = dto.getContent();
-                if (content == null || content.trim().isEmpty()) {
+                if (dto.getContent() == null || dto.getContent().isBlank()) {
                     continue;
                 }
-
-                // 第二步：核心截断逻辑——只保留RAG提示词之前的内容
-                String ragFlag = "Answer using the following information:";
-                String cleanContent;
-                if (content.contains(ragFlag)) {
-                    // 截断到RAG提示词之前，去除换行/空格后判断是否有效
-                    cleanContent = content.substring(0, content.indexOf(ragFlag)).trim();
-                    // 若截断后为空（纯检索内容），则过滤该消息
-                    if (cleanContent.isEmpty()) {
-                        continue;
-                    }
-                } else {
-                    // 无RAG提示词，保留原始内容（去除首尾空格）
-                    cleanContent = content.trim();
-                }
-
-                // 第三步：过滤纯检索特征的内容（兜底）
-                if (cleanContent.contains("NORMAL\" \"0\" \"0\" \"0\"")
-                        || cleanContent.contains("id\" \"title\" \"user_id\"")
-                        || cleanContent.equals("null")) {
-                    continue;
-                }
-
-                // 第四步：更新DTO的cleanContent，加入结果列表
-                ChatMessageDTO cleanDto = new ChatMessageDTO();
-                // 复制原DTO的所有字段（或用BeanUtils.copyProperties）
-                cleanDto.setSessionId(dto.getSessionId());
-                cleanDto.setIndex(dto.getIndex());
-                cleanDto.setType(dto.getType());
-                cleanDto.setRole(dto.getRole());
-                cleanDto.setContent(cleanContent);
-                cleanDto.setMetadata(dto.getMetadata());
-                cleanDto.setTimestamp(dto.getTimestamp());
-
-                filteredMessages.add(cleanDto);
+                filteredMessages.add(dto);
             }
 
             // 6. 构建响应数据
@@ -435,36 +398,6 @@ public class AichatController {
                     .body(ApiResponse.error(500, "获取会话消息失败: " + e.getMessage())));
         });
     }
-    /**
-     * 过滤RAG检索辅助内容的核心方法
-     * @param content 消息内容
-     * @return true=保留（非检索内容），false=过滤（是检索内容）
-     */
-    private boolean filterRagAuxiliaryContent(String content) {
-        if (content == null) {
-            return false;
-        }
-        // 核心过滤规则：
-        // 1. 过滤包含RAG检索标识的内容
-        if (content.contains("Answer using the following information:")) {
-            return false;
-        }
-        // 2. 过滤包含大量无意义标签/重复内容的检索列表（可根据实际情况扩展关键词）
-        String lowerContent = content.toLowerCase();
-        if (lowerContent.contains("normal")
-                && (lowerContent.contains("vue.js") || lowerContent.contains("react")
-                || lowerContent.contains("spring boot") || lowerContent.contains("docker")
-                || lowerContent.contains("kubernetes") || lowerContent.contains("linux"))
-                && content.contains("null")) {
-            return false;
-        }
-        // 3. 过滤纯数字/乱码/重复符号的无意义内容
-        if (content.matches("^[0-9\\s\"',:/]+$") || content.trim().equals("null")) {
-            return false;
-        }
-        // 保留其他有效内容
-        return true;
-    }
     /**
      * 批量保存消息（用于数据迁移或批量导入）
      */
@@ -7,28 +7,26 @@ import lombok.extern.slf4j.Slf4j;
 import org.example.backend.dto.ChunkUploadDTO;
 import org.example.backend.dto.FileInfoDTO;
 import org.example.backend.dto.FileUploadDTO;
+import org.example.backend.model.FileInfo;
 import org.example.backend.service.FileStorageService;
 import org.example.backend.utils.ApiResponse;
+import org.example.backend.utils.FileCleanup;
+import org.example.backend.utils.FileRangeSender;
 import org.example.backend.utils.IpUtil;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.example.backend.model.ResponseStatus;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +39,8 @@ public class FileController {
 
     private final FileStorageService fileStorageService;
     private final HttpServletRequest request;
+    private final FileRangeSender fileRangeSender;
+    private final FileCleanup fileCleanup;
 
     /**
      * 公共接口：获取所有分类
@@ -128,45 +128,25 @@ public class FileController {
     }
     /**
      * 公共接口：下载文件（USER和ADMIN都可以下载）
+     * 支持 Range 断点续传和多段下载，带 ETag / Last-Modified，可被浏览器和CDN缓存
      */
-    @GetMapping("/download/{fileKey}")
-    public void downloadFile(@PathVariable Long fileId, HttpServletResponse response) {
+    @GetMapping("/download/{fileId}")
+    public void downloadFile(@PathVariable("fileId") Long fileId, HttpServletResponse response) {
         try {
-            Path filePath = fileStorageService.downloadFile(fileId);
-            FileInfoDTO fileInfo = fileStorageService.getFileDetail(fileId);
-
-            // 设置响应头
-            String encodedFileName = URLEncoder.encode(fileInfo.getFileName(), StandardCharsets.UTF_8.toString())
-                    .replaceAll("\\+", "%20");
-            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
-            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
-                    "attachment; filename*=UTF-8''" + encodedFileName);
-            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate");
-            response.setHeader(HttpHeaders.PRAGMA, "no-cache");
-            response.setHeader(HttpHeaders.EXPIRES, "0");
-
-            // 传输文件
-            if (Files.exists(filePath)) {
-                response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(Files.size(filePath)));
-
-                try (BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(filePath))) {
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        response.getOutputStream().write(buffer, 0, bytesRead);
-                    }
-                    response.getOutputStream().flush();
-                }
-            } else {
-                response.setStatus(HttpStatus.NOT_FOUND.value());
-                response.getWriter().write("文件不存在");
-            }
-
+            FileInfo fileInfo = fileStorageService.downloadFile(fileId);
+            Path filePath = Paths.get(fileInfo.getFilePath());
+            fileRangeSender.send(request, response, filePath, fileStorageService.getETag(fileInfo), fileInfo.getFileName());
         } catch (Exception e) {
             log.error("下载文件失败", e);
+            if (response.isCommitted()) {
+                return;
+            }
             try {
-                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
-                response.getWriter().write("下载失败: " + e.getMessage());
+                response.reset();
+                boolean notFound = "文件不存在".equals(e.getMessage());
+                response.setStatus(notFound ? HttpStatus.NOT_FOUND.value() : HttpStatus.INTERNAL_SERVER_ERROR.value());
+                response.setContentType("text/plain;charset=UTF-8");
+                response.getWriter().write(notFound ? "文件不存在" : "下载失败: " + e.getMessage());
             } catch (IOException ex) {
                 log.error("写入响应失败", ex);
             }
@@ -202,11 +182,9 @@ public class FileController {
     public ResponseEntity<?> initUpload(@RequestBody FileUploadDTO dto) {
         try {
             String clientIp = IpUtil.getClientIp(request);
-            String fileKey = fileStorageService.initUpload(dto, clientIp);
-
-            Map<String, Object> result = new HashMap<>();
-            result.put("fileKey", fileKey);
-            result.put("message", "上传初始化成功");
+            // fileKey 作为后续上传分片、查询进度和合并的 fileId；instant 为 true 时已秒传完成
+            Map<String, Object> result = fileStorageService.initUpload(dto, clientIp);
+            result.put("message", Boolean.TRUE.equals(result.get("instant")) ? "文件已秒传" : "上传初始化成功");
 
             return ResponseEntity.ok(successResponse("初始化成功", result));
         } catch (Exception e) {
@@ -218,51 +196,60 @@ public class FileController {
     /**
      * ADMIN接口：上传分片
      */
-//    @PostMapping("/admin/upload-chunk")
-//    @PreAuthorize("hasRole('ADMIN')")
-//    public ResponseEntity<?> uploadChunk(
-//            @RequestParam("fileKey") String fileKey,
-//            @RequestParam("fileName") String fileName,
-//            @RequestParam("category") String category,
-//            @RequestParam("chunkIndex") Integer chunkIndex,
-//            @RequestParam("chunkCount") Integer chunkCount,
-//            @RequestParam(value = "md5", required = false) String md5,
-//            @RequestParam("chunk") MultipartFile chunk) {
-//
-//        try {
-//            String clientIp = IpUtil.getClientIp(request);
-//
-//            ChunkUploadDTO dto = new ChunkUploadDTO();
-//            dto.setFileKey(fileKey);
-//            dto.setFileName(fileName);
-//            dto.setCategory(category);
-//            dto.setChunkIndex(chunkIndex);
-//            dto.setChunkCount(chunkCount);
-//            dto.setMd5(md5);
-//            dto.setChunk(chunk);
-//
-//            Map<String, Object> result = fileStorageService.uploadChunk(dto, clientIp);
-//            return ResponseEntity.ok(successResponse("分片上传成功", result));
-//        } catch (Exception e) {
-//            log.error("上传分片失败", e);
-//            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
-//        }
-//    }
+    @PostMapping("/admin/upload-chunk")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> uploadChunk(
+            @RequestParam("fileId") Long fileId,
+            @RequestParam("chunkIndex") Integer chunkIndex,
+            @RequestParam(value = "chunkMd5", required = false) String chunkMd5,
+            @RequestParam("chunk") MultipartFile chunk) {
+        try {
+            Map<String, Object> result = fileStorageService.uploadChunk(fileId, chunkIndex, chunk, chunkMd5);
+            return ResponseEntity.ok(successResponse("分片上传成功", result));
+        } catch (Exception e) {
+            log.error("上传分片失败", e);
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * ADMIN接口：查询上传进度（缺失的分片）
+     */
+    @GetMapping("/admin/upload-progress")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getUploadProgress(@RequestParam("fileId") Long fileId) {
+        try {
+            Map<String, Object> result = fileStorageService.getUploadProgress(fileId);
+            return ResponseEntity.ok(successResponse("查询成功", result));
+        } catch (Exception e) {
+            log.error("查询上传进度失败", e);
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        }
+    }
 
     /**
      * ADMIN接口：合并分片
      */
-//    @PostMapping("/admin/merge-chunks")
-//    @PreAuthorize("hasRole('ADMIN')")
-//    public ResponseEntity<?> mergeChunks(@RequestParam("fileKey") String fileKey) {
-//        try {
-//            Map<String, Object> result = fileStorageService.mergeChunks(fileKey);
-//            return ResponseEntity.ok(successResponse("合并成功", result));
-//        } catch (Exception e) {
-//            log.error("合并分片失败", e);
-//            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
-//        }
-//    }
+    @PostMapping("/admin/merge-chunks")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> mergeChunks(@RequestParam("fileId") Long fileId) {
+        try {
+            Map<String, Object> result = fileStorageService.mergeChunks(fileId);
+            return ResponseEntity.ok(successResponse("合并成功", result));
+        } catch (Exception e) {
+            log.error("合并分片失败", e);
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * ADMIN接口：临时文件回收统计（最近一轮和累计）
+     */
+    @GetMapping("/admin/cleanup-stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getCleanupStats() {
+        return ResponseEntity.ok(successResponse("获取成功", fileCleanup.getStats()));
+    }
 
     /**
      * ADMIN接口：获取我的上传记录
@@ -280,19 +267,19 @@ public class FileController {
 //    }
 
     /**
-     * ADMIN接口：删除我的文件
+     * ADMIN接口：删除文件
      */
-//    @DeleteMapping("/admin/delete/{fileKey}")
-//    @PreAuthorize("hasRole('ADMIN')")
-//    public ResponseEntity<?> deleteMyFile(@PathVariable String fileKey) {
-//        try {
-//            fileStorageService.deleteMyFile(fileKey);
-//            return ResponseEntity.ok(successResponse("删除成功", null));
-//        } catch (Exception e) {
-//            log.error("删除文件失败", e);
-//            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
-//        }
-//    }
+    @DeleteMapping("/admin/delete/{fileId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> deleteFile(@PathVariable Long fileId) {
+        try {
+            fileStorageService.deleteFile(fileId);
+            return ResponseEntity.ok(successResponse("删除成功", null));
+        } catch (Exception e) {
+            log.error("删除文件失败", e);
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        }
+    }
 
     /**
      * ADMIN接口：获取文件统计
@@ -0,0 +1,62 @@
+package org.example.backend.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.example.backend.service.image.ImageVariantService;
+import org.example.backend.utils.UploadResourceCache;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * 图片副本：/uploads/variants/{thumb|medium}/{原图相对路径}
+ * 副本尚未生成时重定向到原图，同时在后台生成，后续请求直接返回副本
+ */
+@RestController
+@RequiredArgsConstructor
+public class ImageVariantController {
+
+    private final ImageVariantService imageVariantService;
+    private final UploadResourceCache uploadResourceCache;
+
+    @GetMapping(ImageVariantService.URL_PREFIX + "{variant}/**")
+    public ResponseEntity<?> getVariant(@PathVariable String variant, HttpServletRequest request) {
+        Optional<ImageVariantService.Variant> parsed = ImageVariantService.Variant.fromPathName(variant);
+        String prefix = request.getContextPath() + ImageVariantService.URL_PREFIX + variant + "/";
+        String rawRelative = request.getRequestURI().substring(prefix.length());
+        if (parsed.isEmpty() || rawRelative.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        String relative = URLDecoder.decode(rawRelative.replace("+", "%2B"), StandardCharsets.UTF_8);
+        Optional<Path> file = imageVariantService.resolve(parsed.get(), relative);
+        if (file.isPresent()) {
+            // 副本会随原图重新生成，按 ETag 条件请求，未变化时由框架返回304
+            FileSystemResource resource = new FileSystemResource(file.get());
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .cacheControl(CacheControl.noCache().cachePublic());
+            String etag = uploadResourceCache.etag(resource);
+            if (etag != null) {
+                builder.eTag(etag);
+            }
+            return builder.body(resource);
+        }
+        // 原图地址保持请求中的编码形式
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .header(HttpHeaders.LOCATION, request.getContextPath() + "/uploads/" + rawRelative)
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                .build();
+    }
+}
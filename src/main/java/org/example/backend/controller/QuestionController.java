@@ -1,6 +1,7 @@
 package org.example.backend.controller;
 
 import jakarta.servlet.http.HttpServletRequest;
+import org.example.backend.dto.CursorPageResponse;
 import org.example.backend.dto.QuestionCreateRequestDTO;
 import org.example.backend.dto.QuestionDetailDTO;
 import org.example.backend.dto.QuestionResponseDTO;
@@ -13,6 +14,7 @@ import org.example.backend.repository.AnswerImageRepository;
 import org.example.backend.repository.QuestionImageRepository;
 import org.example.backend.repository.QuestionVoteRepository;
 import org.example.backend.service.*;
+import org.example.backend.service.image.ImageVariantService;
 import org.example.backend.utils.ApiResponse;
 import org.example.backend.dto.PageResponse;
 import org.springframework.data.domain.Page;
@@ -38,6 +40,7 @@ public class QuestionController {
     private final QuestionImageRepository questionImageRepository;
     private final AnswerImageRepository answerImageRepository;
     private final AnswerCommentRepository answerCommentRepository;
+    private final ImageVariantService imageVariantService;
 
     public QuestionController(
             QuestionService questionService,
@@ -47,7 +50,8 @@ public class QuestionController {
             ImageUploadService uploadService,
             QuestionImageRepository questionImageRepository,
             AnswerImageRepository answerImageRepository,
-            AnswerCommentRepository answerCommentRepository) {
+            AnswerCommentRepository answerCommentRepository,
+            ImageVariantService imageVariantService) {
         this.questionService = questionService;
         this.questionVoteRepository = questionVoteRepository;
         this.userService = userService;
@@ -56,6 +60,7 @@ public class QuestionController {
         this.questionImageRepository = questionImageRepository;
         this.answerImageRepository = answerImageRepository;
         this.answerCommentRepository = answerCommentRepository;
+        this.imageVariantService = imageVariantService;
     }
 
     @GetMapping
@@ -80,6 +85,33 @@ public class QuestionController {
         }
     }
 
+    // 游标分页的问题流，适用于无限滚动，cursor 取上一页返回的 nextCursor
+    @GetMapping("/feed")
+    public ResponseEntity<ApiResponse> getQuestionFeed(
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "size", defaultValue = "10") int size
+    ) {
+        try {
+            if (size < 1 || size > 50) {
+                return ResponseEntity.badRequest().body(ApiResponse.error(
+                        ResponseStatus.BAD_REQUEST.getCode(),
+                        "每页条数需在1到50之间"
+                ));
+            }
+            CursorPageResponse<QuestionResponseDTO> response = questionService.getQuestionFeed(cursor, size);
+            return ResponseEntity.ok(ApiResponse.success(
+                    ResponseStatus.SUCCESS.getCode(),
+                    ResponseStatus.SUCCESS.getMessage(),
+                    response
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(
+                    ResponseStatus.BAD_REQUEST.getCode(),
+                    e.getMessage()
+            ));
+        }
+    }
+
     @GetMapping("/search")
     public ResponseEntity<ApiResponse> searchQuestions(
             @RequestParam(name = "keyword") String keyword,
@@ -95,7 +127,7 @@ public class QuestionController {
             Pageable pageable = PageRequest.of(page - 1, 10);
             Page<Question> questions = questionService.searchQuestions(keyword, pageable);
             PageResponse<QuestionResponseDTO> response = PageResponse.fromPage(
-                    questions.map(question -> QuestionResponseDTO.fromQuestion(question, questionImageService))
+                    questions.map(question -> QuestionResponseDTO.fromQuestion(question, questionImageService, imageVariantService))
             );
             return ResponseEntity.ok(ApiResponse.success(
                     ResponseStatus.SUCCESS.getCode(),
@@ -160,7 +192,7 @@ public class QuestionController {
             if (user.getId().equals(userId)) {
                 Page<Question> questions = questionService.getMyQuestionsByParams(page-1, size, status, userId, keyword);
                 PageResponse<QuestionResponseDTO> response = PageResponse.fromPage(
-                        questions.map(question -> QuestionResponseDTO.fromQuestion(question, questionImageService))
+                        questions.map(question -> QuestionResponseDTO.fromQuestion(question, questionImageService, imageVariantService))
                 );
                 return ResponseEntity.ok(ApiResponse.success(
                         ResponseStatus.SUCCESS.getCode(),
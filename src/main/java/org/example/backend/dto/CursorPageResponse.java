@@ -0,0 +1,20 @@
+package org.example.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 游标分页响应：不统计总数，nextCursor 为 null 表示没有更多数据
+ */
+@Data
+@AllArgsConstructor
+public class CursorPageResponse<T> implements Serializable {
+    private List<T> data;
+    private String nextCursor;
+    private boolean hasMore;
+    private int size;
+    public CursorPageResponse(){};
+}
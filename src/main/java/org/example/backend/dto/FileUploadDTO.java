@@ -23,4 +23,7 @@ public class FileUploadDTO {
     private Long totalSize;
 
     private String md5;
+
+    // 上传方式：CHUNK（默认）或 DIRECT
+    private String uploadMode;
 }
\ No newline at end of file
@@ -2,18 +2,15 @@
 package org.example.backend.dto;
 
 import org.example.backend.model.*;
-import org.example.backend.repository.*;
-import org.example.backend.service.UserService;
-import org.springframework.security.authentication.AbstractAuthenticationToken;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
 
+/**
+ * 问题详情。各级数据由 QuestionDetailAssembler 批量查询后组装，
+ * 这里只负责实体到DTO的字段映射，不再访问数据库。
+ */
 public record QuestionDetailDTO(
         Long id,
         String title,
@@ -30,32 +27,9 @@ public record QuestionDetailDTO(
         Long solvedAnswerId // 新增解决答案的 ID
 
 ) implements Serializable {
-    public static QuestionDetailDTO fromQuestion(
-            Question question,
-            QuestionVoteRepository questionVoteRepository,
-            UserService userService,
-            QuestionImageRepository questionImageRepository,
-            AnswerImageRepository   answerImageRepository,
-            AnswerCommentRepository answerCommentRepository) {
-        List<AnswerDTO> answerDTOS = question.getAnswers().stream()
-                .map(answer -> AnswerDTO.fromAnswer(answer, answerImageRepository,answerCommentRepository,userService))
-                .collect(Collectors.toList());
+    public static QuestionDetailDTO of(Question question, List<AnswerDTO> answerDTOS, Boolean userVoteStatus) {
         // 从QuestionContent获取内容
         String content = question.getContent() != null ? question.getContent().getContent() : "";
-
-        Boolean userVoteStatus = null;
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-
-        if (authentication != null && authentication.isAuthenticated()) {
-           User user = (User)userService.loadUserByUsername(authentication.getPrincipal().toString());
-            if (user != null) {
-                Optional<QuestionVote> vote = questionVoteRepository.findByUserIdAndQuestionId(user.getId(), question.getId());
-                userVoteStatus = vote.map(QuestionVote::getVoteType).orElse(null);
-            }
-        }
-
-        // 获取问题图片信息
-        List<QuestionImage> questionImages = questionImageRepository.findByQuestionId(question.getId());
         Long solvedAnswerId = question.getIsSolved() != null ? question.getIsSolved().getId() : null;
 
         return new QuestionDetailDTO(
@@ -66,7 +40,7 @@ public record QuestionDetailDTO(
                 question.getUpdatedTime(),
                 question.getViewCount(),
                 question.getCategoryId(),
-                new AuthorDTO(question.getAuthor().getId(), question.getAuthor().getUsername(), question.getAuthor().getNickname()),
+                AuthorDTO.from(question.getAuthor()),
                 answerDTOS,
                 question.getLikeCount(), // 设置点赞数
                 question.getDislikeCount(), // 设置点踩数
@@ -75,6 +49,14 @@ public record QuestionDetailDTO(
         );
     }
 
+    /**
+     * 返回一个仅浏览量不同的副本（用于叠加尚未落库的浏览增量）
+     */
+    public QuestionDetailDTO withViewCount(int viewCount) {
+        return new QuestionDetailDTO(id, title, content, createdTime, updatedTime, viewCount, categoryId,
+                author, answers, likeCount, dislikeCount, userVoteStatus, solvedAnswerId);
+    }
+
     public record AnswerDTO(
             Long id,
             String content,
@@ -84,24 +66,13 @@ public record QuestionDetailDTO(
             List<String> answerImageUrls, // 回答所有图片的 URL 列表
             List<CommentDTO> comments // 回答的评论列表
     )implements Serializable {
-        public static AnswerDTO fromAnswer(Answer answer, AnswerImageRepository answerImageRepository, AnswerCommentRepository answerCommentRepository,UserService userService) {
-            // 获取回答图片信息
-            List<String> answerImageUrls = answerImageRepository.findByAnswerId(answer.getId()).stream()
-                    .map(AnswerImage::getImagePath)
-                    .collect(Collectors.toList());
-
-            // 获取回答的一级评论
-            List<AnswerComment> comments = answerCommentRepository.findByAnswerIdAndParentCommentIdIsNull(answer.getId());
-            System.out.println("开始获取二级评论");
-            List<CommentDTO> commentDTOS = comments.stream()
-                    .map(comment -> CommentDTO.fromComment(comment, answerCommentRepository,userService))
-                    .collect(Collectors.toList());
+        public static AnswerDTO of(Answer answer, List<String> answerImageUrls, List<CommentDTO> commentDTOS) {
             return new AnswerDTO(
                     answer.getId(),
                     answer.getContent(),
                     answer.getCreatedTime(),
                     answer.getLikeCount(),
-                    new AuthorDTO(answer.getAuthor().getId(), answer.getAuthor().getUsername(), answer.getAuthor().getNickname()),
+                    AuthorDTO.from(answer.getAuthor()),
                     answerImageUrls,
                     commentDTOS
             );
@@ -115,26 +86,20 @@ public record QuestionDetailDTO(
             AuthorDTO author,
             List<CommentDTO> childComments // 子评论列表
     )implements Serializable {
-        public static CommentDTO fromComment(AnswerComment comment, AnswerCommentRepository answerCommentRepository, UserService userService) {
-            // 获取子评论
-            System.out.println("开始获取子评论");
-            Optional<User> userOptional  = userService.findByIdReOPU(comment.getUserId());
-            AuthorDTO author = userOptional .map(user -> new AuthorDTO(user.getId(), user.getUsername(), user.getNickname()))
-                    .orElse(null);
-            List<AnswerComment> childComments = answerCommentRepository.findByParentCommentId(comment.getId());
-            List<CommentDTO> childCommentDTOS = childComments.stream()
-                    .map(childComment -> CommentDTO.fromComment(childComment, answerCommentRepository,userService))
-                    .collect(Collectors.toList());
-
+        public static CommentDTO of(AnswerComment comment, User author, List<CommentDTO> childCommentDTOS) {
             return new CommentDTO(
                     comment.getId(),
                     comment.getContent(),
                     comment.getCreatedAt(),
-                    author,
+                    author != null ? AuthorDTO.from(author) : null,
                     childCommentDTOS
             );
         }
     }
 
-    public record AuthorDTO(Long id, String username, String nickname) {}
-}
\ No newline at end of file
+    public record AuthorDTO(Long id, String username, String nickname) {
+        public static AuthorDTO from(User user) {
+            return new AuthorDTO(user.getId(), user.getUsername(), user.getNickname());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.example.backend.dto;
+
+import org.example.backend.model.Question;
+
+/**
+ * 建立搜索索引所需的问题字段（JPA接口投影，只查询需要的列）
+ */
+public interface QuestionIndexView {
+    Long getId();
+
+    String getTitle();
+
+    String getContent();
+
+    String getNickname();
+
+    Question.QuestionStatus getStatus();
+}
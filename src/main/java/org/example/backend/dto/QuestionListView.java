@@ -0,0 +1,36 @@
+package org.example.backend.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * 问题列表读模型（JPA接口投影）
+ * 由一条SQL直接查出列表展示所需的字段，正文只截取前若干字，回答数和封面图通过子查询得到。
+ */
+public interface QuestionListView {
+    Long getId();
+
+    String getTitle();
+
+    // 正文前21个字符，多取一个字用于判断是否需要省略号
+    String getExcerpt();
+
+    LocalDateTime getCreatedTime();
+
+    Integer getViewCount();
+
+    Long getAnswerCount();
+
+    Long getAuthorId();
+
+    String getAuthorNickname();
+
+    Integer getLikeCount();
+
+    Integer getDislikeCount();
+
+    Long getCategoryId();
+
+    String getCoverImagePath();
+
+    Long getSolvedAnswerId();
+}
@@ -4,6 +4,7 @@ import org.example.backend.model.Question;
 import org.example.backend.model.QuestionImage;
 import org.example.backend.model.User;
 import org.example.backend.service.QuestionImageService;
+import org.example.backend.service.image.ImageVariantService;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
@@ -21,10 +22,14 @@ public record QuestionResponseDTO (
         int dislikeCount, // 点踩数
         Long categoryId,
         String coverImagePath,// 新增封面图片路径字段
+        String coverImageUrl, // 封面原图带内容摘要的地址，可长期缓存
+        String coverThumbUrl, // 封面缩略图地址，列表展示使用
+        String coverMediumUrl, // 封面中等尺寸图片地址
         Long solvedAnswerId // 新增解决答案的 ID
 
 ) implements Serializable {
-    public static QuestionResponseDTO fromQuestion(Question question, QuestionImageService questionImageService) {
+    public static QuestionResponseDTO fromQuestion(Question question, QuestionImageService questionImageService,
+                                                   ImageVariantService imageVariantService) {
         String content = question.getContent() != null ? question.getContent().getContent() : "";
         String truncatedContent = content.length() > 20 ? content.substring(0, 20) + "......" : content;
         User authorUser = question.getAuthor();
@@ -54,9 +59,39 @@ public record QuestionResponseDTO (
                 question.getDislikeCount(), // 设置点踩数
                 question.getCategoryId(),
                 coverImagePath,  // 新增封面图片路径字段
+                imageVariantService.immutableUrl(coverImagePath),
+                imageVariantService.variantUrl(coverImagePath, ImageVariantService.Variant.THUMB),
+                imageVariantService.variantUrl(coverImagePath, ImageVariantService.Variant.MEDIUM),
                 solvedAnswerId // 新增解决答案的 ID
         );
     }
 
+    /**
+     * 由列表投影构建，不触发任何额外查询
+     */
+    public static QuestionResponseDTO fromView(QuestionListView view, ImageVariantService imageVariantService) {
+        String excerpt = view.getExcerpt() != null ? view.getExcerpt() : "";
+        String truncatedContent = excerpt.length() > 20 ? excerpt.substring(0, 20) + "......" : excerpt;
+        String coverImagePath = view.getCoverImagePath() != null ? view.getCoverImagePath().replace("\\", "/") : "";
+
+        return new QuestionResponseDTO(
+                view.getId(),
+                view.getTitle(),
+                truncatedContent,
+                view.getCreatedTime(),
+                view.getViewCount() != null ? view.getViewCount() : 0,
+                view.getAnswerCount() != null ? view.getAnswerCount().intValue() : 0,
+                new AuthorDTO(view.getAuthorId(), view.getAuthorNickname()),
+                view.getLikeCount() != null ? view.getLikeCount() : 0,
+                view.getDislikeCount() != null ? view.getDislikeCount() : 0,
+                view.getCategoryId(),
+                coverImagePath,
+                imageVariantService.immutableUrl(coverImagePath),
+                imageVariantService.variantUrl(coverImagePath, ImageVariantService.Variant.THUMB),
+                imageVariantService.variantUrl(coverImagePath, ImageVariantService.Variant.MEDIUM),
+                view.getSolvedAnswerId()
+        );
+    }
+
     public record AuthorDTO(Long id, String nickname) {}
 }
\ No newline at end of file
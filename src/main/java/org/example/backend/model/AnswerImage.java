@@ -7,7 +7,13 @@ import java.time.LocalDateTime;
 
 @Entity
 @Data
-@Table(name = "answer_images")
+@Table(name = "answer_images", uniqueConstraints = {
+        // 图片转正任务可重复执行，按唯一键 INSERT IGNORE
+        @UniqueConstraint(name = "uk_answer_images_answer_path", columnNames = {"answer_id", "image_path"})
+}, indexes = {
+        // 临时图片回收按完整路径批量查找引用
+        @Index(name = "idx_answer_images_image_path", columnList = "image_path")
+})
 public class AnswerImage {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -14,7 +14,10 @@ import java.util.HashMap;
 import java.util.Map;
 
 @Entity
-@Table(name = "chat_messages")
+@Table(name = "chat_messages", uniqueConstraints = {
+        // 消息序号由 Redis 分配，重复写入（异步写入重试、认领遗留消息）时按唯一键识别
+        @UniqueConstraint(name = "uk_chat_messages_session_index", columnNames = {"session_id", "message_index"})
+})
 @Data
 @Builder
 @NoArgsConstructor
@@ -43,6 +46,13 @@ public class ChatMessageEntity {
     @Column(name = "content", nullable = false, columnDefinition = "TEXT")
     private String content;
 
+    /**
+     * RAG 注入到用户消息中的检索内容，content 只保存用户原话；其他类型的消息为 null
+     */
+    @Lob
+    @Column(name = "retrieval_context", columnDefinition = "TEXT")
+    private String retrievalContext;
+
     @Column(name = "content_hash", length = 64)
     private String contentHash;
 
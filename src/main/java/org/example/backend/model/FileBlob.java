@@ -0,0 +1,40 @@
+// FileBlob.java
+package org.example.backend.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 按内容去重存储的物理文件，多个 FileInfo 可以引用同一个 FileBlob
+ * 内容以分片摘要清单 manifestMd5 加分片大小标识，合并分片时按它去重；
+ * md5 只在整文件MD5已知时写入，只有这样的 blob 参与初始化上传时的秒传匹配
+ */
+@Entity
+@Table(name = "file_blob", indexes = {
+        @Index(name = "uk_file_blob_md5", columnList = "md5", unique = true),
+        @Index(name = "uk_file_blob_manifest", columnList = "manifestMd5, chunkSize", unique = true),
+        @Index(name = "idx_file_blob_ref_count", columnList = "refCount")
+})
+@Data
+public class FileBlob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String md5;             // 整文件MD5，未知时为空
+    private String manifestMd5;     // 分片摘要清单的MD5，登记完成前为空
+    private Integer chunkSize;      // 分片大小，只有一个分片时为0
+    private Long fileSize;          // 文件大小（字节）
+    private String storagePath;     // 物理存储路径
+    private Integer refCount;       // 引用该 blob 的文件记录数，为0后由回收任务删除
+    private LocalDateTime createTime;
+    private LocalDateTime updateTime; // 最近一次引用数变化的时间
+
+    @PrePersist
+    protected void onCreate() {
+        createTime = LocalDateTime.now();
+        updateTime = createTime;
+    }
+}
@@ -20,7 +20,10 @@ public class FileInfo {
     private Long fileSize;          // 文件大小（字节）
     private Integer chunkCount;     // 分片总数
     private Integer chunkSize;      // 分片大小
-    private String md5;             // 文件MD5值
+    private String md5;             // 文件MD5值（单分片时为实际MD5，多分片时为客户端声明的MD5）
+    private String manifestMd5;     // 分片摘要清单的MD5：MD5(各分片MD5依次拼接)-分片数
+    @Column(columnDefinition = "TEXT")
+    private String chunkMd5s;       // 各分片MD5，按分片顺序以逗号分隔，供客户端逐片校验
     // 关联上传用户
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
@@ -32,7 +35,14 @@ public class FileInfo {
     // 方便获取用户名
     @Transient
     private String username;
+    // 实际存储内容的 blob，早于去重存储上传的文件为空
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_id")
+    @JsonIgnore
+    private FileBlob blob;
     private String uploadIp;        // 上传IP地址
+    @Enumerated(EnumType.STRING)
+    private UploadMode uploadMode;  // 上传方式，为空视为 CHUNK
     private LocalDateTime createTime;
 
     @PrePersist
@@ -41,6 +51,11 @@ public class FileInfo {
     }
 
 
+    public enum UploadMode {
+        CHUNK,  // 分片先写入临时目录，最后合并
+        DIRECT  // 预分配目标文件，分片按偏移直接写入，无需合并
+    }
+
     // 获取用户信息的方法
     public Long getUserId() {
         return uploader != null ? uploader.getId() : null;
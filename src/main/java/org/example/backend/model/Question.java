@@ -19,7 +19,10 @@ import java.util.List;
 
 @Entity
 @Data
-@Table(name = "question")
+@Table(name = "question", indexes = {
+        // 问题流游标分页使用的组合索引
+        @Index(name = "idx_question_created_id", columnList = "created_time, id")
+})
 public class Question {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
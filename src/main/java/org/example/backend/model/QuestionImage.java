@@ -7,7 +7,15 @@ import java.time.LocalDateTime;
 
 @Entity
 @Data
-@Table(name = "question_images")
+@Table(name = "question_images", uniqueConstraints = {
+        // 图片转正任务可重复执行，按唯一键 INSERT IGNORE
+        @UniqueConstraint(name = "uk_question_images_question_path", columnNames = {"question_id", "image_path"})
+}, indexes = {
+        // 列表封面图子查询按 question_id 查找
+        @Index(name = "idx_question_images_question_id", columnList = "question_id"),
+        // 临时图片回收按完整路径批量查找引用
+        @Index(name = "idx_question_images_image_path", columnList = "image_path")
+})
 public class QuestionImage {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -6,11 +6,15 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface AnswerImageRepository extends JpaRepository<AnswerImage, Long> {
     List<AnswerImage> findByAnswerId(Long answerId);
 
+    // 批量查询多个回答的图片
+    List<AnswerImage> findByAnswerIdInOrderByIdAsc(Collection<Long> answerIds);
+
     // 根据图片ID删除图片
     @Transactional
     @Modifying
@@ -22,4 +26,8 @@ public interface AnswerImageRepository extends JpaRepository<AnswerImage, Long>
     @Modifying
     @Query("DELETE FROM AnswerImage ai WHERE ai.answerId = :answerId")
     void deleteByAnswerId(Long answerId);
+
+    // 给定路径中已有图片记录的路径（原样返回，不做分隔符转换）
+    @Query("SELECT ai.imagePath FROM AnswerImage ai WHERE ai.imagePath IN :paths")
+    List<String> findImagePathsIn(Collection<String> paths);
 }
\ No newline at end of file
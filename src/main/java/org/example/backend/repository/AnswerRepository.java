@@ -4,6 +4,8 @@ import org.example.backend.model.Answer;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -14,6 +16,10 @@ public interface AnswerRepository extends JpaRepository<Answer, Long> {
     Page<Answer> findByAuthor_Id(Long userId, Pageable pageable);
     List<Answer> findByAuthor_Id(Long userId);
 
+    // 一次性查询问题下的所有回答，并连带加载作者，避免逐条懒加载
+    @Query("SELECT a FROM Answer a JOIN FETCH a.author WHERE a.question.id = :questionId ORDER BY a.id ASC")
+    List<Answer> findWithAuthorByQuestionId(@Param("questionId") Long questionId);
+
     // 查询用户的一级回答（parentAnswer为null）
     // 查询用户的二级评论（parentAnswer不为null）
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package org.example.backend.repository;
+
+import org.example.backend.model.FileBlob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface FileBlobRepository extends JpaRepository<FileBlob, Long> {
+
+    // 按已校验的整文件MD5和大小查找，用于秒传
+    Optional<FileBlob> findByMd5AndFileSize(String md5, Long fileSize);
+
+    Optional<FileBlob> findByMd5(String md5);
+
+    // 按分片摘要清单查找相同内容，用于合并分片前去重
+    Optional<FileBlob> findByManifestMd5AndChunkSize(String manifestMd5, Integer chunkSize);
+
+    /**
+     * 增加引用数；blob 已被回收时返回0
+     */
+    @Modifying
+    @Query("UPDATE FileBlob b SET b.refCount = b.refCount + :delta, b.updateTime = :now WHERE b.id = :id")
+    int adjustRefCount(@Param("id") Long id, @Param("delta") int delta, @Param("now") LocalDateTime now);
+
+    // 引用数已归零且超过保留期的 blob
+    @Query("SELECT b FROM FileBlob b WHERE b.refCount <= 0 AND b.updateTime < :before AND b.id > :afterId ORDER BY b.id")
+    List<FileBlob> findUnreferenced(@Param("before") LocalDateTime before, @Param("afterId") Long afterId, Pageable pageable);
+
+    /**
+     * 仅在仍无引用时删除，与并发的秒传引用互斥
+     */
+    @Modifying
+    @Query("DELETE FROM FileBlob b WHERE b.id = :id AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("id") Long id);
+}
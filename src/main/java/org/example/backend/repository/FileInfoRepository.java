@@ -1,10 +1,12 @@
 package org.example.backend.repository;
 
+import org.example.backend.model.FileBlob;
 import org.example.backend.model.FileInfo;
 import org.example.backend.model.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -22,4 +24,14 @@ public interface FileInfoRepository extends JpaRepository<FileInfo, Long> {
     List<FileInfo> searchFiles(@Param("keyword") String keyword);
 
     // 获取按分类和状态排序的文件列表
+
+    // 把引用 source blob 的文件记录改为引用 target blob（blob 合并去重时使用）
+    @Modifying
+    @Query("UPDATE FileInfo f SET f.blob = :target, f.filePath = :filePath WHERE f.blob = :source")
+    int relinkBlob(@Param("source") FileBlob source, @Param("target") FileBlob target, @Param("filePath") String filePath);
+
+    // 整文件校验完成后，用实际MD5覆盖客户端声明的值
+    @Modifying
+    @Query("UPDATE FileInfo f SET f.md5 = :md5 WHERE f.blob = :blob")
+    int updateMd5ByBlob(@Param("blob") FileBlob blob, @Param("md5") String md5);
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,4 +21,7 @@ public interface QuestionImageRepository extends JpaRepository<QuestionImage, Lo
     @Query("DELETE  FROM QuestionImage qi WHERE qi.questionId = :questionId")
     void deleteByQuestionId(Long questionId);
 
+    // 给定路径中已有图片记录的路径（原样返回，不做分隔符转换）
+    @Query("SELECT qi.imagePath FROM QuestionImage qi WHERE qi.imagePath IN :paths")
+    List<String> findImagePathsIn(Collection<String> paths);
 }
\ No newline at end of file
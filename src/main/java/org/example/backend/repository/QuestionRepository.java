@@ -1,14 +1,19 @@
 // QuestionRepository.java
 package org.example.backend.repository;
 
+import org.example.backend.dto.QuestionIndexView;
+import org.example.backend.dto.QuestionListView;
 import org.example.backend.model.Question;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -67,4 +72,83 @@ public interface QuestionRepository extends JpaRepository<Question, Long> {
     );
     Integer countByAuthor_Id(Long userId);
 
+    /**
+     * 原子地调整点赞/点踩计数（在投票记录所在的事务中执行）
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Question q SET " +
+            "q.likeCount = COALESCE(q.likeCount, 0) + :likeDelta, " +
+            "q.dislikeCount = COALESCE(q.dislikeCount, 0) + :dislikeDelta " +
+            "WHERE q.id = :questionId")
+    int adjustVoteCounts(@Param("questionId") Long questionId,
+                         @Param("likeDelta") int likeDelta,
+                         @Param("dislikeDelta") int dislikeDelta);
+
+    // 问题列表投影：一条SQL取出列表所需字段，不加载实体图
+    String LIST_VIEW_SELECT = "SELECT q.id AS id, q.title AS title, " +
+            "SUBSTRING(c.content, 1, 21) AS excerpt, " +
+            "q.createdTime AS createdTime, q.viewCount AS viewCount, " +
+            "(SELECT COUNT(a) FROM Answer a WHERE a.question.id = q.id) AS answerCount, " +
+            "u.id AS authorId, u.nickname AS authorNickname, " +
+            "q.likeCount AS likeCount, q.dislikeCount AS dislikeCount, q.categoryId AS categoryId, " +
+            "(SELECT qi.imagePath FROM QuestionImage qi WHERE qi.id = " +
+            "(SELECT MIN(qi2.id) FROM QuestionImage qi2 WHERE qi2.questionId = q.id)) AS coverImagePath, " +
+            "q.isSolved.id AS solvedAnswerId " +
+            "FROM Question q LEFT JOIN q.content c JOIN q.author u ";
+
+    // 按主键排序，每页包含的是一段连续的问题ID，QuestionCacheInvalidator 按ID范围定位问题所在页
+    @Query(value = LIST_VIEW_SELECT + "ORDER BY q.id", countQuery = "SELECT COUNT(q) FROM Question q")
+    Page<QuestionListView> findListViews(Pageable pageable);
+
+    // 游标分页：问题流第一页，按 (created_time, id) 倒序，走 idx_question_created_id 索引
+    @Query(LIST_VIEW_SELECT + "ORDER BY q.createdTime DESC, q.id DESC")
+    List<QuestionListView> findFeedFirstPage(Pageable pageable);
+
+    // 游标分页：取游标之后的一页，不做 COUNT 查询；MySQL 倒序时 created_time 为 NULL 的旧数据排在最后
+    @Query(LIST_VIEW_SELECT +
+            "WHERE q.createdTime < :createdTime OR (q.createdTime = :createdTime AND q.id < :id) OR q.createdTime IS NULL " +
+            "ORDER BY q.createdTime DESC, q.id DESC")
+    List<QuestionListView> findFeedPageAfter(@Param("createdTime") LocalDateTime createdTime,
+                                             @Param("id") Long id,
+                                             Pageable pageable);
+
+    // 游标分页：游标已进入 created_time 为 NULL 的部分，只按ID继续
+    @Query(LIST_VIEW_SELECT +
+            "WHERE q.createdTime IS NULL AND q.id < :id " +
+            "ORDER BY q.id DESC")
+    List<QuestionListView> findFeedUndatedPageAfter(@Param("id") Long id, Pageable pageable);
+
+    // 按ID游标分批读取建索引所需字段
+    @Query("SELECT q.id AS id, q.title AS title, c.content AS content, a.nickname AS nickname, q.status AS status " +
+            "FROM Question q LEFT JOIN q.content c JOIN q.author a " +
+            "WHERE q.id > :afterId ORDER BY q.id ASC")
+    List<QuestionIndexView> findIndexViewsAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    // 单个问题建索引所需字段，问题增改后更新索引时使用
+    @Query("SELECT q.id AS id, q.title AS title, c.content AS content, a.nickname AS nickname, q.status AS status " +
+            "FROM Question q LEFT JOIN q.content c JOIN q.author a " +
+            "WHERE q.id = :id")
+    Optional<QuestionIndexView> findIndexViewById(@Param("id") Long id);
+
+    @Query("SELECT MAX(q.id) FROM Question q")
+    Long findMaxId();
+
+    /**
+     * 按ID区间用 question_vote 的实际统计值修正偏差的点赞/点踩计数，返回修正的行数
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE question q " +
+            "LEFT JOIN (SELECT v.question_id, " +
+            "SUM(CASE WHEN v.vote_type = 1 THEN 1 ELSE 0 END) AS likes, " +
+            "SUM(CASE WHEN v.vote_type = 0 THEN 1 ELSE 0 END) AS dislikes " +
+            "FROM question_vote v WHERE v.question_id BETWEEN :fromId AND :toId GROUP BY v.question_id) c " +
+            "ON c.question_id = q.id " +
+            "SET q.like_count = COALESCE(c.likes, 0), q.dislike_count = COALESCE(c.dislikes, 0) " +
+            "WHERE q.id BETWEEN :fromId AND :toId " +
+            "AND (q.like_count IS NULL OR q.dislike_count IS NULL " +
+            "OR q.like_count <> COALESCE(c.likes, 0) OR q.dislike_count <> COALESCE(c.dislikes, 0))",
+            nativeQuery = true)
+    int reconcileVoteCounts(@Param("fromId") Long fromId, @Param("toId") Long toId);
+
 }
\ No newline at end of file
@@ -7,6 +7,8 @@ import org.example.backend.model.AnswerReport;
 import org.example.backend.model.Notification;
 import org.example.backend.model.Question;
 import org.example.backend.repository.*;
+import org.example.backend.service.question.event.AnswerRemovedEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
@@ -26,13 +28,15 @@ public class AdminAnswerReportService {
     private final QuestionRepository questionRepository;
     private final AdminNotificationRepository adminNotificationRepository;
     private AnswerService answerService;
+    private final ApplicationEventPublisher eventPublisher;
 
     public AdminAnswerReportService(AnswerReportRepository answerReportRepository,
                                AnswerRepository answerRepository,
                                UserRepository userRepository,
                                QuestionRepository questionRepository,
                                AdminNotificationRepository adminNotificationRepository,
-                               AnswerService answerService
+                               AnswerService answerService,
+                               ApplicationEventPublisher eventPublisher
                                 ) {
         this.answerReportRepository = answerReportRepository;
         this.answerRepository = answerRepository;
@@ -40,6 +44,7 @@ public class AdminAnswerReportService {
         this.questionRepository = questionRepository;
         this.adminNotificationRepository = adminNotificationRepository;
         this.answerService = answerService;
+        this.eventPublisher = eventPublisher;
     }
 
     @Transactional
@@ -53,6 +58,7 @@ public class AdminAnswerReportService {
 
                 Optional<Answer> reportedAnswer = answerRepository.findById( answerReport.getAnswerId());
                 answerRepository.deleteById(reportedAnswer.get().getId());
+                eventPublisher.publishEvent(new AnswerRemovedEvent(reportedAnswer.get().getQuestion().getId(), reportedAnswer.get().getId()));
 
                 // 更新举报记录状态为已批准
                 answerReport.setStatus(AnswerReport.ReportStatus.APPROVED);
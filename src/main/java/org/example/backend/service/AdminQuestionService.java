@@ -26,6 +26,11 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import org.example.backend.service.AdminNotificationService;
+import org.example.backend.service.question.search.QuestionSearchIndex;
+import org.example.backend.config.cache.TwoLevelCacheManager;
+import org.example.backend.service.question.event.QuestionDeletedEvent;
+import org.example.backend.service.question.event.QuestionStatusChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
 @Service
 public class AdminQuestionService {
 
@@ -39,11 +44,20 @@ public class AdminQuestionService {
     private UserRepository userRepository;
 
     private AdminNotificationService adminNotificationService;
-    public AdminQuestionService(QuestionRepository questionRepository,QuestionReportRepository questionReportRepository,UserRepository userRepository,AdminNotificationService adminNotificationService) {
+
+    private QuestionSearchIndex questionSearchIndex;
+
+    private TwoLevelCacheManager cacheManager;
+
+    private ApplicationEventPublisher eventPublisher;
+    public AdminQuestionService(QuestionRepository questionRepository,QuestionReportRepository questionReportRepository,UserRepository userRepository,AdminNotificationService adminNotificationService,QuestionSearchIndex questionSearchIndex,TwoLevelCacheManager cacheManager,ApplicationEventPublisher eventPublisher) {
             this.questionRepository = questionRepository;
             this.questionReportRepository = questionReportRepository;
             this.userRepository = userRepository;
             this.adminNotificationService = adminNotificationService;
+            this.questionSearchIndex = questionSearchIndex;
+            this.cacheManager = cacheManager;
+            this.eventPublisher = eventPublisher;
     }
     // 获取问题列表（原方法保留）
     public List<Question> getQuestionList(Question.QuestionStatus status, Boolean isReported, Long authorId, String title, String content) {
@@ -76,6 +90,7 @@ public class AdminQuestionService {
                 if (question.getStatus() == QuestionStatus.NORMAL) {
                     question.setStatus(QuestionStatus.CLOSED);
                     questionRepository.save(question);
+                    eventPublisher.publishEvent(new QuestionStatusChangedEvent(questionId, QuestionStatus.CLOSED));
                     notifyUser(question.getAuthor().getId(), "你的问题已被封禁，请重新提交审核。");
                     return ApiResponse.success(ResponseStatus.SUCCESS.getCode(), "问题封禁成功");
                 } else {
@@ -111,6 +126,7 @@ public class AdminQuestionService {
 
             // 执行删除
             questionRepository.delete(question);
+            eventPublisher.publishEvent(new QuestionDeletedEvent(questionId));
 
             notifyUser(question.getAuthor().getId(), "你的问题已被删除。");
             return ApiResponse.success(ResponseStatus.SUCCESS.getCode(), "问题删除成功");
@@ -132,6 +148,7 @@ public class AdminQuestionService {
                         question.setStatus(QuestionStatus.NORMAL);
                     }
                     questionRepository.save(question);
+                    eventPublisher.publishEvent(new QuestionStatusChangedEvent(questionId, question.getStatus()));
                     String message = approved ? "你的问题已通过审核。" : "你的问题未通过审核，请修改后重新提交。";
                     notifyUser(question.getAuthor().getId(), message);
                     return ApiResponse.success(ResponseStatus.SUCCESS.getCode(), message);
@@ -162,6 +179,7 @@ public class AdminQuestionService {
                     }
                     questionReportRepository.save(report);
                     questionRepository.save(report.getQuestion());
+                    eventPublisher.publishEvent(new QuestionStatusChangedEvent(report.getQuestion().getId(), report.getQuestion().getStatus()));
                     String message = approved ? "你举报的问题已被封禁。" : "你举报的问题未通过审核。";
                     notifyUser(report.getReporter().getId(), message);
                     return ApiResponse.success(ResponseStatus.SUCCESS.getCode(), "举报审核成功");
@@ -176,6 +194,21 @@ public class AdminQuestionService {
         }
     }
 
+    // 重建问题搜索索引
+    public ApiResponse rebuildSearchIndex() {
+        try {
+            int count = questionSearchIndex.rebuild();
+            return ApiResponse.success(ResponseStatus.SUCCESS.getCode(), "搜索索引重建完成", count);
+        } catch (Exception e) {
+            return ApiResponse.error(ResponseStatus.INTERNAL_SERVER_ERROR.getCode(), "搜索索引重建失败：" + e.getMessage());
+        }
+    }
+
+    // 查看各缓存的加载统计（实际加载次数、被合并的请求数、提前刷新次数）
+    public ApiResponse getCacheLoadStats() {
+        return ApiResponse.success(ResponseStatus.SUCCESS.getCode(), "获取缓存统计成功", cacheManager.getLoadStats());
+    }
+
     // 获取问题举报列表
     public Page<QuestionReport> getQuestionReportList(ReportStatus status, LocalDateTime startTime, LocalDateTime endTime, Long questionId, Long reporterId, Pageable pageable) {
         return questionReportRepository.findQuestionReports(status, startTime, endTime, questionId, reporterId, pageable);
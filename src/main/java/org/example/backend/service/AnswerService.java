@@ -4,7 +4,11 @@ package org.example.backend.service;
 import org.example.backend.dto.UserReplyDTO;
 import org.example.backend.model.*;
 import org.example.backend.repository.*;
-import org.springframework.cache.annotation.CacheEvict;
+import org.example.backend.service.image.ImagePromotionService;
+import org.example.backend.service.question.event.AnswerAddedEvent;
+import org.example.backend.service.question.event.AnswerRemovedEvent;
+import org.example.backend.utils.HtmlContentProcessor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
@@ -16,8 +20,6 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,8 +29,9 @@ public class AnswerService {
     private final UserRepository userRepository;
     private final AnswerReportRepository answerReportRepository;
     private final AnswerCommentRepository answerCommentRepository;
-    private final ImageUploadService imageUploadService;
-    private final AnswerImageService answerImageService;
+    private final ImagePromotionService imagePromotionService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final HtmlContentProcessor htmlContentProcessor;
 
     public AnswerService(
             AnswerRepository answerRepository,
@@ -36,18 +39,20 @@ public class AnswerService {
             UserRepository userRepository,
             AnswerReportRepository answerReportRepository,
             AnswerCommentRepository answerCommentRepository,
-            ImageUploadService imageUploadService, AnswerImageService answerImageService) {
+            ImagePromotionService imagePromotionService,
+            ApplicationEventPublisher eventPublisher,
+            HtmlContentProcessor htmlContentProcessor) {
         this.answerRepository = answerRepository;
         this.questionRepository = questionRepository;
         this.userRepository = userRepository;
         this.answerReportRepository = answerReportRepository;
         this.answerCommentRepository = answerCommentRepository;
-        this.imageUploadService = imageUploadService;
-        this.answerImageService = answerImageService;
+        this.imagePromotionService = imagePromotionService;
+        this.eventPublisher = eventPublisher;
+        this.htmlContentProcessor = htmlContentProcessor;
     }
 
     @Transactional
-    @CacheEvict(value = "questions", key = "#a0") // 直接取 questionId
     public Answer createAnswer(Long questionId, Long userId, LocalDateTime answerTime, String content) throws IOException {
         Question question = questionRepository.findById(questionId)
                 .orElseThrow(() -> new RuntimeException("问题不存在"));
@@ -60,38 +65,15 @@ public class AnswerService {
         answer.setAuthor(user);
         answer.setCreatedTime(answerTime);
 
-        // 正则表达式：匹配 src 属性值中的 "temp_" 字符串（不区分大小写）
-        Pattern pattern1 = Pattern.compile("src=['\"](.*?temp_)(.*?)['\"]", Pattern.CASE_INSENSITIVE);
-        Matcher matcher1 = pattern1.matcher(content);
-
-        // 构建替换后的内容
-        StringBuffer result = new StringBuffer();
-        while (matcher1.find()) {
-            // 提取匹配到的分组：group(1) 是 "temp_" 前的路径，group(2) 是剩余部分
-            String tempPart = matcher1.group(1); // 例如："http://127.0.0.1:8080/uploads/"
-            String restPart = matcher1.group(2); // 例如："4f38eb1e-d103-4382-9903-55dacb3967db_100 (3).png"
-
-            // 删除 "temp_" 部分
-            String newPath = tempPart.replace("temp_", "") + restPart;
-
-            // 替换到原内容中
-            matcher1.appendReplacement(result, "src='" + newPath + "'");
-        }
-        matcher1.appendTail(result);
-        answer.setContent(String.valueOf(result));
+        // 一次扫描完成内容清理、临时图片地址改写和图片文件名收集
+        List<String> imageNames = new ArrayList<>();
+        answer.setContent(htmlContentProcessor.process(content,
+                imagePromotionService.tempImageRewriter(ImagePromotionService.Owner.ANSWER, imageNames)).html());
 
         Answer answerRes=  answerRepository.save(answer);
-        // 提取content中所有img标签的src属性
-        Pattern pattern2 = Pattern.compile("<img[^>]+src\\s*=\\s*['\"]([^'\"]+)['\"][^>]*>");
-        Matcher matcher2 = pattern2.matcher(content);
-        while (matcher2.find()) {
-            String imgUrl = matcher2.group(1);
-            // 获取图片名称
-            String imageName = imgUrl.substring(imgUrl.lastIndexOf('/') + 1);
-            imgUrl = imageUploadService.saveImage("uploads/temp_answer",imageName,"uploads/answer");
-            // 创建QuestionImage对象并保存到数据库
-            answerImageService.saveImage(answerRes.getId(),imgUrl);
-        }
+        // 临时图片在请求内移动到正式目录，图片记录在事务提交后由后台批量写入
+        imagePromotionService.promoteLater(ImagePromotionService.Owner.ANSWER, answerRes.getId(), imageNames);
+        eventPublisher.publishEvent(new AnswerAddedEvent(questionId, answerRes.getId()));
 
         return answerRes;
     }
@@ -103,6 +85,7 @@ public class AnswerService {
         if (answer != null) {
             if (answer.getAuthor().getId().equals(currentUserId)) {
                 answerRepository.delete(answer);
+                eventPublisher.publishEvent(new AnswerRemovedEvent(answer.getQuestion().getId(), answer.getId()));
                 return true;
             } else {
                 return false;
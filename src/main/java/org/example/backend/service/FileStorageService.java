@@ -6,12 +6,15 @@ import org.example.backend.config.FileUploadConfig;
 import org.example.backend.dto.ChunkUploadDTO;
 import org.example.backend.dto.FileInfoDTO;
 import org.example.backend.dto.FileUploadDTO;
+import org.example.backend.model.FileBlob;
 import org.example.backend.model.FileInfo;
 import org.example.backend.model.ResourceCategory; // 新增：资源分类实体类
 import org.example.backend.model.User;
 import org.example.backend.repository.FileInfoRepository;
 import org.example.backend.repository.ResourceCategoryRepository; // 新增：资源分类Repository
 import org.example.backend.repository.UserRepository;
+import org.example.backend.service.file.BlobStore;
+import org.example.backend.service.file.UploadChunkTracker;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -20,11 +23,15 @@ import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.DigestUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -41,6 +48,8 @@ public class FileStorageService {
     private final ObjectMapper objectMapper;
     // 新增：注入分类Repository
     private final ResourceCategoryRepository categoryRepository;
+    private final UploadChunkTracker chunkTracker;
+    private final BlobStore blobStore;
 
     /**
      * 从数据库查询所有分类（按创建时间降序）
@@ -75,8 +84,25 @@ public class FileStorageService {
      * 检查分片是否存在
      */
     public boolean checkChunkExists(Long fileId, int chunkIndex) {
-        String chunkKey = getChunkKey(fileId, chunkIndex);
-        return Files.exists(getChunkPath(fileId, chunkIndex));
+        return chunkTracker.isUploaded(fileId, chunkIndex);
+    }
+
+    /**
+     * 查询上传进度：已上传分片数和缺失的分片序号，用于断点续传
+     */
+    public Map<String, Object> getUploadProgress(Long fileId) {
+        FileInfo fileInfo = fileRepository.findById(fileId)
+                .orElseThrow(() -> new RuntimeException("文件记录不存在"));
+        int totalChunks = fileInfo.getChunkCount();
+        List<Integer> missingChunks = chunkTracker.missingChunks(fileId, totalChunks);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("fileId", fileId);
+        result.put("chunkCount", totalChunks);
+        result.put("uploadedCount", totalChunks - missingChunks.size());
+        result.put("missingChunks", missingChunks);
+        result.put("allChunksUploaded", missingChunks.isEmpty());
+        return result;
     }
 
 
@@ -84,9 +110,18 @@ public class FileStorageService {
 
     /**
      * 初始化上传（只有ADMIN可以调用）
+     * 客户端提供的MD5与已存储的内容一致时直接引用已有文件（秒传），无需再上传分片
+     * @return fileKey：文件ID；instant：是否已秒传完成
      */
     @Transactional
-    public String initUpload(FileUploadDTO dto, String clientIp) {
+    public Map<String, Object> initUpload(FileUploadDTO dto, String clientIp) {
+        // 先校验参数再写数据库和 Redis：分片总数决定位图长度
+        validateChunkCount(dto.getChunkCount());
+        if (dto.getTotalSize() == null || dto.getTotalSize() < 0) {
+            throw new IllegalArgumentException("文件总大小不能为空");
+        }
+        FileInfo.UploadMode uploadMode = parseUploadMode(dto.getUploadMode());
+        long chunkSize = resolveChunkSize(dto.getChunkSize(), uploadMode);
 
         try {
             // 优化：使用数据库动态校验分类
@@ -98,24 +133,53 @@ public class FileStorageService {
             }
 
             // 创建文件记录
-            String fileKey = generateFileKey();
             FileInfo fileInfo = new FileInfo();
             fileInfo.setFileName(dto.getFileName());
             fileInfo.setCategory(dto.getCategory());
             fileInfo.setChunkCount(dto.getChunkCount());
-            fileInfo.setChunkSize(dto.getChunkSize().intValue());
+            fileInfo.setChunkSize((int) chunkSize);
             fileInfo.setFileSize(dto.getTotalSize());
-            fileInfo.setMd5(dto.getMd5());
+            // 客户端提供的MD5未经校验，只用于查找秒传，不写入记录；整文件MD5在合并时由服务端确定
             //fileInfo.setUploader(currentUser);
             fileInfo.setUploadIp(clientIp);
             fileInfo.setCreateTime(LocalDateTime.now());
+            fileInfo.setUploadMode(uploadMode);
+
+            Optional<FileBlob> existingBlob = blobStore.acquireExisting(dto.getMd5(), dto.getTotalSize());
+            if (existingBlob.isPresent()) {
+                FileBlob blob = existingBlob.get();
+                fileInfo.setBlob(blob);
+                fileInfo.setFilePath(blob.getStoragePath());
+                fileInfo.setMd5(blob.getMd5());
+                fileRepository.save(fileInfo);
+
+                Map<String, Object> result = new HashMap<>();
+                result.put("fileKey", String.valueOf(fileInfo.getId()));
+                result.put("instant", true);
+                return result;
+            }
             fileRepository.save(fileInfo);
-            // 初始化分片状态
-            if (dto.getChunkCount() > 1) {
-                initChunkStatus(fileKey, dto.getChunkCount());
+
+            if (fileInfo.getUploadMode() == FileInfo.UploadMode.DIRECT) {
+                // 除最后一片外每片大小都必须等于 chunkSize，分片才能按偏移定位
+                if (dto.getTotalSize() <= (dto.getChunkCount() - 1) * chunkSize
+                        || dto.getTotalSize() > dto.getChunkCount() * chunkSize) {
+                    throw new IllegalArgumentException("分片数与分片大小、文件大小不匹配");
+                }
+                // 预分配目标文件（多数文件系统上为稀疏文件，不会立即占满磁盘）
+                Path partPath = getPartFilePath(getTargetFilePath(fileInfo.getCategory(), fileInfo.getFileName(), fileInfo.getId()));
+                Files.createDirectories(partPath.getParent());
+                try (RandomAccessFile file = new RandomAccessFile(partPath.toFile(), "rw")) {
+                    file.setLength(dto.getTotalSize());
+                }
             }
+            // 初始化分片状态，分片目录、分片状态和合并都以文件ID为key
+            chunkTracker.init(fileInfo.getId(), dto.getChunkCount());
 
-            return fileKey;
+            Map<String, Object> result = new HashMap<>();
+            result.put("fileKey", String.valueOf(fileInfo.getId()));
+            result.put("instant", false);
+            return result;
 
         } catch (Exception e) {
             log.error("初始化上传失败", e);
@@ -123,62 +187,97 @@ public class FileStorageService {
         }
     }
 
+    /**
+     * 分片总数必须在 (0, ceil(最大文件大小 / 最小分片大小)] 之间，
+     * 避免负数位偏移，以及超大的分片数在 Redis 中分配巨大的位图
+     */
+    private void validateChunkCount(Integer chunkCount) {
+        if (chunkCount == null || chunkCount <= 0) {
+            throw new IllegalArgumentException("分片总数必须大于0");
+        }
+        long maxChunkCount = (config.getMaxFileSize() + config.getMinChunkSize() - 1) / config.getMinChunkSize();
+        if (chunkCount > maxChunkCount) {
+            throw new IllegalArgumentException("分片总数不能超过" + maxChunkCount);
+        }
+    }
+
+    /**
+     * 分片大小：直接写入模式按它计算分片偏移，必须由客户端提供；分片模式未提供时使用默认分片大小
+     */
+    private long resolveChunkSize(Long chunkSize, FileInfo.UploadMode uploadMode) {
+        if (chunkSize == null) {
+            if (uploadMode == FileInfo.UploadMode.DIRECT) {
+                throw new IllegalArgumentException("直接写入模式必须提供分片大小");
+            }
+            return config.getChunkSize();
+        }
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("无效的分片大小：" + chunkSize);
+        }
+        return chunkSize;
+    }
+
     /**
      * 上传分片（只有ADMIN可以调用）
+     * @param expectedMd5 客户端计算的分片MD5，可为空；不为空时与服务端接收时计算的结果比对
      */
-//    @Transactional
-//    public Map<String, Object> uploadChunk(ChunkUploadDTO dto, String clientIp) {
-//        //验证权限
-//        //        validateAdminPermission();
-//
-//        try {
-//            // 优化：使用数据库动态校验分类
-//            validateCategory(dto.getCategory());
-//
-//            String fileKey = dto.getFileKey();
-//            int chunkIndex = dto.getChunkIndex();
-//
-//            // 检查文件记录是否存在
-//            FileInfo fileInfo = fileRepository.findByFileKey(fileKey)
-//                    .orElseThrow(() -> new RuntimeException("文件记录不存在"));
-//
-//           // User currentUser = getCurrentUser();
-////            if (!fileInfo.getUploader().getId().equals(currentUser.getId())) {
-////                throw new AccessDeniedException("无权操作此文件");
-////            }
-//
-//            // 检查并发控制
-//            if (!acquireUploadLock(fileKey)) {
-//                throw new RuntimeException("上传并发数已达上限");
-//            }
-//
-//            try {
-//                // 保存分片文件
-//                saveChunkFile(dto.getChunk(), fileKey, chunkIndex);
-//
-//                // 更新分片状态
-//                updateChunkStatus(fileKey, chunkIndex);
-//
-//                // 检查是否所有分片都已完成
-//                boolean allChunksUploaded = checkAllChunksUploaded(fileKey, dto.getChunkCount());
-//
-//                Map<String, Object> result = new HashMap<>();
-//                result.put("success", true);
-//                result.put("chunkIndex", chunkIndex);
-//                result.put("allChunksUploaded", allChunksUploaded);
-//                result.put("message", "分片上传成功");
-//
-//                return result;
-//
-//            } finally {
-//                releaseUploadLock(fileKey);
-//            }
-//
-//        } catch (Exception e) {
-//            log.error("分片上传失败", e);
-//            throw new RuntimeException("分片上传失败: " + e.getMessage());
-//        }
-//    }
+    public Map<String, Object> uploadChunk(Long fileId, int chunkIndex, MultipartFile chunk, String expectedMd5) {
+        try {
+            // 检查文件记录是否存在
+            FileInfo fileInfo = fileRepository.findById(fileId)
+                    .orElseThrow(() -> new RuntimeException("文件记录不存在"));
+            if (chunkIndex < 0 || chunkIndex >= fileInfo.getChunkCount()) {
+                throw new IllegalArgumentException("分片序号超出范围：" + chunkIndex);
+            }
+
+            // 检查并发控制
+            if (!acquireUploadLock(fileId)) {
+                throw new RuntimeException("上传并发数已达上限");
+            }
+
+            try {
+                // 保存分片，边写边计算MD5
+                boolean direct = fileInfo.getUploadMode() == FileInfo.UploadMode.DIRECT;
+                if (direct) {
+                    // 覆盖写入前先取消标记：校验失败或写到一半中断时，该分片保持未上传，合并前必须重传
+                    chunkTracker.unmark(fileId, chunkIndex);
+                }
+                String chunkMd5 = direct
+                        ? writeChunkAtOffset(chunk, fileInfo, chunkIndex)
+                        : saveChunkFile(chunk, fileId, chunkIndex);
+                if (expectedMd5 != null && !expectedMd5.isBlank() && !expectedMd5.equalsIgnoreCase(chunkMd5)) {
+                    // 直接写入模式下该区域已取消标记，等待客户端重传覆盖
+                    if (!direct) {
+                        Files.deleteIfExists(getChunkPath(fileId, chunkIndex));
+                    }
+                    throw new RuntimeException("分片" + chunkIndex + "校验失败，请重新上传");
+                }
+
+                // 更新分片状态
+                chunkTracker.markUploaded(fileId, chunkIndex, chunkMd5);
+
+                // 检查是否所有分片都已完成
+                long uploadedCount = chunkTracker.countUploaded(fileId);
+
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", true);
+                result.put("chunkIndex", chunkIndex);
+                result.put("chunkMd5", chunkMd5);
+                result.put("uploadedCount", uploadedCount);
+                result.put("allChunksUploaded", uploadedCount >= fileInfo.getChunkCount());
+                result.put("message", "分片上传成功");
+
+                return result;
+
+            } finally {
+                releaseUploadLock(fileId);
+            }
+
+        } catch (Exception e) {
+            log.error("分片上传失败", e);
+            throw new RuntimeException("分片上传失败: " + e.getMessage());
+        }
+    }
 
     /**
      * 合并分片（只有ADMIN可以调用）
@@ -190,6 +289,9 @@ public class FileStorageService {
         try {
             FileInfo fileInfo = fileRepository.findById(fileId)
                     .orElseThrow(() -> new RuntimeException("文件记录不存在"));
+            if (fileInfo.getFilePath() != null) {
+                throw new RuntimeException("文件已上传完成");
+            }
 
             // 验证文件所有权
             //User currentUser = getCurrentUser();
@@ -197,52 +299,89 @@ public class FileStorageService {
 //                throw new AccessDeniedException("无权操作此文件");
 //            }
 
-            // 获取分片状态
-            Map<Integer, Boolean> chunkStatus = getChunkStatus(fileId);
-            int totalChunks = fileInfo.getChunkCount();
-
             // 验证所有分片是否已上传
+            int totalChunks = fileInfo.getChunkCount();
+            List<Integer> missingChunks = chunkTracker.missingChunks(fileId, totalChunks);
+            if (!missingChunks.isEmpty()) {
+                throw new RuntimeException("分片" + missingChunks.get(0) + "未上传，共缺少" + missingChunks.size() + "个分片");
+            }
+            List<String> chunkMd5s = chunkTracker.chunkDigests(fileId, totalChunks);
             for (int i = 0; i < totalChunks; i++) {
-                if (!chunkStatus.getOrDefault(i, false)) {
-                    throw new RuntimeException("分片" + i + "未上传");
+                if (chunkMd5s.get(i) == null) {
+                    throw new RuntimeException("分片" + i + "缺少摘要，请重新上传该分片");
                 }
             }
 
-            // 创建目标文件路径（基于分类动态创建目录）
-            String category = fileInfo.getCategory();
             String fileName = fileInfo.getFileName();
-            Path targetPath = getTargetFilePath(category, fileName, fileId);
-            Files.createDirectories(targetPath.getParent());
-
-            // 合并分片
-            try (OutputStream outputStream = Files.newOutputStream(targetPath)) {
-                for (int i = 0; i < totalChunks; i++) {
-                    Path chunkPath = getChunkPath(fileId, i);
-                    Files.copy(chunkPath, outputStream);
+            String manifestMd5 = manifestMd5(chunkMd5s);
+            // 只有一个分片时分片MD5就是整个文件的MD5，与分片大小无关
+            int manifestChunkSize = totalChunks == 1 || fileInfo.getChunkSize() == null ? 0 : fileInfo.getChunkSize();
+            String knownMd5 = totalChunks == 1 ? chunkMd5s.get(0) : null;
+
+            // 已存储相同内容时直接引用，不再写入
+            Optional<FileBlob> existingBlob = blobStore.acquireByManifest(manifestMd5, manifestChunkSize, fileInfo.getFileSize());
+            if (existingBlob.isPresent()) {
+                FileBlob blob = existingBlob.get();
+                discardUploadedContent(fileInfo, totalChunks);
+                fileInfo.setBlob(blob);
+                fileInfo.setFilePath(blob.getStoragePath());
+                fileInfo.setChunkMd5s(String.join(",", chunkMd5s));
+                fileInfo.setManifestMd5(manifestMd5);
+                fileInfo.setMd5(blob.getMd5());
+                fileRepository.save(fileInfo);
+                chunkTracker.clear(fileId);
+
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", true);
+                result.put("fileName", fileName);
+                result.put("filePath", blob.getStoragePath());
+                result.put("fileSize", blob.getFileSize());
+                result.put("manifestMd5", manifestMd5);
+                result.put("message", "文件合并完成");
+                return result;
+            }
 
-                    // 删除已合并的分片
-                    Files.deleteIfExists(chunkPath);
+            // 内容写入按内容去重的存储，文件记录引用该存储（引用数为1）
+            FileBlob blob = blobStore.create(fileInfo.getFileSize());
+            Path targetPath = Paths.get(blob.getStoragePath());
+
+            long fileSize;
+            try {
+                if (fileInfo.getUploadMode() == FileInfo.UploadMode.DIRECT) {
+                    // 分片已按偏移写入预分配文件，只需落盘后改名
+                    Path partPath = getPartFilePath(getTargetFilePath(fileInfo.getCategory(), fileName, fileId));
+                    fileSize = completeDirectUpload(partPath, targetPath);
+                } else {
+                    fileSize = mergeChunkFiles(fileId, totalChunks, targetPath, fileInfo.getFileSize());
                 }
+            } catch (IOException | RuntimeException e) {
+                // blob 记录随事务回滚，已写出的内容一并删除
+                Files.deleteIfExists(targetPath);
+                throw e;
             }
 
-            // 计算文件MD5
-            String fileMd5 = calculateFileMd5(targetPath);
-
             // 更新文件信息
+            fileInfo.setBlob(blob);
             fileInfo.setFilePath(targetPath.toString());
-            fileInfo.setFileSize(Files.size(targetPath));
-            fileInfo.setMd5(fileMd5);
+            fileInfo.setFileSize(fileSize);
+            fileInfo.setChunkMd5s(String.join(",", chunkMd5s));
+            fileInfo.setManifestMd5(manifestMd5);
+            // 多分片文件的整文件MD5未知时留空，开启 upload.blob-full-md5 后由 BlobStore 计算后回填
+            fileInfo.setMd5(knownMd5);
             fileRepository.save(fileInfo);
+            // 提交后登记内容标识，其他实例同时合并了相同内容时引用合并到同一存储
+            blobStore.registerLater(blob.getId(), manifestMd5, manifestChunkSize, knownMd5);
 
             // 清理Redis中的分片状态
-            cleanUpChunkStatus(fileId);
+            chunkTracker.clear(fileId);
 
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
 
             result.put("fileName", fileName);
             result.put("filePath", targetPath.toString());
-            result.put("fileSize", Files.size(targetPath));
+            result.put("fileSize", fileSize);
+            result.put("manifestMd5", fileInfo.getManifestMd5());
             result.put("message", "文件合并完成");
 
             return result;
@@ -292,18 +431,31 @@ public class FileStorageService {
 
     /**
      * 下载文件（USER和ADMIN都可以访问）
+     * @return 已上传完成且物理文件存在的文件记录
      */
-    public Path downloadFile(Long fileId) {
+    public FileInfo downloadFile(Long fileId) {
         FileInfo fileInfo = fileRepository.findById(fileId)
                 .orElseThrow(() -> new RuntimeException("文件不存在"));
 
-
-        Path filePath = Paths.get(fileInfo.getFilePath());
-        if (!Files.exists(filePath)) {
+        if (fileInfo.getFilePath() == null || !Files.exists(Paths.get(fileInfo.getFilePath()))) {
             throw new RuntimeException("文件不存在");
         }
 
-        return filePath;
+        return fileInfo;
+    }
+
+    /**
+     * 文件的实体标签：优先使用上传时得到的摘要，没有摘要时退化为 大小-修改时间
+     */
+    public String getETag(FileInfo fileInfo) throws IOException {
+        if (fileInfo.getManifestMd5() != null) {
+            return fileInfo.getManifestMd5();
+        }
+        if (fileInfo.getMd5() != null && !fileInfo.getMd5().isBlank()) {
+            return fileInfo.getMd5();
+        }
+        Path filePath = Paths.get(fileInfo.getFilePath());
+        return Long.toHexString(Files.size(filePath)) + "-" + Long.toHexString(Files.getLastModifiedTime(filePath).toMillis());
     }
 
     /**
@@ -318,39 +470,35 @@ public class FileStorageService {
 //                .collect(Collectors.toList());
 //    }
 
-//    /**
-//     * ADMIN删除自己上传的文件（只有ADMIN可以访问）
-//     */
-//    @Transactional
-//    public void deleteMyFile(String fileKey) {
-//        User currentUser = getCurrentUser();
-//
-//        FileInfo fileInfo = fileRepository.findByFileKey(fileKey)
-//                .orElseThrow(() -> new RuntimeException("文件不存在"));
-//
-//        // 验证文件所有权
-//        if (!fileInfo.getUploader().getId().equals(currentUser.getId())) {
-//            throw new AccessDeniedException("无权删除此文件");
-//        }
-//
-//        try {
-//            // 删除物理文件
-//            if (fileInfo.getFilePath() != null) {
-//                Path filePath = Paths.get(fileInfo.getFilePath());
-//                Files.deleteIfExists(filePath);
-//            }
-//
-//            // 删除分片文件（如果存在）
-//            cleanupChunkFiles(fileKey);
-//
-//            // 删除数据库记录
-//            fileRepository.delete(fileInfo);
-//
-//        } catch (IOException e) {
-//            log.error("删除文件失败", e);
-//            throw new RuntimeException("删除文件失败");
-//        }
-//    }
+    /**
+     * 删除文件（只有ADMIN可以访问）
+     * 引用共享存储的文件只释放引用，内容在没有任何文件引用后由回收任务删除
+     */
+    @Transactional
+    public void deleteFile(Long fileId) {
+        FileInfo fileInfo = fileRepository.findById(fileId)
+                .orElseThrow(() -> new RuntimeException("文件不存在"));
+
+        try {
+            if (fileInfo.getBlob() != null) {
+                blobStore.release(fileInfo.getBlob());
+            } else if (fileInfo.getFilePath() != null) {
+                // 去重存储之前上传的文件，直接删除物理文件
+                Files.deleteIfExists(Paths.get(fileInfo.getFilePath()));
+            } else {
+                // 未完成的上传：清理分片状态、分片文件和预分配文件
+                chunkTracker.clear(fileId);
+                cleanupChunkFiles(fileId);
+                Files.deleteIfExists(getPartFilePath(getTargetFilePath(fileInfo.getCategory(), fileInfo.getFileName(), fileId)));
+            }
+
+            fileRepository.delete(fileInfo);
+
+        } catch (IOException e) {
+            log.error("删除文件失败", e);
+            throw new RuntimeException("删除文件失败");
+        }
+    }
 
     /**
      * 获取所有分类（USER和ADMIN都可以访问）
@@ -431,11 +579,16 @@ public class FileStorageService {
         return dto;
     }
 
-    private void saveChunkFile(MultipartFile chunk, Long fileId, int chunkIndex) throws IOException {
+    /**
+     * 保存分片文件，写入的同时计算MD5
+     * @return 分片的MD5（十六进制小写）
+     */
+    private String saveChunkFile(MultipartFile chunk, Long fileId, int chunkIndex) throws IOException {
         Path chunkPath = getChunkPath(fileId, chunkIndex);
         Files.createDirectories(chunkPath.getParent());
 
-        try (InputStream inputStream = chunk.getInputStream();
+        MessageDigest digest = newMd5();
+        try (InputStream inputStream = new DigestInputStream(chunk.getInputStream(), digest);
              OutputStream outputStream = Files.newOutputStream(chunkPath)) {
             byte[] buffer = new byte[8192];
             int bytesRead;
@@ -443,99 +596,190 @@ public class FileStorageService {
                 outputStream.write(buffer, 0, bytesRead);
             }
         }
+        return HexFormat.of().formatHex(digest.digest());
     }
 
-    private Path getChunkPath(Long fileId, int chunkIndex) {
-        return config.getChunkTempPath().resolve(String.valueOf(fileId)).resolve(chunkIndex + ".chunk");
+    /**
+     * 分片模式：校验分片总大小后把临时分片依次拼接到目标文件
+     * @return 合并后的文件大小
+     */
+    private long mergeChunkFiles(Long fileId, int totalChunks, Path targetPath, Long expectedSize) throws IOException {
+        // 完整性校验不再重读文件：大小取自分片文件元数据，摘要由各分片接收时的MD5组合而成
+        long fileSize = 0;
+        for (int i = 0; i < totalChunks; i++) {
+            fileSize += Files.size(getChunkPath(fileId, i));
+        }
+        if (expectedSize != null && expectedSize != fileSize) {
+            throw new RuntimeException("分片总大小不一致，期望" + expectedSize + "字节，实际" + fileSize + "字节");
+        }
+
+        // 合并分片：通过 transferTo 在内核中直接拷贝，不经过 Java 堆
+        try (FileChannel target = FileChannel.open(targetPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < totalChunks; i++) {
+                Path chunkPath = getChunkPath(fileId, i);
+                try (FileChannel source = FileChannel.open(chunkPath, StandardOpenOption.READ)) {
+                    transferFully(source, target);
+                }
+            }
+            target.force(false);
+        }
+
+        // 合并成功后再删除分片，合并中途失败时可以重试
+        for (int i = 0; i < totalChunks; i++) {
+            Files.deleteIfExists(getChunkPath(fileId, i));
+        }
+        return fileSize;
     }
 
-    private String getChunkKey(Long fileId, int chunkIndex) {
-        return fileId + "_" + chunkIndex;
+    /**
+     * 内容与已有存储重复时删除已上传的分片或预分配文件
+     */
+    private void discardUploadedContent(FileInfo fileInfo, int totalChunks) throws IOException {
+        if (fileInfo.getUploadMode() == FileInfo.UploadMode.DIRECT) {
+            Files.deleteIfExists(getPartFilePath(getTargetFilePath(fileInfo.getCategory(), fileInfo.getFileName(), fileInfo.getId())));
+            return;
+        }
+        for (int i = 0; i < totalChunks; i++) {
+            Files.deleteIfExists(getChunkPath(fileInfo.getId(), i));
+        }
     }
 
-    private Path getTargetFilePath(String category, String fileName, Long fileId) {
-        // 优化：文件名过滤特殊字符，避免路径异常
-        String safeFileName = fileId + "_" + fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
-        return config.getRootPath().resolve(category).resolve(safeFileName);
+    /**
+     * 直接写入模式：分片已在预分配文件中，落盘后原子改名为正式文件
+     * @return 文件大小
+     */
+    private long completeDirectUpload(Path partPath, Path targetPath) throws IOException {
+        if (!Files.exists(partPath)) {
+            throw new RuntimeException("上传文件不存在，请重新初始化上传");
+        }
+        try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(partPath, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(targetPath);
     }
 
-    private String generateFileKey() {
-        return UUID.randomUUID().toString().replace("-", "");
+    /**
+     * 直接写入模式：把分片写到预分配文件中 chunkIndex * chunkSize 的位置，边写边计算MD5
+     * 不同分片写入互不重叠的区域，多个请求可以并发写同一个文件
+     * @return 分片的MD5（十六进制小写）
+     */
+    private String writeChunkAtOffset(MultipartFile chunk, FileInfo fileInfo, int chunkIndex) throws IOException {
+        long offset = (long) chunkIndex * fileInfo.getChunkSize();
+        long expectedLength = chunkIndex == fileInfo.getChunkCount() - 1
+                ? fileInfo.getFileSize() - offset
+                : fileInfo.getChunkSize();
+        if (chunk.getSize() != expectedLength) {
+            throw new IllegalArgumentException("分片" + chunkIndex + "大小应为" + expectedLength + "字节，实际" + chunk.getSize() + "字节");
+        }
+
+        Path partPath = getPartFilePath(getTargetFilePath(fileInfo.getCategory(), fileInfo.getFileName(), fileInfo.getId()));
+        MessageDigest digest = newMd5();
+        try (InputStream inputStream = new DigestInputStream(chunk.getInputStream(), digest);
+             FileChannel channel = FileChannel.open(partPath, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[64 * 1024];
+            long position = offset;
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
     }
 
-    private String getFileType(String fileName) {
-        int dotIndex = fileName.lastIndexOf('.');
-        return dotIndex > 0 ? fileName.substring(dotIndex + 1) : "unknown";
+    private Path getPartFilePath(Path targetPath) {
+        return targetPath.resolveSibling(targetPath.getFileName() + ".part");
     }
 
-    private String calculateFileMd5(Path filePath) throws IOException {
-        try (InputStream inputStream = Files.newInputStream(filePath)) {
-            return DigestUtils.md5DigestAsHex(inputStream);
+    private FileInfo.UploadMode parseUploadMode(String uploadMode) {
+        if (uploadMode == null || uploadMode.isBlank()) {
+            return FileInfo.UploadMode.CHUNK;
+        }
+        try {
+            return FileInfo.UploadMode.valueOf(uploadMode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的上传方式：" + uploadMode);
         }
     }
 
-    private void initChunkStatus(String fileKey, int chunkCount) {
-        String redisKey = "upload:chunk:" + fileKey;
-        Map<String, Boolean> status = new HashMap<>();
-        for (int i = 0; i < chunkCount; i++) {
-            status.put(String.valueOf(i), false);
+    /**
+     * 分片摘要清单的MD5：把各分片MD5的二进制依次拼接后再取MD5，后缀分片数（与 S3 分段上传的 ETag 规则相同）
+     */
+    private String manifestMd5(List<String> chunkMd5s) {
+        MessageDigest digest = newMd5();
+        for (String chunkMd5 : chunkMd5s) {
+            digest.update(HexFormat.of().parseHex(chunkMd5));
         }
-        redisTemplate.opsForValue().set(redisKey, status, 24, TimeUnit.HOURS);
+        return HexFormat.of().formatHex(digest.digest()) + "-" + chunkMd5s.size();
     }
 
-    private void updateChunkStatus(String fileKey, int chunkIndex) {
-        String redisKey = "upload:chunk:" + fileKey;
-        @SuppressWarnings("unchecked")
-        Map<String, Boolean> status = (Map<String, Boolean>) redisTemplate.opsForValue().get(redisKey);
-        if (status != null) {
-            status.put(String.valueOf(chunkIndex), true);
-            redisTemplate.opsForValue().set(redisKey, status, 24, TimeUnit.HOURS);
-        } else {
-            throw new RuntimeException("分片状态初始化失败");
+    private MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前环境不支持MD5", e);
         }
     }
 
-    private Map<Integer, Boolean> getChunkStatus(Long fileId) {
-        String redisKey = "upload:chunk:" + fileId;
-        @SuppressWarnings("unchecked")
-        Map<String, Boolean> status = (Map<String, Boolean>) redisTemplate.opsForValue().get(redisKey);
-        Map<Integer, Boolean> result = new HashMap<>();
-        if (status != null) {
-            status.forEach((k, v) -> result.put(Integer.parseInt(k), v));
+    /**
+     * 把 source 的全部内容追加到 target 当前位置，transferTo 单次可能传不完，需要循环
+     */
+    private void transferFully(FileChannel source, FileChannel target) throws IOException {
+        long size = source.size();
+        long position = 0;
+        while (position < size) {
+            long transferred = source.transferTo(position, size - position, target);
+            if (transferred <= 0) {
+                throw new IOException("分片传输中断，已传输 " + position + "/" + size + " 字节");
+            }
+            position += transferred;
         }
-        return result;
     }
 
-    private boolean checkAllChunksUploaded(Long fileId, int totalChunks) {
-        Map<Integer, Boolean> status = getChunkStatus(fileId);
-        if (status.size() != totalChunks) {
-            return false;
-        }
-        return status.values().stream().allMatch(Boolean::booleanValue);
+    private Path getChunkPath(Long fileId, int chunkIndex) {
+        return config.getChunkTempPath().resolve(String.valueOf(fileId)).resolve(chunkIndex + ".chunk");
     }
 
-    private void cleanUpChunkStatus(Long fileId) {
-        String redisKey = "upload:chunk:" + fileId;
-        redisTemplate.delete(redisKey);
+    private Path getTargetFilePath(String category, String fileName, Long fileId) {
+        // 优化：文件名过滤特殊字符，避免路径异常
+        String safeFileName = fileId + "_" + fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
+        return config.getRootPath().resolve(category).resolve(safeFileName);
     }
 
-    private boolean acquireUploadLock(String fileKey) {
-        String lockKey = "upload:lock:" + fileKey;
+    private String getFileType(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        return dotIndex > 0 ? fileName.substring(dotIndex + 1) : "unknown";
+    }
+
+    private boolean acquireUploadLock(Long fileId) {
+        String lockKey = "upload:lock:" + fileId;
         Long count = redisTemplate.opsForValue().increment(lockKey);
+        if (count == null) {
+            return false;
+        }
         if (count == 1) {
             redisTemplate.expire(lockKey, 10, TimeUnit.MINUTES);
         }
-        return count != null && count <= config.getMaxConcurrent();
+        if (count > config.getMaxConcurrent()) {
+            // 未获取到名额，归还计数
+            redisTemplate.opsForValue().decrement(lockKey);
+            return false;
+        }
+        return true;
     }
 
-    private void releaseUploadLock(String fileKey) {
-        String lockKey = "upload:lock:" + fileKey;
+    private void releaseUploadLock(Long fileId) {
+        String lockKey = "upload:lock:" + fileId;
         redisTemplate.opsForValue().decrement(lockKey);
     }
 
-    private void cleanupChunkFiles(String fileKey) {
+    private void cleanupChunkFiles(Long fileId) {
         try {
-            Path chunkDir = config.getChunkTempPath().resolve(fileKey);
+            Path chunkDir = config.getChunkTempPath().resolve(String.valueOf(fileId));
             if (Files.exists(chunkDir)) {
                 Files.walk(chunkDir)
                         .sorted((a, b) -> -a.compareTo(b))
@@ -548,7 +792,7 @@ public class FileStorageService {
                         });
             }
         } catch (Exception e) {
-            log.error("清理分片文件失败: {}", fileKey, e);
+            log.error("清理分片文件失败: {}", fileId, e);
         }
     }
 
@@ -1,5 +1,7 @@
 package org.example.backend.service;
 
+import lombok.RequiredArgsConstructor;
+import org.example.backend.service.image.ImageVariantService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -11,11 +13,14 @@ import java.nio.file.StandardCopyOption;
 import java.util.UUID;
 
 @Service
+@RequiredArgsConstructor
 public class ImageUploadService {
 
     @Value("${upload.path}")
     private String uploadPath;
 
+    private final ImageVariantService imageVariantService;
+
     /**
      * 上传图片到指定子目录
      * @param fileName 图片名称
@@ -45,6 +50,8 @@ public class ImageUploadService {
 
         // 移动文件到目标目录
         Files.move(tempFilePath, targetFilePath, StandardCopyOption.REPLACE_EXISTING);
+        // 图片已进入正式目录，后台预先生成缩略图等副本
+        imageVariantService.prefetch(targetFilePath.toString());
 
         // 返回移动后文件的新地址
         return targetFilePath.toString();
@@ -69,6 +76,9 @@ public class ImageUploadService {
         // 保存文件并确保替换已存在的同名文件
         Files.copy(file.getInputStream(), targetPath, StandardCopyOption.REPLACE_EXISTING);
 
+        // 后台预先生成缩略图等副本
+        imageVariantService.prefetch("/uploads/" + subDirectory + "/" + fileName);
+
         // 返回访问URL（根据实际部署调整）
         return "/uploads/" + subDirectory + "/" + fileName;
     }
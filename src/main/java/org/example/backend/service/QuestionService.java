@@ -1,33 +1,40 @@
 // QuestionService.java
 package org.example.backend.service;
 
+import org.example.backend.dto.CursorPageResponse;
 import org.example.backend.dto.PageResponse;
 import org.example.backend.dto.QuestionDetailDTO;
+import org.example.backend.dto.QuestionListView;
 import org.example.backend.dto.QuestionResponseDTO;
 import org.example.backend.model.*;
 import org.example.backend.repository.*;
+import org.example.backend.service.image.ImagePromotionService;
+import org.example.backend.service.image.ImageVariantService;
+import org.example.backend.service.question.FeedCursor;
+import org.example.backend.service.question.QuestionDetailAssembler;
+import org.example.backend.service.question.QuestionViewCounter;
+import org.example.backend.service.question.event.*;
+import org.example.backend.service.question.search.QuestionSearchIndex;
+import org.example.backend.utils.HtmlContentProcessor;
 import org.example.backend.utils.JwtUtils;
 import org.example.backend.utils.UserRoleUtils;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.cache.annotation.CacheEvict;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Service
 public class QuestionService {
 
-    private final AnswerImageRepository answerImageRepository;
-    private final QuestionImageRepository questionImageRepository;
     private final UserRoleUtils userRoleUtils;
 
 
@@ -36,10 +43,15 @@ public class QuestionService {
     private final AnswerRepository answerRepository;
     private final QuestionVoteRepository questionVoteRepository;
     private final QuestionReportRepository questionReportRepository;
-    private final AnswerCommentRepository answerCommentRepository;
-    private final QuestionImageService questionImageService;
     private final UserRepository userRepository;
-    private final ImageUploadService imageUploadService;
+    private final ImagePromotionService imagePromotionService;
+    private final QuestionDetailAssembler questionDetailAssembler;
+    private final QuestionViewCounter questionViewCounter;
+    private final QuestionSearchIndex questionSearchIndex;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ImageVariantService imageVariantService;
+    private final HtmlContentProcessor htmlContentProcessor;
+    private final QuestionCacheInvalidator questionCacheInvalidator;
     public QuestionService(
             QuestionRepository questionRepository,
             UserService userService,
@@ -47,37 +59,80 @@ public class QuestionService {
             AnswerRepository answerRepository,
             QuestionReportRepository questionReportRepository,
             QuestionVoteRepository questionVoteRepository,
-            AnswerImageRepository answerImageRepository,
-            QuestionImageRepository questionImageRepository,
-            AnswerCommentRepository answerCommentRepository,
             UserRoleUtils userRoleUtils,
-            QuestionImageService questionImageService,
-            ImageUploadService imageUploadService) {
+            ImagePromotionService imagePromotionService,
+            QuestionDetailAssembler questionDetailAssembler,
+            QuestionViewCounter questionViewCounter,
+            QuestionSearchIndex questionSearchIndex,
+            ApplicationEventPublisher eventPublisher,
+            ImageVariantService imageVariantService,
+            HtmlContentProcessor htmlContentProcessor,
+            QuestionCacheInvalidator questionCacheInvalidator) {
         this.questionRepository = questionRepository;
         this.userService = userService;
         this.answerRepository = answerRepository;
         this.questionReportRepository = questionReportRepository;
         this.questionVoteRepository = questionVoteRepository;
-        this.answerImageRepository = answerImageRepository;
-        this.questionImageRepository = questionImageRepository;
-        this.answerCommentRepository = answerCommentRepository;
         this.userRoleUtils = userRoleUtils;
-        this.questionImageService = questionImageService;
         this.userRepository= userRepository;
-        this.imageUploadService = imageUploadService;
+        this.imagePromotionService = imagePromotionService;
+        this.questionDetailAssembler = questionDetailAssembler;
+        this.questionViewCounter = questionViewCounter;
+        this.questionSearchIndex = questionSearchIndex;
+        this.eventPublisher = eventPublisher;
+        this.imageVariantService = imageVariantService;
+        this.htmlContentProcessor = htmlContentProcessor;
+        this.questionCacheInvalidator = questionCacheInvalidator;
     }
-    @Cacheable(value = "questionList", key = "#pageable?.pageNumber?.toString() + '_' + #pageable?.pageSize?.toString()")
+    @Cacheable(value = "questionList", key = "#pageable?.pageNumber?.toString() + '_' + #pageable?.pageSize?.toString()", sync = true)
     public PageResponse<QuestionResponseDTO> getAllQuestions(Pageable pageable) {
+        // 与 @Cacheable 的 key 一致，用于登记本页包含的问题
+        String cacheKey = pageable != null ? pageable.getPageNumber() + "_" + pageable.getPageSize() : "null_null";
         if (pageable == null) {
             pageable = PageRequest.of(0, 10);
         }
-        Page<Question> questions = questionRepository.findAll(pageable);
-        return PageResponse.fromPage(
-                questions.map(question -> QuestionResponseDTO.fromQuestion(question, questionImageService))
-        );
+        Page<QuestionListView> questions = questionRepository.findListViews(pageable);
+        PageResponse<QuestionResponseDTO> response =
+                PageResponse.fromPage(questions.map(view -> QuestionResponseDTO.fromView(view, imageVariantService)));
+        questionCacheInvalidator.trackListPage(cacheKey, response.getData());
+        return response;
+    }
+
+    /**
+     * 游标分页获取问题流（按创建时间倒序），不统计总数，翻到任意深度都只扫描一页数据
+     * @param cursor 上一页返回的 nextCursor，为空表示第一页
+     * @param size 每页条数
+     */
+    public CursorPageResponse<QuestionResponseDTO> getQuestionFeed(String cursor, int size) {
+        // 多取一条用于判断是否还有下一页
+        Pageable limit = PageRequest.of(0, size + 1);
+        List<QuestionListView> questions;
+        if (cursor == null || cursor.isEmpty()) {
+            questions = questionRepository.findFeedFirstPage(limit);
+        } else {
+            FeedCursor feedCursor = FeedCursor.decode(cursor);
+            questions = feedCursor.createdTime() != null
+                    ? questionRepository.findFeedPageAfter(feedCursor.createdTime(), feedCursor.id(), limit)
+                    : questionRepository.findFeedUndatedPageAfter(feedCursor.id(), limit);
+        }
+
+        boolean hasMore = questions.size() > size;
+        if (hasMore) {
+            questions = questions.subList(0, size);
+        }
+        String nextCursor = null;
+        if (hasMore) {
+            QuestionListView last = questions.get(questions.size() - 1);
+            nextCursor = new FeedCursor(last.getCreatedTime(), last.getId()).encode();
+        }
+
+        List<QuestionResponseDTO> data = new ArrayList<>(questions.size());
+        for (QuestionListView view : questions) {
+            data.add(QuestionResponseDTO.fromView(view, imageVariantService));
+        }
+        return new CursorPageResponse<>(data, nextCursor, hasMore, size);
     }
 
-    @CacheEvict(value = "questionsDetail", key = "#a0")
     public QuestionDetailDTO createQuestion(String title, String content,String token,String categoryId) {
         try {
             System.out.println("执行！");
@@ -90,25 +145,11 @@ public class QuestionService {
 
             // 创建QuestionContent并关联
             QuestionContent questionContent = new QuestionContent();
-            // 正则表达式：匹配 src 属性值中的 "temp_" 字符串（不区分大小写）
-            Pattern pattern1 = Pattern.compile("src=['\"](.*?temp_)(.*?)['\"]", Pattern.CASE_INSENSITIVE);
-            Matcher matcher1 = pattern1.matcher(content);
-
-            // 构建替换后的内容
-            StringBuffer result = new StringBuffer();
-            while (matcher1.find()) {
-                // 提取匹配到的分组：group(1) 是 "temp_" 前的路径，group(2) 是剩余部分
-                String tempPart = matcher1.group(1); // 例如："http://127.0.0.1:8080/uploads/"
-                String restPart = matcher1.group(2); // 例如："4f38eb1e-d103-4382-9903-55dacb3967db_100 (3).png"
-
-                // 删除 "temp_" 部分
-                String newPath = tempPart.replace("temp_", "") + restPart;
-
-                // 替换到原内容中
-                matcher1.appendReplacement(result, "src='" + newPath + "'");
-            }
-            matcher1.appendTail(result);
-            questionContent.setContent(result.toString());
+            // 一次扫描完成内容清理、临时图片地址改写和图片文件名收集
+            List<String> imageNames = new ArrayList<>();
+            HtmlContentProcessor.Result processed = htmlContentProcessor.process(content,
+                    imagePromotionService.tempImageRewriter(ImagePromotionService.Owner.QUESTION, imageNames));
+            questionContent.setContent(processed.html());
             questionContent.setQuestion(question);
             question.setContent(questionContent);
             question.setCategoryId(Long.parseLong(categoryId));
@@ -119,25 +160,11 @@ public class QuestionService {
             // 获取创建后的问题的questionId
             Long questionId = question.getId();
 
-            // 提取content中所有img标签的src属性
-            Pattern pattern = Pattern.compile("<img[^>]+src\\s*=\\s*['\"]([^'\"]+)['\"][^>]*>");
-            Matcher matcher = pattern.matcher(content);
-            while (matcher.find()) {
-                String imgUrl = matcher.group(1);
-                // 获取图片名称
-                String imageName = imgUrl.substring(imgUrl.lastIndexOf('/') + 1);
-                imgUrl = imageUploadService.saveImage("uploads/temp_question",imageName,"uploads/question");
-                // 创建QuestionImage对象并保存到数据库
-                questionImageService.saveImage(questionId,imgUrl);
-            }
+            // 临时图片在请求内移动到正式目录，图片记录由后台完成
+            imagePromotionService.promoteLater(ImagePromotionService.Owner.QUESTION, questionId, imageNames);
+            eventPublisher.publishEvent(new QuestionCreatedEvent(questionId));
 
-            return QuestionDetailDTO.fromQuestion(
-                    question,
-                    questionVoteRepository,
-                    userService,
-                    questionImageRepository,
-                    answerImageRepository,
-                    answerCommentRepository);
+            return questionDetailAssembler.assemble(question);
 
         } catch (Exception e) {
             // 记录异常日志
@@ -151,14 +178,13 @@ public class QuestionService {
     public QuestionDetailDTO getQuestionDetailById(Long questionId) {
         Question question = questionRepository.findById(questionId)
                 .orElseThrow(() -> new RuntimeException("问题不存在"));
-        // 将问题的浏览量加 1
-        question.setViewCount(question.getViewCount() + 1);
-        questionRepository.save(question);
-        return QuestionDetailDTO.fromQuestion(question,questionVoteRepository,userService,questionImageRepository,answerImageRepository,answerCommentRepository);
+        // 浏览量只在内存中累加，由 QuestionViewCounter 定时批量写回
+        questionViewCounter.increment(questionId);
+        QuestionDetailDTO detail = questionDetailAssembler.assemble(question);
+        return detail.withViewCount((int) (question.getViewCount() + questionViewCounter.pendingDelta(questionId)));
     }
 
     @Transactional
-    @CacheEvict(value = "questionsDetail", key = "#a0")
     public QuestionDetailDTO updateQuestion(Long id, String title, String content, String categoryId, String token) throws IOException {
         System.out.println("执行修改问题i");
         Question question = questionRepository.findById(id)
@@ -175,9 +201,6 @@ public class QuestionService {
             throw new RuntimeException("无权限修改该问题");
         }
 
-        // 提取原始content中的img标签src
-        Set<String> originalImgUrls = extractImgUrls(question.getContent().getContent());
-
         // 处理更新后的content
         if (content != null) {
             QuestionContent questionContent = question.getContent();
@@ -186,24 +209,12 @@ public class QuestionService {
                 questionContent.setQuestion(question);
             }
 
-            // 提取新content中的img标签src
-            Set<String> newImgUrls = extractImgUrls(content);
-
-            // 找出新增的图片URL
-            Set<String> addedImgUrls = new HashSet<>(newImgUrls);
-            addedImgUrls.removeAll(originalImgUrls);
-
-            // 处理新增的图片：从临时目录移动到正式目录
-            for (String imgUrl : addedImgUrls) {
-                String imageName = imgUrl.substring(imgUrl.lastIndexOf('/') + 1);
-                String newUrl = imageUploadService.saveImage("uploads/temp_question", imageName, "uploads/question");
-
-                // 替换content中的临时URL为正式URL
-                content = content.replace(imgUrl, newUrl.replace("\\", "/"));
-
-                // 保存图片信息到数据库
-                questionImageService.saveImage(question.getId(), newUrl);
-            }
+            // 已保存的内容中不会有临时地址，只需处理新内容：临时图片改为正式地址并移动到正式目录，
+            // 图片记录在事务提交后由后台完成
+            List<String> imageNames = new ArrayList<>();
+            content = htmlContentProcessor.process(content,
+                    imagePromotionService.tempImageRewriter(ImagePromotionService.Owner.QUESTION, imageNames)).html();
+            imagePromotionService.promoteLater(ImagePromotionService.Owner.QUESTION, question.getId(), imageNames);
 
             questionContent.setContent(content);
             question.setContent(questionContent);
@@ -218,35 +229,13 @@ public class QuestionService {
             question.setCategoryId(Long.valueOf(categoryId));
         }
         Question questionRes = questionRepository.save(question);
-        return  QuestionDetailDTO.fromQuestion(
-                questionRes,
-                questionVoteRepository,
-                userService,
-                questionImageRepository,
-                answerImageRepository,
-                answerCommentRepository);
+        eventPublisher.publishEvent(new QuestionUpdatedEvent(questionRes.getId()));
+        return  questionDetailAssembler.assemble(questionRes);
     }
 
-    // 辅助方法：提取content中的img标签src
-    private Set<String> extractImgUrls(String content) {
-        Set<String> imgUrls = new HashSet<>();
-        if (content == null) return imgUrls;
-
-        Pattern pattern = Pattern.compile("<img[^>]+src\\s*=\\s*['\"]([^'\"]+)['\"][^>]*>");
-        Matcher matcher = pattern.matcher(content);
-
-        while (matcher.find()) {
-            imgUrls.add(matcher.group(1));
-        }
-
-        return imgUrls;
-    }
-
-
     // 新增删除问题方法，并增加权限鉴别
 
     @Transactional
-    @CacheEvict(value = "questionsDetail", key = "#a0")
     public void deleteQuestion(Long questionId, String username) {
         // 先查找问题是否存在
         Question question = questionRepository.findById(questionId)
@@ -270,12 +259,12 @@ public class QuestionService {
 
         // 删除问题
         questionRepository.delete(question);
+        eventPublisher.publishEvent(new QuestionDeletedEvent(questionId));
     }
 
 
     //标记解决问题答案
     @Transactional
-    @CacheEvict(value = "questionsDetail", key = "#questionId")
     public QuestionDetailDTO markAnswerAsSolved(Long questionId, Long answerId, Long userId) {
         Question question = questionRepository.findById(questionId)
                 .orElseThrow(() -> new RuntimeException("问题不存在"));
@@ -294,19 +283,13 @@ public class QuestionService {
 
         question.setIsSolved(answer);
         questionRepository.save(question);
+        eventPublisher.publishEvent(new QuestionUpdatedEvent(questionId));
 
-        return QuestionDetailDTO.fromQuestion(
-                question,
-                questionVoteRepository,
-                userService,
-                questionImageRepository,
-                answerImageRepository,
-                answerCommentRepository);
+        return questionDetailAssembler.assemble(question);
     }
 
     // 取消标记解决答案
     @Transactional
-    @CacheEvict(value = "questionsDetail", key = "#questionId")
     public QuestionDetailDTO unmarkAnswerAsSolved(Long questionId, Long userId) {
         Question question = questionRepository.findById(questionId)
                 .orElseThrow(() -> new RuntimeException("问题不存在"));
@@ -318,14 +301,9 @@ public class QuestionService {
 
         question.setIsSolved(null);
         questionRepository.save(question);
+        eventPublisher.publishEvent(new QuestionUpdatedEvent(questionId));
 
-        return QuestionDetailDTO.fromQuestion(
-                question,
-                questionVoteRepository,
-                userService,
-                questionImageRepository,
-                answerImageRepository,
-                answerCommentRepository);
+        return questionDetailAssembler.assemble(question);
     }
 
 
@@ -455,14 +433,20 @@ public class QuestionService {
      */
     private String handleExistingVote(QuestionVote existingVote, Boolean voteType) {
         System.out.println("是执行取消操作");
+        Long questionId = existingVote.getQuestion().getId();
         if (existingVote.getVoteType().equals(voteType)) {
             // 用户已进行过相同的投票操作，取消投票
             questionVoteRepository.delete(existingVote);
+            questionRepository.adjustVoteCounts(questionId, voteType ? -1 : 0, voteType ? 0 : -1);
+            eventPublisher.publishEvent(new VoteChangedEvent(questionId));
             return getCancelVoteMessage(voteType);
         } else {
             // 用户更改投票类型，更新投票记录
             existingVote.setVoteType(voteType);
             questionVoteRepository.save(existingVote);
+            // 一条UPDATE同时完成一加一减
+            questionRepository.adjustVoteCounts(questionId, voteType ? 1 : -1, voteType ? -1 : 1);
+            eventPublisher.publishEvent(new VoteChangedEvent(questionId));
             return getVoteSuccessMessage(voteType);
         }
     }
@@ -507,12 +491,36 @@ public class QuestionService {
         newVote.setQuestion(question);
         newVote.setVoteType(voteType);
         questionVoteRepository.save(newVote);
+        questionRepository.adjustVoteCounts(question.getId(), voteType ? 1 : 0, voteType ? 0 : 1);
+        eventPublisher.publishEvent(new VoteChangedEvent(question.getId()));
         return voteType ? "点赞操作成功" : "点踩操作成功";
     }
 
-    //模糊搜寻问题
+    //搜寻问题：优先走倒排索引，索引未就绪时回退到数据库模糊查询
     public Page<Question> searchQuestions(String keyword, Pageable pageable) {
-        return questionRepository.searchQuestions(keyword, pageable);
+        Optional<List<Long>> hits = questionSearchIndex.search(keyword);
+        if (hits.isEmpty()) {
+            return questionRepository.searchQuestions(keyword, pageable);
+        }
+
+        List<Long> rankedIds = hits.get();
+        int from = (int) Math.min(pageable.getOffset(), rankedIds.size());
+        int to = Math.min(from + pageable.getPageSize(), rankedIds.size());
+        List<Long> pageIds = rankedIds.subList(from, to);
+
+        // 按相关度顺序还原分页内容
+        Map<Long, Question> questionMap = new HashMap<>();
+        for (Question question : questionRepository.findAllById(pageIds)) {
+            questionMap.put(question.getId(), question);
+        }
+        List<Question> content = new ArrayList<>(pageIds.size());
+        for (Long id : pageIds) {
+            Question question = questionMap.get(id);
+            if (question != null) {
+                content.add(question);
+            }
+        }
+        return new PageImpl<>(content, pageable, rankedIds.size());
     }
     public Page<Question> getMyQuestionsByParams(int page, int size, String status, Long userId, String keyword) {
         Pageable pageable = PageRequest.of(page - 1, size);
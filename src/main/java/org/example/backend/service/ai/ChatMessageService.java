@@ -44,9 +44,6 @@ public class ChatMessageService {
         }
 
         try {
-            // 获取当前最大索引
-            Integer maxIndex = chatMessageRepository.findMaxMessageIndexBySessionId(sessionId);
-            int startIndex = (maxIndex != null) ? maxIndex + 1 : 0;
 
             // 如果跳过已存在，需要检查哪些消息已经存在
             List<ChatMessage> messagesToSave = messages;
@@ -58,6 +55,9 @@ public class ChatMessageService {
                 }
             }
 
+            // 分配序号：接在数据库和对话记忆（可能有尚未写入数据库的消息）已用的序号之后
+            int startIndex = (int) hybridChatMemoryStore.reserveIndexes(sessionId, messagesToSave.size());
+
             // 准备实体列表
             List<ChatMessageEntity> entities = new ArrayList<>();
             for (int i = 0; i < messagesToSave.size(); i++) {
@@ -78,9 +78,8 @@ public class ChatMessageService {
             if (!entities.isEmpty()) {
                 chatMessageRepository.saveAll(entities);
 
-                // 使用混合存储更新缓存
-                List<ChatMessage> allMessages = getAllMessages(sessionId);
-                hybridChatMemoryStore.updateMessages(sessionId, allMessages);
+                // 直接写入了数据库，清除对话记忆缓存，下次读取时重建
+                hybridChatMemoryStore.evict(sessionId);
 
                 log.info("批量保存消息成功: sessionId={}, count={}", sessionId, entities.size());
                 return entities.size();
@@ -182,8 +181,8 @@ public class ChatMessageService {
         }
 
         try {
-            // 使用混合存储获取消息（会自动处理缓存）
-            return hybridChatMemoryStore.getMessages(sessionId);
+            // 完整历史从数据库读取，对话记忆缓存只保留最近的消息
+            return hybridChatMemoryStore.getHistory(sessionId);
 
         } catch (Exception e) {
             log.error("获取消息失败: sessionId={}", sessionId, e);
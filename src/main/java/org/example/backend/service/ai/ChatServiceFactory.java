@@ -2,13 +2,15 @@ package org.example.backend.service.ai;
 
 import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.ChatMemoryProvider;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.service.AiServices;
+import org.example.backend.service.ai.memory.ChatMemorySummarizer;
 import org.example.backend.service.ai.memory.HybridChatMemoryStore;
+import org.example.backend.service.ai.memory.TokenBudgetChatMemory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
@@ -28,6 +30,17 @@ public class ChatServiceFactory {
     @Autowired
     private HybridChatMemoryStore hybridChatMemoryStore; // 使用新的混合存储
 
+    @Autowired
+    private ChatMemorySummarizer chatMemorySummarizer;
+
+    // 对话记忆窗口大小，HybridChatMemoryStore 按同一配置读取最近的消息
+    @Value("${chat.memory.max-messages:20}")
+    private int maxMessages;
+
+    // 提示词中对话历史的估算 token 上限，超出部分合并进滚动摘要
+    @Value("${chat.memory.max-tokens:3000}")
+    private int maxTokens;
+
     @Bean
     @Primary
     public ChatMemoryProvider chatMemoryProvider() {
@@ -45,11 +58,8 @@ public class ChatServiceFactory {
                 System.out.println("ChatMemoryProvider: 为会话 " + id + " 创建 ChatMemory，使用Hybrid存储");
 
                 // 使用新的 HybridChatMemoryStore
-                return MessageWindowChatMemory.builder()
-                        .id(id)
-                        .maxMessages(20)  // 保留最近20条消息
-                        .chatMemoryStore(hybridChatMemoryStore)  // 关键：使用混合存储
-                        .build();
+                return new TokenBudgetChatMemory(id, hybridChatMemoryStore, chatMemorySummarizer,
+                        maxMessages, maxTokens);
             }
         };
     }
@@ -0,0 +1,201 @@
+package org.example.backend.service.ai.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.config.CacheKeyConfig;
+import org.example.backend.utils.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对话记忆的滚动摘要
+ * 超出 token 预算、不再放入提示词的早期消息，由后台线程调用模型合并进会话摘要；
+ * 摘要缓存在 Redis（chat:memory:summary:{id}），字段 text 为摘要内容，tail 为已合并的最后一条消息的序号（message_index）。
+ * 按序号判断哪些消息已合并，内容相同的消息（如反复出现的"继续""谢谢"）不会被误认为已合并。
+ * 请求线程只读取已有摘要，不等待模型生成。
+ */
+@Slf4j
+@Component
+public class ChatMemorySummarizer {
+
+    private static final Duration SUMMARY_TTL = Duration.ofHours(24);
+
+    private final ChatModel chatModel;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MessageConverter messageConverter;
+    private final ThreadPoolExecutor executor;
+    // 正在生成摘要的会话，避免同一会话重复提交
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    @Value("${chat.memory.summary-max-chars:600}")
+    private int summaryMaxChars;
+
+    /**
+     * @param text 摘要内容，没有时为 null
+     * @param tail 已合并进摘要的最后一条消息的序号，没有时为 -1
+     */
+    public record Summary(String text, long tail) {
+        static final Summary EMPTY = new Summary(null, -1);
+    }
+
+    public ChatMemorySummarizer(ChatModel chatModel,
+                                StringRedisTemplate stringRedisTemplate,
+                                MessageConverter messageConverter,
+                                @Value("${chat.memory.summary-workers:1}") int workers) {
+        this.chatModel = chatModel;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.messageConverter = messageConverter;
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时直接放弃，下一轮对话会再次提交
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(100),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "chat-summary-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 会话当前的摘要；读取失败时按没有摘要处理
+     */
+    public Summary current(String sessionId) {
+        try {
+            Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(CacheKeyConfig.buildSummaryKey(sessionId));
+            if (fields.isEmpty()) {
+                return Summary.EMPTY;
+            }
+            Object text = fields.get("text");
+            return new Summary(text != null ? text.toString() : null, parseTail(fields.get("tail")));
+        } catch (Exception e) {
+            log.warn("读取对话摘要失败: sessionId={}", sessionId, e);
+            return Summary.EMPTY;
+        }
+    }
+
+    /**
+     * 提交后台任务，把 dropped 中摘要尚未覆盖的消息合并进摘要
+     * @param dropped 按时间顺序、不再放入提示词的消息（已去掉检索内容）
+     * @param indexes 与 dropped 一一对应的消息序号，未知时为 -1
+     */
+    public void foldLater(String sessionId, Summary summary, List<ChatMessage> dropped, List<Long> indexes) {
+        List<ChatMessage> unfolded = new ArrayList<>();
+        long tail = unfolded(summary, dropped, indexes, unfolded);
+        if (unfolded.isEmpty() || !pending.add(sessionId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    fold(sessionId, summary, unfolded, tail);
+                } catch (Exception e) {
+                    log.warn("生成对话摘要失败: sessionId={}", sessionId, e);
+                } finally {
+                    pending.remove(sessionId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(sessionId);
+            log.debug("摘要队列已满，稍后重试: sessionId={}", sessionId);
+        }
+    }
+
+    public void delete(String sessionId) {
+        try {
+            stringRedisTemplate.delete(CacheKeyConfig.buildSummaryKey(sessionId));
+        } catch (Exception e) {
+            log.warn("删除对话摘要失败: sessionId={}", sessionId, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 把 dropped 中序号大于摘要 tail 的消息放入 unfolded；序号未知的消息无法判断，按未合并处理
+     * @return 合并后摘要的 tail：unfolded 中最大的已知序号，没有已知序号时沿用原 tail
+     */
+    static long unfolded(Summary summary, List<ChatMessage> dropped, List<Long> indexes, List<ChatMessage> unfolded) {
+        long tail = summary.tail();
+        for (int i = 0; i < dropped.size(); i++) {
+            long index = indexes.get(i);
+            if (index < 0 || index > summary.tail()) {
+                unfolded.add(dropped.get(i));
+                tail = Math.max(tail, index);
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * 旧格式的 tail（消息内容的哈希）无法对应到序号，按没有 tail 处理
+     */
+    private static long parseTail(Object tail) {
+        if (tail == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(tail.toString());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 消息内容，用户消息去掉注入的检索内容
+     */
+    private String text(ChatMessage message) {
+        String content = messageConverter.extractContent(message);
+        return message instanceof UserMessage ? MessageConverter.stripRetrievedContent(content) : content;
+    }
+
+    private void fold(String sessionId, Summary summary, List<ChatMessage> messages, long tail) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("请把下面的对话内容合并进已有摘要，生成新的对话摘要。要求：使用中文，不超过")
+                .append(summaryMaxChars)
+                .append("字；保留用户关心的问题、给出的关键事实、结论和尚未解决的事项；只输出摘要本身。\n\n");
+        prompt.append("已有摘要：\n").append(summary.text() != null ? summary.text() : "（无）").append("\n\n");
+        prompt.append("新的对话：\n");
+        for (ChatMessage message : messages) {
+            if (message instanceof UserMessage) {
+                prompt.append("用户：");
+            } else if (message instanceof AiMessage) {
+                prompt.append("助手：");
+            } else {
+                continue;
+            }
+            prompt.append(text(message)).append('\n');
+        }
+
+        String text = chatModel.chat(prompt.toString());
+        if (text == null || text.isBlank()) {
+            return;
+        }
+        String key = CacheKeyConfig.buildSummaryKey(sessionId);
+        stringRedisTemplate.opsForHash().putAll(key, Map.of(
+                "text", text.trim(),
+                "tail", Long.toString(tail)));
+        stringRedisTemplate.expire(key, SUMMARY_TTL);
+        log.debug("更新对话摘要: sessionId={}, folded={}", sessionId, messages.size());
+    }
+}
@@ -0,0 +1,420 @@
+package org.example.backend.service.ai.memory;
+
+import dev.langchain4j.data.message.ChatMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.model.ChatMessageEntity;
+import org.example.backend.utils.JsonConverter;
+import org.example.backend.utils.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 对话消息异步写入 MySQL
+ * HybridChatMemoryStore 追加消息时在同一个 Redis 脚本中把消息写入 Stream（chat:messages:stream），
+ * 本类由一个后台线程以消费组方式读取，按批次用一条多行 INSERT 写入 chat_messages，成功后 XACK 并删除。
+ * 对话请求不再等待 MySQL 提交。
+ *
+ * 进程在写入前退出时，消息仍在 Stream 的待确认列表中：重启后先处理本消费者未确认的消息，
+ * 其他实例遗留超过 claim-idle 的消息会被认领后写入。重新写入前按 (session_id, message_index) 去掉已写入的行。
+ *
+ * 整批写入因数据问题失败时（如内容超长）改为逐条写入，仍然失败的消息移入死信 Stream（chat:messages:dead）后确认，
+ * 不会因为一条消息阻塞后续写入；数据库不可用时整批留在待确认列表中稍后重试。
+ * 写入失败期间或 Stream 积压超过 max-backlog 时 accepting() 返回 false，调用方改为同步写入数据库。
+ */
+@Slf4j
+@Component
+public class ChatMessageWriteBehind {
+
+    public static final String STREAM_KEY = "chat:messages:stream";
+    private static final String GROUP = "chat-message-writer";
+    // 删除会话后短时间内 Stream 中残留的该会话消息不再写入
+    private static final String DELETED_KEY_PREFIX = "chat:messages:deleted:";
+    private static final Duration DELETED_TTL = Duration.ofHours(1);
+    // 无法写入数据库的消息，保留最近的若干条供排查和补录
+    public static final String DEAD_LETTER_KEY = "chat:messages:dead";
+    private static final long DEAD_LETTER_MAX_LENGTH = 10_000;
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private static final String INSERT_SQL = "INSERT INTO chat_messages "
+            + "(session_id, message_index, message_type, role, content, retrieval_context, content_hash, metadata, created_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final MessageConverter messageConverter;
+    private final JsonConverter jsonConverter = new JsonConverter();
+
+    @Value("${chat.memory.write-behind.enabled:true}")
+    private boolean enabled;
+    @Value("${chat.memory.write-behind.batch-size:200}")
+    private int batchSize;
+    @Value("${chat.memory.write-behind.block-millis:1000}")
+    private long blockMillis;
+    @Value("${chat.memory.write-behind.max-backlog:10000}")
+    private long maxBacklog;
+    @Value("${chat.memory.write-behind.claim-idle-millis:300000}")
+    private long claimIdleMillis;
+    @Value("${chat.memory.write-behind.retry-delay-millis:2000}")
+    private long retryDelayMillis;
+    // 消费者名称需在重启后保持不变，才能接着处理自己未确认的消息；默认取主机名
+    @Value("${chat.memory.write-behind.consumer:}")
+    private String consumerName;
+
+    private volatile boolean running;
+    // 最近一次读取或写入失败，恢复成功前不接受新的异步写入
+    private volatile boolean failing;
+    private volatile long backlog;
+    private Thread worker;
+
+    public ChatMessageWriteBehind(StringRedisTemplate stringRedisTemplate,
+                                  JdbcTemplate jdbcTemplate,
+                                  MessageConverter messageConverter) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.messageConverter = messageConverter;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("对话消息异步写入已关闭，消息将同步写入数据库");
+            return;
+        }
+        if (consumerName == null || consumerName.isBlank()) {
+            consumerName = defaultConsumerName();
+        }
+        running = true;
+        worker = new Thread(this::run, "chat-message-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 未写入的消息仍在 Stream 中，重启后继续
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * 是否接受异步写入；关闭、未启动、写入失败中或积压过多时返回 false，调用方应同步写入数据库
+     */
+    public boolean accepting() {
+        return running && !failing && backlog < maxBacklog;
+    }
+
+    /**
+     * 删除会话时调用，Stream 中尚未写入的该会话消息将被丢弃
+     */
+    public void markDeleted(String sessionId) {
+        try {
+            stringRedisTemplate.opsForValue().set(DELETED_KEY_PREFIX + sessionId, "1", DELETED_TTL);
+        } catch (Exception e) {
+            log.warn("标记会话已删除失败: sessionId={}", sessionId, e);
+        }
+    }
+
+    private void run() {
+        ensureGroup();
+        Consumer consumer = Consumer.from(GROUP, consumerName);
+        // 先处理本消费者上次未确认的消息
+        boolean recovering = true;
+        long lastClaim = 0;
+        while (running) {
+            try {
+                if (System.currentTimeMillis() - lastClaim > claimIdleMillis) {
+                    claimAbandoned();
+                    lastClaim = System.currentTimeMillis();
+                }
+
+                List<MapRecord<String, Object, Object>> records;
+                if (recovering) {
+                    records = read(consumer, StreamReadOptions.empty().count(batchSize), ReadOffset.from("0"));
+                    if (records == null || records.isEmpty()) {
+                        recovering = false;
+                        failing = false;
+                        continue;
+                    }
+                    write(records, true);
+                } else {
+                    records = read(consumer, StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)),
+                            ReadOffset.lastConsumed());
+                    if (records != null && !records.isEmpty()) {
+                        write(records, false);
+                    }
+                }
+                refreshBacklog();
+                failing = false;
+
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                // 未确认的消息留在待确认列表中，稍后按恢复流程重新写入；期间新消息改为同步写入
+                log.error("对话消息写入数据库失败，稍后重试", e);
+                failing = true;
+                recovering = true;
+                try {
+                    refreshBacklog();
+                } catch (Exception ignored) {
+                    // Redis 不可用时 accepting() 已因 failing 返回 false
+                }
+                sleep(retryDelayMillis);
+                // 启动时 Redis 不可用，或 Stream 被删除（NOGROUP）时消费组不存在，重试前重新创建
+                ensureGroup();
+            }
+        }
+    }
+
+    /**
+     * 以消费组方式读取 Stream；read 只有可变参数版本，单个 StreamOffset 会产生泛型数组警告
+     */
+    @SuppressWarnings("unchecked")
+    private List<MapRecord<String, Object, Object>> read(Consumer consumer, StreamReadOptions options, ReadOffset offset) {
+        return stringRedisTemplate.opsForStream().read(consumer, options, StreamOffset.create(STREAM_KEY, offset));
+    }
+
+    private void refreshBacklog() {
+        Long size = stringRedisTemplate.opsForStream().size(STREAM_KEY);
+        backlog = size != null ? size : 0;
+    }
+
+    /**
+     * 写入一批消息并确认
+     * @param mayExist 重新处理的消息可能已经写入过，写入前过滤已存在的行
+     */
+    private void write(List<MapRecord<String, Object, Object>> records, boolean mayExist) {
+        Set<String> deleted = deletedSessions(records);
+        List<MapRecord<String, Object, Object>> rowRecords = new ArrayList<>(records.size());
+        List<Object[]> rows = new ArrayList<>(records.size());
+        Map<String, Set<Integer>> existing = mayExist ? existingIndexes(records) : Map.of();
+
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> fields = record.getValue();
+            String sessionId = String.valueOf(fields.get("session"));
+            int index = Integer.parseInt(String.valueOf(fields.get("index")));
+            if (deleted.contains(sessionId) || existing.getOrDefault(sessionId, Set.of()).contains(index)) {
+                continue;
+            }
+            ChatMessage message = HybridChatMemoryStore.fromCachedFormat(String.valueOf(fields.get("message")));
+            if (message == null) {
+                log.warn("无法解析的对话消息，已丢弃: id={}", record.getId());
+                continue;
+            }
+            ChatMessageEntity entity = messageConverter.toEntity(message, sessionId, index);
+            // Stream 中的消息内容只有用户原话，检索内容在单独的 context 字段
+            Object context = fields.get("context");
+            LocalDateTime createdAt = LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(record.getId().getTimestamp()), ZoneId.systemDefault());
+            rows.add(new Object[]{
+                    entity.getSessionId(),
+                    entity.getMessageIndex(),
+                    entity.getMessageType().name(),
+                    entity.getRole(),
+                    entity.getContent(),
+                    context != null ? context.toString() : null,
+                    entity.getContentHash(),
+                    jsonConverter.convertToDatabaseColumn(entity.getMetadata()),
+                    Timestamp.valueOf(createdAt)
+            });
+            rowRecords.add(record);
+        }
+
+        if (!rows.isEmpty()) {
+            try {
+                // rewriteBatchedStatements=true 时合并为一条多行 INSERT
+                jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+            } catch (DataAccessException e) {
+                if (!isDataError(e)) {
+                    throw e;
+                }
+                log.warn("批量写入对话消息失败，改为逐条写入: count={}", rows.size(), e);
+                writeOneByOne(rowRecords, rows);
+            }
+        }
+
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, GROUP, ids);
+        stringRedisTemplate.opsForStream().delete(STREAM_KEY, ids);
+        log.debug("对话消息写入数据库: count={}, skipped={}", rows.size(), records.size() - rows.size());
+    }
+
+    /**
+     * 逐条写入：已存在的行跳过，因数据问题无法写入的消息移入死信；数据库不可用时抛出，整批稍后重试
+     */
+    private void writeOneByOne(List<MapRecord<String, Object, Object>> records, List<Object[]> rows) {
+        for (int i = 0; i < rows.size(); i++) {
+            try {
+                jdbcTemplate.update(INSERT_SQL, rows.get(i));
+            } catch (DuplicateKeyException e) {
+                log.debug("对话消息已写入，跳过: id={}", records.get(i).getId());
+            } catch (DataAccessException e) {
+                if (!isDataError(e)) {
+                    throw e;
+                }
+                deadLetter(records.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * 消息本身的问题（约束冲突、内容超长、类型错误等），重试也不会成功；连接失败、超时等不算
+     */
+    private static boolean isDataError(DataAccessException e) {
+        return e instanceof NonTransientDataAccessException && !(e instanceof DataAccessResourceFailureException);
+    }
+
+    private void deadLetter(MapRecord<String, Object, Object> record, DataAccessException cause) {
+        Map<String, String> fields = new HashMap<>();
+        record.getValue().forEach((key, value) -> fields.put(String.valueOf(key), String.valueOf(value)));
+        fields.put("sourceId", record.getId().getValue());
+        String error = String.valueOf(cause.getMostSpecificCause().getMessage());
+        fields.put("error", error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+        stringRedisTemplate.opsForStream().add(StreamRecords.string(fields).withStreamKey(DEAD_LETTER_KEY));
+        stringRedisTemplate.opsForStream().trim(DEAD_LETTER_KEY, DEAD_LETTER_MAX_LENGTH, true);
+        log.error("对话消息无法写入数据库，已移入死信: id={}, sessionId={}, index={}",
+                record.getId(), fields.get("session"), fields.get("index"), cause);
+    }
+
+    /**
+     * 认领其他消费者（已下线的实例）长时间未确认的消息，由本消费者重新写入
+     */
+    private void claimAbandoned() {
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(STREAM_KEY, GROUP, Range.unbounded(), batchSize);
+        Duration minIdle = Duration.ofMillis(claimIdleMillis);
+        RecordId[] abandoned = pending.stream()
+                .filter(message -> !consumerName.equals(message.getConsumerName()))
+                .filter(message -> message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0)
+                .map(PendingMessage::getId)
+                .toArray(RecordId[]::new);
+        if (abandoned.length == 0) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> claimed = stringRedisTemplate.opsForStream()
+                .claim(STREAM_KEY, GROUP, consumerName, minIdle, abandoned);
+        if (!claimed.isEmpty()) {
+            log.info("认领遗留的对话消息: count={}", claimed.size());
+            write(claimed, true);
+        }
+    }
+
+    private Set<String> deletedSessions(List<MapRecord<String, Object, Object>> records) {
+        List<String> sessions = new ArrayList<>(records.stream()
+                .map(record -> String.valueOf(record.getValue().get("session")))
+                .collect(Collectors.toCollection(LinkedHashSet::new)));
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String sessionId : sessions) {
+                connection.keyCommands().exists((DELETED_KEY_PREFIX + sessionId).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        Set<String> deleted = new HashSet<>();
+        for (int i = 0; i < sessions.size(); i++) {
+            if (Boolean.TRUE.equals(exists.get(i))) {
+                deleted.add(sessions.get(i));
+            }
+        }
+        return deleted;
+    }
+
+    private Map<String, Set<Integer>> existingIndexes(List<MapRecord<String, Object, Object>> records) {
+        Map<String, List<Integer>> bySession = new HashMap<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            bySession.computeIfAbsent(String.valueOf(record.getValue().get("session")), key -> new ArrayList<>())
+                    .add(Integer.parseInt(String.valueOf(record.getValue().get("index"))));
+        }
+        Map<String, Set<Integer>> existing = new HashMap<>();
+        bySession.forEach((sessionId, indexes) -> {
+            String placeholders = indexes.stream().map(index -> "?").collect(Collectors.joining(","));
+            List<Object> args = new ArrayList<>(indexes.size() + 1);
+            args.add(sessionId);
+            args.addAll(indexes);
+            existing.put(sessionId, Set.copyOf(jdbcTemplate.queryForList(
+                    "SELECT message_index FROM chat_messages WHERE session_id = ? AND message_index IN (" + placeholders + ")",
+                    Integer.class, args.toArray())));
+        });
+        return existing;
+    }
+
+    private void ensureGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.streamCommands().xGroupCreate(STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                        GROUP, ReadOffset.from("0"), true);
+                return null;
+            });
+        } catch (Exception e) {
+            if (isBusyGroup(e)) {
+                log.debug("对话消息消费组已存在: {}", e.getMessage());
+            } else {
+                log.warn("创建对话消息消费组失败，稍后重试", e);
+            }
+        }
+    }
+
+    /**
+     * BUSYGROUP：消费组已存在
+     */
+    static boolean isBusyGroup(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().startsWith("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String defaultConsumerName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "chat-writer-" + ProcessHandle.current().pid();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package org.example.backend.service.ai.memory;
 
+import com.alibaba.fastjson2.JSON;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import lombok.extern.slf4j.Slf4j;
 import org.example.backend.config.CacheKeyConfig;
@@ -8,23 +13,93 @@ import org.example.backend.model.ChatMessageEntity;
 import org.example.backend.repository.ChatMessageRepository;
 import org.example.backend.utils.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+/**
+ * 对话记忆存储：MySQL 保存完整历史，Redis 保存最近的消息
+ * Redis 中每个会话一个 List（chat:messages:list:{id}），每轮只 RPUSH 新增的消息并 LTRIM 到固定长度；
+ * 另有一个 Hash（chat:messages:meta:{id}）记录已分配的消息总数 seq、当前系统消息和 List 是否有效（cached）。
+ * 读取时只 LRANGE 窗口需要的最近几条；本实例上次读出的窗口缓存在内存中，seq 未变时直接复用。
+ * List 中每条消息带有它的序号（message_index），窗口记录每条消息的序号，供 messageIndexes 查询。
+ *
+ * 清除缓存时只删除 List 和 cached 标记，seq 保留：Stream 中可能还有未写入数据库的消息，
+ * 数据库中的最大 message_index 会落后于已分配的序号，按它重建会分配出重复的序号。
+ * 重建窗口和同步写入时的序号取 seq 与数据库最大序号的较大者；数据库落后于 seq 时窗口不回填 Redis，
+ * 等异步写入追上后再回填，避免缓存缺少最后一轮的窗口。
+ *
+ * MessageWindowChatMemory 每次 add 都是先 getMessages 再把窗口加上新消息传给 updateMessages，
+ * 因此传入列表中不是本实例读出的那些消息对象，就是本轮新增的消息。新增消息的序号由 Redis 中的
+ * seq 原子分配，MySQL 中的 message_index 与之一致，保存时不再查询已有消息或比较内容。
+ * 消息随追加脚本写入 Stream，由 ChatMessageWriteBehind 异步批量写入 MySQL；Redis 不可用或积压过多时同步写入。
+ *
+ * 用户消息中 RAG 注入的检索内容只写入 MySQL 的 retrieval_context 列，Redis List 和读出的历史中只有用户原话；
+ * 本轮对话的用户消息仍在本地窗口中，提示词里保留检索内容。
+ */
 @Slf4j
 @Component
 public class HybridChatMemoryStore implements ChatMemoryStore {
 
+    /**
+     * 追加消息：meta 不存在或 List 已失效（没有 cached 标记）时返回 -1，由调用方同步写入数据库；
+     * 否则 seq 加上新增条数，系统消息写入 meta，其余追加到 List 并截断；需要异步写入数据库时
+     * 每条消息同时写入 Stream，序号为 [原 seq, 新 seq)。返回新的 seq。
+     * KEYS: list, meta, stream；ARGV: 过期秒数, List 最大长度, 是否写入 Stream(1/0), sessionId,
+     * 然后每条消息三个参数：类型（S 系统消息 / M 其他）、消息内容和检索内容（没有时为空字符串，只写入 Stream）
+     */
+    private static final RedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HEXISTS', KEYS[2], 'cached') == 0 then return -1 end "
+                    + "local n = (#ARGV - 4) / 3 "
+                    + "local seq = redis.call('HINCRBY', KEYS[2], 'seq', n) "
+                    + "local start = seq - n "
+                    + "for i = 1, n do "
+                    + "  local kind = ARGV[2 + 3 * i] "
+                    + "  local message = ARGV[3 + 3 * i] "
+                    + "  local context = ARGV[4 + 3 * i] "
+                    + "  if kind == 'S' then redis.call('HSET', KEYS[2], 'system', message) "
+                    + "  else redis.call('RPUSH', KEYS[1], '{\"i\":' .. (start + i - 1) .. ',' .. string.sub(message, 2)) end "
+                    + "  if ARGV[3] == '1' and context == '' then "
+                    + "    redis.call('XADD', KEYS[3], '*', 'session', ARGV[4], 'index', start + i - 1, 'message', message) "
+                    + "  elseif ARGV[3] == '1' then "
+                    + "    redis.call('XADD', KEYS[3], '*', 'session', ARGV[4], 'index', start + i - 1, 'message', message, 'context', context) "
+                    + "  end "
+                    + "end "
+                    + "redis.call('LTRIM', KEYS[1], -tonumber(ARGV[2]), -1) "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+                    + "redis.call('EXPIRE', KEYS[2], ARGV[1]) "
+                    + "return seq",
+            Long.class);
+
+    /**
+     * List 失效时为同步写入分配序号：起点取 meta 中的 seq 与数据库下一个序号的较大者，seq 加上条数
+     * KEYS: meta；ARGV: 数据库下一个序号, 条数, 过期秒数。返回起始序号
+     */
+    private static final RedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "local current = tonumber(redis.call('HGET', KEYS[1], 'seq') or '0') "
+                    + "local start = math.max(current, tonumber(ARGV[1])) "
+                    + "redis.call('HSET', KEYS[1], 'seq', start + tonumber(ARGV[2])) "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[3]) "
+                    + "return start",
+            Long.class);
+
+    private static final byte[] SEQ_FIELD = "seq".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SYSTEM_FIELD = "system".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CACHED_FIELD = "cached".getBytes(StandardCharsets.UTF_8);
+
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private StringRedisTemplate stringRedisTemplate;
 
     @Autowired
     private ChatMessageRepository chatMessageRepository;
@@ -32,13 +107,29 @@ public class HybridChatMemoryStore implements ChatMemoryStore {
     @Autowired
     private MessageConverter messageConverter;
 
+    @Autowired
+    private ChatMessageWriteBehind writeBehind;
+
     // 缓存配置
     private static final Duration CACHE_TTL = Duration.ofHours(24);
-    private static final int BATCH_SIZE = 50; // 批量操作大小
+
+    // 读取的窗口大小，与 MessageWindowChatMemory 的 maxMessages 一致
+    @Value("${chat.memory.max-messages:20}")
+    private int windowSize;
+
+    // Redis 中每个会话保留的最近消息数
+    @Value("${chat.memory.redis-max-messages:100}")
+    private int redisMaxMessages;
+
+    // 本实例最近一次读出或写入的窗口
+    private final Cache<String, SessionWindow> windows = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
 
     /**
-     * 获取会话的所有消息（实现ChatMemoryStore接口）
-     * 策略：先Redis缓存，没有再MySQL，然后回填Redis
+     * 获取会话最近的消息（实现ChatMemoryStore接口）
+     * 策略：本地窗口（seq 未变）→ Redis 最近消息 → MySQL 最近消息并回填 Redis
      */
     @Override
     public List<ChatMessage> getMessages(Object memoryId) {
@@ -50,35 +141,37 @@ public class HybridChatMemoryStore implements ChatMemoryStore {
         String sessionId = memoryId.toString();
         log.debug("获取会话消息: sessionId={}", sessionId);
 
-        // 1. 尝试从Redis缓存获取
-        List<ChatMessage> cachedMessages = getFromRedis(sessionId);
-        if (!cachedMessages.isEmpty()) {
-            log.debug("从Redis缓存获取消息成功: sessionId={}, count={}", sessionId, cachedMessages.size());
-            return cachedMessages;
+        try {
+            // 1. 本地窗口仍是最新的，只需读一次 seq
+            SessionWindow window = windows.getIfPresent(sessionId);
+            if (window != null && window.seq() == readSeq(sessionId)) {
+                return new ArrayList<>(window.messages());
+            }
+
+            // 2. 从Redis读取最近的消息
+            window = readFromRedis(sessionId);
+            if (window != null) {
+                log.debug("从Redis获取消息成功: sessionId={}, count={}", sessionId, window.messages().size());
+                windows.put(sessionId, window);
+                return new ArrayList<>(window.messages());
+            }
+        } catch (Exception e) {
+            log.warn("从Redis获取消息失败，继续尝试数据库: sessionId={}", sessionId, e);
         }
 
-        // 2. Redis中没有，从MySQL数据库获取
+        // 3. Redis中没有，从MySQL读取最近的消息并回填Redis
         log.debug("Redis缓存未命中，从MySQL获取: sessionId={}", sessionId);
-        List<ChatMessage> dbMessages = loadFromDatabase(sessionId);
-
-        // 3. 异步保存到Redis缓存（不阻塞当前请求）
-        if (!dbMessages.isEmpty()) {
-            CompletableFuture.runAsync(() -> {
-                try {
-                    saveToRedis(sessionId, dbMessages);
-                    log.debug("异步保存消息到Redis: sessionId={}, count={}", sessionId, dbMessages.size());
-                } catch (Exception e) {
-                    log.error("异步保存Redis缓存失败: sessionId={}", sessionId, e);
-                }
-            });
+        SessionWindow window = loadWindowFromDatabase(sessionId);
+        if (window == null) {
+            return Collections.emptyList();
         }
-
-        return dbMessages;
+        windows.put(sessionId, window);
+        return new ArrayList<>(window.messages());
     }
 
     /**
      * 更新/保存会话消息（实现ChatMemoryStore接口）
-     * 策略：先保存到MySQL，再更新Redis缓存
+     * 策略：新增的消息先追加到Redis并分配序号，再按该序号异步（或同步）保存到MySQL
      */
     @Override
     @Transactional
@@ -91,28 +184,51 @@ public class HybridChatMemoryStore implements ChatMemoryStore {
         String sessionId = memoryId.toString();
         log.debug("更新会话消息: sessionId={}, count={}", sessionId, messages.size());
 
+        // 1. 找出本轮新增的消息
+        SessionWindow window = windows.getIfPresent(sessionId);
+        List<ChatMessage> added = window != null
+                ? window.newMessages(messages)
+                // 本地窗口已失效（正常流程中 getMessages 紧接着 updateMessages，几乎不会发生），
+                // MessageWindowChatMemory 每次 add 只追加一条，按最后一条处理
+                : messages.isEmpty() ? Collections.emptyList() : List.of(messages.get(messages.size() - 1));
+        if (added.isEmpty()) {
+            // 只是窗口淘汰了旧消息
+            if (window != null) {
+                windows.put(sessionId, window.advance(window.seq(), messages, added));
+            }
+            return;
+        }
+
+        long seq = -1;
         try {
-            System.out.println("==================开始执行保存====================");
-            System.out.println("保存历史会话到mysql中,message:"+messages);
-            System.out.println("==================执行结束====================");
-
-            // 1. 保存到MySQL数据库（主存储）
-            saveToDatabase(sessionId, messages);
-
-            System.out.println("尝试调用redis更新");
-            // 2. 异步更新Redis缓存
-            CompletableFuture.runAsync(() -> {
-                try {
-                    System.out.println("尝试调用redis更新");
-                    saveToRedis(sessionId, messages);
-                    log.debug("异步更新Redis缓存成功: sessionId={}, count={}", sessionId, messages.size());
-                } catch (Exception e) {
-                    log.error("异步更新Redis缓存失败: sessionId={}", sessionId, e);
+            // 2. 在Redis中追加消息并分配序号，新消息的序号为 [seq - added, seq)；
+            //    写入成功且异步写入可用时，消息同时进入 Stream，由 ChatMessageWriteBehind 批量写入数据库
+            boolean asyncPersist = writeBehind.accepting();
+            seq = appendToRedis(sessionId, added, asyncPersist);
+
+            // 3. 无法异步写入时同步保存到MySQL数据库，只写入新增的消息
+            if (seq < 0 || !asyncPersist) {
+                long startIndex = seq >= 0 ? seq - added.size() : reserveIndexes(sessionId, added.size());
+                saveToDatabase(sessionId, added, startIndex);
+                evictOnRollback(sessionId);
+            }
+
+            if (window != null && seq == window.seq() + added.size()) {
+                windows.put(sessionId, window.advance(seq, messages, added));
+            } else {
+                // Redis不可用、已过期，或有其他实例同时写入，本地窗口不再可信
+                windows.invalidate(sessionId);
+                if (seq < 0) {
+                    evict(sessionId);
                 }
-            });
+            }
 
         } catch (Exception e) {
             log.error("更新消息失败: sessionId={}", sessionId, e);
+            if (seq >= 0) {
+                // 数据库没有保存成功，Redis中已追加的消息作废
+                evict(sessionId);
+            }
             throw new RuntimeException("保存消息失败", e);
         }
     }
@@ -131,12 +247,13 @@ public class HybridChatMemoryStore implements ChatMemoryStore {
         log.info("删除会话消息: sessionId={}", sessionId);
 
         try {
-            // 1. 从MySQL删除
+            // 1. 从MySQL删除，Stream中尚未写入的消息不再写入
+            writeBehind.markDeleted(sessionId);
             chatMessageRepository.deleteBySessionId(sessionId);
             log.debug("从MySQL删除消息完成: sessionId={}", sessionId);
 
             // 2. 从Redis删除缓存
-            deleteFromRedis(sessionId);
+            evict(sessionId);
             log.debug("从Redis删除缓存完成: sessionId={}", sessionId);
 
         } catch (Exception e) {
@@ -145,70 +262,268 @@ public class HybridChatMemoryStore implements ChatMemoryStore {
         }
     }
 
+    /**
+     * 会话的完整历史（按消息顺序），用于展示和导出；对话上下文请使用 getMessages
+     * 消息异步写入数据库，刚结束的一轮可能有短暂延迟
+     */
+    public List<ChatMessage> getHistory(String sessionId) {
+        if (sessionId == null) {
+            return Collections.emptyList();
+        }
+        return loadFromDatabase(sessionId);
+    }
+
+    /**
+     * 消息的序号（message_index），按对象查找本实例最近一次读出或写入的窗口
+     * 需要在 getMessages 之后、updateMessages 之前查询；不在窗口中或序号未知时为 -1
+     */
+    public List<Long> messageIndexes(Object memoryId, List<ChatMessage> messages) {
+        SessionWindow window = memoryId != null ? windows.getIfPresent(memoryId.toString()) : null;
+        Map<ChatMessage, Long> known = new IdentityHashMap<>();
+        if (window != null) {
+            for (int i = 0; i < window.messages().size(); i++) {
+                known.put(window.messages().get(i), window.indexes().get(i));
+            }
+        }
+        List<Long> indexes = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            indexes.add(known.getOrDefault(message, -1L));
+        }
+        return indexes;
+    }
 
+    /**
+     * 清除会话的Redis缓存和本地窗口，下次读取时从数据库重建
+     * 绕过 updateMessages 直接写数据库后需要调用。meta 中的 seq 保留，之后分配的序号不会与未写入的消息重复
+     */
+    public void evict(String sessionId) {
+        windows.invalidate(sessionId);
+        try {
+            stringRedisTemplate.delete(List.of(
+                    CacheKeyConfig.buildMessageListKey(sessionId),
+                    CacheKeyConfig.buildMessagesKey(sessionId)));
+            stringRedisTemplate.opsForHash().delete(CacheKeyConfig.buildMessageMetaKey(sessionId), "system", "cached");
+        } catch (Exception e) {
+            log.error("从Redis删除缓存失败: sessionId={}", sessionId, e);
+        }
+    }
 
     /**
-     * 从Redis缓存获取消息
+     * Redis 中记录的 seq，不存在或 List 已失效时返回 -1
      */
-    private List<ChatMessage> getFromRedis(String sessionId) {
-        String redisKey = CacheKeyConfig.buildMessagesKey(sessionId);
+    private long readSeq(String sessionId) {
+        List<Object> meta = stringRedisTemplate.opsForHash()
+                .multiGet(CacheKeyConfig.buildMessageMetaKey(sessionId), List.of("seq", "cached"));
+        return meta.get(0) != null && meta.get(1) != null ? Long.parseLong(meta.get(0).toString()) : -1;
+    }
 
+    /**
+     * meta 中保留的 seq（不论 List 是否有效），不存在或无法读取时返回 -1
+     */
+    private long retainedSeq(String sessionId) {
         try {
-            Object cachedData = redisTemplate.opsForValue().get(redisKey);
-            if (cachedData instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> cachedList = (List<Map<String, Object>>) cachedData;
+            Object seq = stringRedisTemplate.opsForHash().get(CacheKeyConfig.buildMessageMetaKey(sessionId), "seq");
+            return seq != null ? Long.parseLong(seq.toString()) : -1;
+        } catch (Exception e) {
+            log.warn("读取会话消息序号失败: sessionId={}", sessionId, e);
+            return -1;
+        }
+    }
 
-                if (cachedList != null && !cachedList.isEmpty()) {
-                    // 延长缓存过期时间
-                    redisTemplate.expire(redisKey, CACHE_TTL);
+    /**
+     * 一次往返读取 seq、系统消息和最近 windowSize 条消息；会话不在Redis中时返回 null
+     */
+    private SessionWindow readFromRedis(String sessionId) {
+        byte[] metaKey = CacheKeyConfig.buildMessageMetaKey(sessionId).getBytes(StandardCharsets.UTF_8);
+        byte[] listKey = CacheKeyConfig.buildMessageListKey(sessionId).getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMGet(metaKey, SEQ_FIELD, SYSTEM_FIELD, CACHED_FIELD);
+            connection.listCommands().lRange(listKey, -windowSize, -1);
+            return null;
+        });
+
+        @SuppressWarnings("unchecked")
+        List<Object> meta = (List<Object>) results.get(0);
+        if (meta == null || meta.size() < 3 || meta.get(0) == null || meta.get(2) == null) {
+            return null;
+        }
+        long seq = Long.parseLong(meta.get(0).toString());
+        List<ChatMessage> messages = new ArrayList<>();
+        List<Long> indexes = new ArrayList<>();
+        if (meta.get(1) != null) {
+            ChatMessage system = fromCachedFormat(meta.get(1).toString());
+            if (system != null) {
+                messages.add(system);
+                indexes.add(-1L);
+            }
+        }
+        @SuppressWarnings("unchecked")
+        List<Object> tail = (List<Object>) results.get(1);
+        if (tail != null) {
+            for (Object item : tail) {
+                CachedMessage cached = parseCached(item.toString());
+                if (cached != null) {
+                    messages.add(cached.message());
+                    indexes.add(cached.index());
+                }
+            }
+        }
+        return new SessionWindow(seq, messages, indexes);
+    }
 
-                    // 转换为ChatMessage列表
-                    return convertFromCachedFormat(cachedList);
+    /**
+     * 从数据库读取系统消息和最近 windowSize 条消息，并回填Redis；会话没有消息时返回空窗口
+     * 数据库还没有写入全部已分配序号的消息时（Stream 中有积压）不回填，下次读取再从数据库加载
+     */
+    private SessionWindow loadWindowFromDatabase(String sessionId) {
+        try {
+            Integer maxIndex = chatMessageRepository.findMaxMessageIndexBySessionId(sessionId);
+            long databaseSeq = maxIndex != null ? maxIndex + 1L : 0L;
+            long retained = retainedSeq(sessionId);
+            long seq = Math.max(databaseSeq, retained);
+
+            ChatMessage system = null;
+            List<ChatMessage> tail = new ArrayList<>();
+            List<Long> tailIndexes = new ArrayList<>();
+            if (maxIndex != null) {
+                List<ChatMessageEntity> systemEntities = chatMessageRepository
+                        .findBySessionIdAndMessageType(sessionId, ChatMessageEntity.MessageType.SYSTEM);
+                if (!systemEntities.isEmpty()) {
+                    system = messageConverter.toChatMessage(systemEntities.get(systemEntities.size() - 1));
+                }
+                List<ChatMessageEntity> latest = chatMessageRepository.findLatestMessages(sessionId, windowSize);
+                for (int i = latest.size() - 1; i >= 0; i--) {
+                    ChatMessageEntity entity = latest.get(i);
+                    if (entity.getMessageType() != ChatMessageEntity.MessageType.SYSTEM) {
+                        tail.add(messageConverter.toChatMessage(entity));
+                        tailIndexes.add(entity.getMessageIndex().longValue());
+                    }
                 }
             }
+
+            if (retained > databaseSeq) {
+                log.debug("数据库尚未写入全部消息，暂不回填Redis: sessionId={}, seq={}, databaseSeq={}",
+                        sessionId, retained, databaseSeq);
+            } else {
+                backfillRedis(sessionId, seq, system, tail, tailIndexes);
+            }
+
+            List<ChatMessage> messages = new ArrayList<>(tail.size() + 1);
+            List<Long> indexes = new ArrayList<>(tail.size() + 1);
+            if (system != null) {
+                messages.add(system);
+                indexes.add(-1L);
+            }
+            messages.addAll(tail);
+            indexes.addAll(tailIndexes);
+            log.debug("从数据库加载最近消息成功: sessionId={}, count={}", sessionId, messages.size());
+            return new SessionWindow(seq, messages, indexes);
+
         } catch (Exception e) {
-            log.warn("从Redis获取消息失败，继续尝试数据库: sessionId={}", sessionId, e);
+            log.error("从数据库加载消息失败: sessionId={}", sessionId, e);
+            return null;
         }
+    }
 
-        return Collections.emptyList();
+    private void backfillRedis(String sessionId, long seq, ChatMessage system, List<ChatMessage> tail, List<Long> tailIndexes) {
+        byte[] metaKey = CacheKeyConfig.buildMessageMetaKey(sessionId).getBytes(StandardCharsets.UTF_8);
+        byte[] listKey = CacheKeyConfig.buildMessageListKey(sessionId).getBytes(StandardCharsets.UTF_8);
+        long ttlSeconds = CACHE_TTL.toSeconds();
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.keyCommands().del(listKey);
+                if (!tail.isEmpty()) {
+                    byte[][] values = new byte[tail.size()][];
+                    for (int i = 0; i < tail.size(); i++) {
+                        values[i] = toCachedFormat(tail.get(i), tailIndexes.get(i)).getBytes(StandardCharsets.UTF_8);
+                    }
+                    connection.listCommands().rPush(listKey, values);
+                    connection.keyCommands().expire(listKey, ttlSeconds);
+                }
+                connection.hashCommands().hSet(metaKey, SEQ_FIELD, Long.toString(seq).getBytes(StandardCharsets.UTF_8));
+                if (system != null) {
+                    connection.hashCommands().hSet(metaKey, SYSTEM_FIELD, toCachedFormat(system, -1).getBytes(StandardCharsets.UTF_8));
+                }
+                connection.hashCommands().hSet(metaKey, CACHED_FIELD, "1".getBytes(StandardCharsets.UTF_8));
+                connection.keyCommands().expire(metaKey, ttlSeconds);
+                return null;
+            });
+        } catch (Exception e) {
+            // 数据库中的数据是完整的，回填失败只影响下次读取的速度
+            log.error("回填Redis缓存失败: sessionId={}", sessionId, e);
+        }
     }
 
     /**
-     * 保存消息到Redis缓存
+     * 把本轮新增的消息追加到Redis，返回追加后的 seq；Redis中没有该会话或不可用时返回 -1
+     * @param toStream 是否同时写入 Stream 由后台写入数据库
      */
-    private void saveToRedis(String sessionId, List<ChatMessage> messages) {
-        System.out.println("调用redis更新");
-        if (sessionId == null || messages == null || messages.isEmpty()) {
-            return;
+    private long appendToRedis(String sessionId, List<ChatMessage> added, boolean toStream) {
+        List<String> args = new ArrayList<>(added.size() * 3 + 4);
+        args.add(Long.toString(CACHE_TTL.toSeconds()));
+        args.add(Integer.toString(redisMaxMessages));
+        args.add(toStream ? "1" : "0");
+        args.add(sessionId);
+        for (ChatMessage message : added) {
+            args.add(message instanceof SystemMessage ? "S" : "M");
+            args.add(toCachedFormat(message, -1));
+            String context = message instanceof UserMessage
+                    ? MessageConverter.retrievedContent(messageConverter.extractContent(message)) : null;
+            args.add(context != null ? context : "");
         }
 
-        String redisKey = CacheKeyConfig.buildMessagesKey(sessionId);
-
         try {
-            // 转换为可序列化的格式
-            System.out.println("saveToRedis.messages:"+messages);
-            List<Map<String, Object>> cacheData = convertToCachedFormat(messages);
-            System.out.println("保存到Redis成功: redisKey={"+redisKey+"}");
-            System.out.println("保存到Redis成功: cacheData={"+cacheData+"}");
-            redisTemplate.opsForValue().set(redisKey, cacheData, CACHE_TTL);
-            System.out.println("保存到Redis成功: sessionId={}"+sessionId);
+            Long seq = stringRedisTemplate.execute(APPEND_SCRIPT,
+                    List.of(CacheKeyConfig.buildMessageListKey(sessionId),
+                            CacheKeyConfig.buildMessageMetaKey(sessionId),
+                            ChatMessageWriteBehind.STREAM_KEY),
+                    args.toArray());
+            if (seq == null || seq < 0) {
+                return -1;
+            }
+            log.debug("追加消息到Redis成功: sessionId={}, added={}, seq={}", sessionId, added.size(), seq);
+            return seq;
         } catch (Exception e) {
-            log.error("保存消息到Redis失败: sessionId={}", sessionId, e);
-            // 这里不抛出异常，因为MySQL保存成功了
+            log.error("追加消息到Redis失败，改为同步写入数据库: sessionId={}", sessionId, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 事务回滚时Redis中已追加的消息作废
+     */
+    private void evictOnRollback(String sessionId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
         }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    evict(sessionId);
+                }
+            }
+        });
     }
 
     /**
-     * 从Redis删除缓存
+     * 为绕过 Redis List 直接写入数据库的消息分配序号，返回起始序号
+     * 取 meta 中保留的 seq 与数据库下一个序号的较大者并更新 seq；Redis 不可用时按数据库中最大的序号继续
      */
-    private void deleteFromRedis(String sessionId) {
-        String redisKey = CacheKeyConfig.buildMessagesKey(sessionId);
+    public long reserveIndexes(String sessionId, int count) {
+        Integer maxIndex = chatMessageRepository.findMaxMessageIndexBySessionId(sessionId);
+        long databaseSeq = maxIndex != null ? maxIndex + 1L : 0L;
         try {
-            redisTemplate.delete(redisKey);
+            Long start = stringRedisTemplate.execute(RESERVE_SCRIPT,
+                    List.of(CacheKeyConfig.buildMessageMetaKey(sessionId)),
+                    Long.toString(databaseSeq), Integer.toString(count), Long.toString(CACHE_TTL.toSeconds()));
+            if (start != null) {
+                return start;
+            }
         } catch (Exception e) {
-            log.error("从Redis删除缓存失败: sessionId={}", sessionId, e);
+            log.warn("分配消息序号失败，按数据库序号继续: sessionId={}", sessionId, e);
         }
+        return databaseSeq;
     }
 
     /**
@@ -241,140 +556,71 @@ public class HybridChatMemoryStore implements ChatMemoryStore {
     }
 
     /**
-     * 保存消息到MySQL数据库
+     * 保存新增的消息到MySQL数据库，序号从 startIndex 开始连续分配
      */
-    private void saveToDatabase(String sessionId, List<ChatMessage> messages) {
-        if (sessionId == null || messages == null || messages.isEmpty()) {
-            return;
-        }
-
-        try {
-            // 1. 获取数据库中现有的所有消息
-            List<ChatMessageEntity> existingEntities = chatMessageRepository
-                    .findBySessionIdOrderByMessageIndexAsc(sessionId);
-
-            // 2. 计算需要保存的新消息
-            List<ChatMessage> newMessages = findNewMessages(existingEntities, messages);
-
-            if (newMessages.isEmpty()) {
-                log.debug("没有新消息需要保存: sessionId={}", sessionId);
-                return;
-            }
-
-            // 3. 计算起始索引
-            int startIndex = existingEntities.isEmpty() ? 0 :
-                    existingEntities.get(existingEntities.size() - 1).getMessageIndex() + 1;
-
-            // 4. 保存新消息
-            List<ChatMessageEntity> entities = new ArrayList<>();
-            for (int i = 0; i < newMessages.size(); i++) {
-                ChatMessageEntity entity = messageConverter.toEntity(
-                        newMessages.get(i),
-                        sessionId,
-                        startIndex + i
-                );
-                entities.add(entity);
-            }
-
-            if (!entities.isEmpty()) {
-                chatMessageRepository.saveAll(entities);
-                log.debug("增量保存到数据库成功: sessionId={}, count={}", sessionId, entities.size());
-            }
-
-        } catch (Exception e) {
-            log.error("保存到数据库失败: sessionId={}", sessionId, e);
-            throw new RuntimeException("数据库保存失败", e);
+    private void saveToDatabase(String sessionId, List<ChatMessage> added, long startIndex) {
+        List<ChatMessageEntity> entities = new ArrayList<>(added.size());
+        for (int i = 0; i < added.size(); i++) {
+            entities.add(messageConverter.toEntity(added.get(i), sessionId, (int) (startIndex + i)));
         }
+        chatMessageRepository.saveAll(entities);
+        log.debug("增量保存到数据库成功: sessionId={}, count={}, startIndex={}", sessionId, entities.size(), startIndex);
     }
 
     /**
-     * 找出需要保存的新消息
+     * 转换为Redis缓存格式，用户消息只保留原话
+     * @param index 消息序号，写入 List 时记录（字段 i）；未知或不需要时为 -1
      */
-    private List<ChatMessage> findNewMessages(List<ChatMessageEntity> existingEntities,
-                                              List<ChatMessage> allMessages) {
-        if (existingEntities.isEmpty()) {
-            return allMessages;
+    private String toCachedFormat(ChatMessage message, long index) {
+        String content = messageConverter.extractContent(message);
+        Map<String, Object> messageMap = new HashMap<>();
+        if (index >= 0) {
+            messageMap.put("i", index);
         }
-
-        // 获取最后一条已保存消息的内容，用于比较
-        String lastSavedContent = existingEntities.get(existingEntities.size() - 1).getContent();
-
-        // 找到已保存消息在allMessages中的位置
-        int lastSavedIndex = -1;
-        for (int i = 0; i < allMessages.size(); i++) {
-            ChatMessage message = allMessages.get(i);
-            String content = messageConverter.extractContent(message);
-            if (content != null && content.equals(lastSavedContent)) {
-                lastSavedIndex = i;
-                break;
-            }
-        }
-
-        // 返回lastSavedIndex之后的消息（新增的部分）
-        if (lastSavedIndex >= 0 && lastSavedIndex < allMessages.size() - 1) {
-            return allMessages.subList(lastSavedIndex + 1, allMessages.size());
-        }
-
-        return Collections.emptyList();
+        messageMap.put("type", message.type().toString());
+        messageMap.put("content", message instanceof UserMessage ? MessageConverter.stripRetrievedContent(content) : content);
+        return JSON.toJSONString(messageMap);
     }
+
     /**
-     * 转换为Redis缓存格式
+     * 从Redis缓存格式转换
      */
-    private List<Map<String, Object>> convertToCachedFormat(List<ChatMessage> messages) {
-        List<Map<String, Object>> cacheData = new ArrayList<>();
-
-        for (ChatMessage message : messages) {
-            Map<String, Object> messageMap = new HashMap<>();
-            messageMap.put("type", message.type().toString());
-            messageMap.put("content", messageConverter.extractContent(message));
-            System.out.println("content:  "+messageConverter.extractContent(message));
-            // 添加角色信息
-            if (message instanceof dev.langchain4j.data.message.UserMessage) {
-                messageMap.put("role", "user");
-            } else if (message instanceof dev.langchain4j.data.message.AiMessage) {
-                messageMap.put("role", "assistant");
-            } else if (message instanceof dev.langchain4j.data.message.SystemMessage) {
-                messageMap.put("role", "system");
-            }
-
-            cacheData.add(messageMap);
-        }
-
-        return cacheData;
+    static ChatMessage fromCachedFormat(String cached) {
+        CachedMessage parsed = parseCached(cached);
+        return parsed != null ? parsed.message() : null;
     }
 
     /**
-     * 从Redis缓存格式转换
+     * 从Redis缓存格式转换，同时取出序号；没有序号（系统消息、旧格式）时为 -1，无法转换时返回 null
      */
-    private List<ChatMessage> convertFromCachedFormat(List<Map<String, Object>> cacheData) {
-        List<ChatMessage> messages = new ArrayList<>();
-
-        for (Map<String, Object> messageMap : cacheData) {
-            try {
-                String type = (String) messageMap.get("type");
-                String content = (String) messageMap.get("content");
-
-                if (type != null && content != null) {
-                    ChatMessage message = createChatMessage(type, content);
-                    if (message != null) {
-                        messages.add(message);
-                    }
-                }
-            } catch (Exception e) {
-                log.warn("转换缓存消息失败: {}", messageMap, e);
+    private static CachedMessage parseCached(String cached) {
+        try {
+            Map<String, Object> messageMap = JSON.parseObject(cached);
+            String type = (String) messageMap.get("type");
+            String content = (String) messageMap.get("content");
+            if (type != null && content != null) {
+                ChatMessage message = createChatMessage(type, content);
+                Object index = messageMap.get("i");
+                return message != null
+                        ? new CachedMessage(message, index instanceof Number number ? number.longValue() : -1L)
+                        : null;
             }
+        } catch (Exception e) {
+            log.warn("转换缓存消息失败: {}", cached, e);
         }
+        return null;
+    }
 
-        return messages;
+    private record CachedMessage(ChatMessage message, long index) {
     }
 
     /**
      * 根据类型创建ChatMessage
      */
-    private ChatMessage createChatMessage(String type, String content) {
+    private static ChatMessage createChatMessage(String type, String content) {
         switch (type) {
             case "USER":
-                return dev.langchain4j.data.message.UserMessage.from(content);
+                return UserMessage.from(content);
             case "AI":
                 return dev.langchain4j.data.message.AiMessage.from(content);
             case "SYSTEM":
@@ -384,4 +630,51 @@ public class HybridChatMemoryStore implements ChatMemoryStore {
                 return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 本实例读出或写入的窗口
+     * @param seq 窗口对应的 Redis seq
+     * @param messages 窗口中的消息对象，updateMessages 时据此识别新增的消息
+     * @param indexes 与 messages 一一对应的消息序号，未知时为 -1
+     */
+    record SessionWindow(long seq, List<ChatMessage> messages, List<Long> indexes) {
+
+        SessionWindow(long seq, List<ChatMessage> messages) {
+            this(seq, messages, Collections.nCopies(messages.size(), -1L));
+        }
+
+        /**
+         * 传入列表中不属于本窗口的消息，保持原有顺序
+         */
+        List<ChatMessage> newMessages(List<ChatMessage> incoming) {
+            Set<ChatMessage> known = Collections.newSetFromMap(new IdentityHashMap<>());
+            known.addAll(messages);
+            List<ChatMessage> added = new ArrayList<>();
+            for (ChatMessage message : incoming) {
+                if (!known.contains(message)) {
+                    added.add(message);
+                }
+            }
+            return added;
+        }
+
+        /**
+         * 写入后的窗口：原有消息沿用原序号，新增的 added 按顺序占用 [newSeq - added.size(), newSeq)
+         */
+        SessionWindow advance(long newSeq, List<ChatMessage> incoming, List<ChatMessage> added) {
+            Map<ChatMessage, Long> known = new IdentityHashMap<>();
+            for (int i = 0; i < messages.size(); i++) {
+                known.put(messages.get(i), indexes.get(i));
+            }
+            long next = newSeq - added.size();
+            for (ChatMessage message : added) {
+                known.put(message, next++);
+            }
+            List<Long> advanced = new ArrayList<>(incoming.size());
+            for (ChatMessage message : incoming) {
+                advanced.add(known.getOrDefault(message, -1L));
+            }
+            return new SessionWindow(newSeq, new ArrayList<>(incoming), advanced);
+        }
+    }
+}
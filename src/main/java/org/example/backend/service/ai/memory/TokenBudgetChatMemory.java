@@ -0,0 +1,201 @@
+package org.example.backend.service.ai.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import org.example.backend.utils.MessageConverter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 token 预算裁剪的对话记忆
+ * 存储仍按消息条数保留最近的消息（与 MessageWindowChatMemory 相同）；组装提示词时：
+ * 1. 早期用户消息中 RAG 注入的检索内容去掉，只保留用户原话，最后一条用户消息保持不变；
+ * 2. 从最新的消息往前累计估算的 token 数，超出预算的早期消息不放入提示词；
+ * 3. 不放入的消息由 ChatMemorySummarizer 在后台合并进会话摘要，摘要附加在系统消息之后；
+ *    按条数淘汰出存储的消息同样合并进摘要。
+ */
+public class TokenBudgetChatMemory implements ChatMemory {
+
+    private static final String SUMMARY_HEADER = "\n\n以下是本次会话较早内容的摘要，供回答时参考：\n";
+
+    private final Object id;
+    private final HybridChatMemoryStore store;
+    private final ChatMemorySummarizer summarizer;
+    private final int maxMessages;
+    private final int maxTokens;
+
+    /**
+     * @param maxMessages 存储中保留的消息条数（不含系统消息）
+     * @param maxTokens 提示词中对话历史（含系统消息和摘要）的估算 token 上限
+     */
+    public TokenBudgetChatMemory(Object id, HybridChatMemoryStore store, ChatMemorySummarizer summarizer,
+                                 int maxMessages, int maxTokens) {
+        this.id = id;
+        this.store = store;
+        this.summarizer = summarizer;
+        this.maxMessages = maxMessages;
+        this.maxTokens = maxTokens;
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        List<ChatMessage> messages = new ArrayList<>(store.getMessages(id));
+        if (message instanceof SystemMessage) {
+            SystemMessage current = SystemMessage.findFirst(messages).orElse(null);
+            if (message.equals(current)) {
+                return;
+            }
+            messages.remove(current);
+        }
+        messages.add(message);
+        List<ChatMessage> evicted = ensureCapacity(messages);
+        // 序号按窗口中的对象查找，需在 updateMessages 替换窗口之前取出
+        List<Long> evictedIndexes = evicted.isEmpty() ? List.of() : store.messageIndexes(id, evicted);
+        store.updateMessages(id, messages);
+        if (!evicted.isEmpty()) {
+            // 淘汰的消息之后不会再出现在 messages() 中，在此合并进摘要
+            summarizer.foldLater(id.toString(), summarizer.current(id.toString()), evicted, evictedIndexes);
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        List<ChatMessage> stored = store.getMessages(id);
+        SystemMessage system = SystemMessage.findFirst(stored).orElse(null);
+        List<Long> storedIndexes = store.messageIndexes(id, stored);
+
+        List<ChatMessage> history = new ArrayList<>(stored.size());
+        List<Long> indexes = new ArrayList<>(stored.size());
+        int lastUser = -1;
+        for (int i = 0; i < stored.size(); i++) {
+            ChatMessage message = stored.get(i);
+            if (message instanceof SystemMessage) {
+                continue;
+            }
+            if (message instanceof UserMessage) {
+                lastUser = history.size();
+            }
+            history.add(message);
+            indexes.add(storedIndexes.get(i));
+        }
+        for (int i = 0; i < lastUser; i++) {
+            if (history.get(i) instanceof UserMessage userMessage) {
+                history.set(i, stripRetrievedContent(userMessage));
+            }
+        }
+
+        int budget = maxTokens - (system != null ? estimateTokens(system.text()) : 0);
+        int start = fit(history, budget);
+        String summary = null;
+        if (start > 0) {
+            // 有消息放不下时才附加摘要，摘要同样计入预算，扣除后重新计算能放入的消息
+            ChatMemorySummarizer.Summary current = summarizer.current(id.toString());
+            summary = current.text();
+            if (summary != null) {
+                start = fit(history, budget - estimateTokens(SUMMARY_HEADER + summary));
+            }
+            summarizer.foldLater(id.toString(), current, history.subList(0, start), indexes.subList(0, start));
+        }
+
+        List<ChatMessage> result = new ArrayList<>(history.size() - start + 1);
+        if (summary != null) {
+            String base = system != null ? system.text() : "";
+            result.add(SystemMessage.from(base + SUMMARY_HEADER + summary));
+        } else if (system != null) {
+            result.add(system);
+        }
+        result.addAll(history.subList(start, history.size()));
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        store.deleteMessages(id);
+        summarizer.delete(id.toString());
+    }
+
+    /**
+     * 从最新的消息往前放入，直到超出预算；最后一条消息总是保留
+     * @return 放入提示词的第一条消息的位置
+     */
+    private static int fit(List<ChatMessage> history, int budget) {
+        int start = history.size();
+        while (start > 0) {
+            int cost = estimateTokens(history.get(start - 1));
+            if (start < history.size() && cost > budget) {
+                break;
+            }
+            budget -= cost;
+            start--;
+        }
+        // 不以助手消息开头，避免提示词中出现没有问题的回答
+        while (start < history.size() - 1 && history.get(start) instanceof AiMessage) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * 去掉用户消息中注入的检索内容，只保留用户原话
+     */
+    private static ChatMessage stripRetrievedContent(UserMessage message) {
+        if (!message.hasSingleText()) {
+            return message;
+        }
+        String text = message.singleText();
+        String stripped = MessageConverter.stripRetrievedContent(text);
+        return stripped.length() == text.length() ? message : UserMessage.from(stripped);
+    }
+
+    /**
+     * 与 MessageWindowChatMemory 相同：超出条数时从最早的非系统消息开始淘汰
+     * @return 按时间顺序被淘汰的消息
+     */
+    private List<ChatMessage> ensureCapacity(List<ChatMessage> messages) {
+        int systemCount = messages.isEmpty() || !(messages.get(0) instanceof SystemMessage) ? 0 : 1;
+        List<ChatMessage> evicted = new ArrayList<>();
+        while (messages.size() - systemCount > maxMessages) {
+            evicted.add(messages.remove(systemCount));
+        }
+        return evicted;
+    }
+
+    private static int estimateTokens(ChatMessage message) {
+        if (message instanceof UserMessage userMessage) {
+            return estimateTokens(userMessage.hasSingleText() ? userMessage.singleText() : userMessage.toString());
+        }
+        if (message instanceof AiMessage aiMessage) {
+            return estimateTokens(aiMessage.text());
+        }
+        return estimateTokens(message.toString());
+    }
+
+    /**
+     * 粗略估算 token 数：中日韩字符按每字 1 个，其余字符按每 4 个 1 个，另加每条消息的固定开销
+     */
+    static int estimateTokens(String text) {
+        if (text == null) {
+            return 4;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isIdeographic(ch) || (ch >= '぀' && ch <= 'ヿ') || (ch >= '가' && ch <= '힯')) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return 4 + cjk + (other + 3) / 4;
+    }
+}
@@ -0,0 +1,337 @@
+package org.example.backend.service.file;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.config.FileUploadConfig;
+import org.example.backend.model.FileBlob;
+import org.example.backend.repository.FileBlobRepository;
+import org.example.backend.repository.FileInfoRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按内容去重的文件存储
+ * 每份内容只保存一次，文件记录通过 blob_id 引用并计数。
+ * 内容以分片摘要清单（各分片MD5组合而成，合并分片时已经算好）加分片大小标识：合并前相同内容直接引用已有 blob，
+ * 不再写入；新 blob 在事务提交后登记标识，与其他实例同时登记的相同内容冲突时把引用合并过去。
+ * MD5 已知的 blob 可以被初始化上传时的秒传直接引用；多分片文件默认不重读文件计算整文件MD5。
+ * 引用数归零的 blob 超过保留期后由定时任务回收。
+ */
+@Slf4j
+@Component
+public class BlobStore {
+
+    private static final int GC_BATCH_SIZE = 100;
+    private static final int DIGEST_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileUploadConfig config;
+    private final FileBlobRepository blobRepository;
+    private final FileInfoRepository fileRepository;
+    private final TransactionTemplate transactionTemplate;
+    // 整文件MD5计算，单线程、有界队列，不占用公共线程池
+    private final ThreadPoolExecutor digestExecutor;
+
+    // 引用数归零后保留的分钟数，期间相同内容的上传仍可秒传
+    @Value("${upload.blob-gc-grace-minutes:60}")
+    private long gcGraceMinutes;
+
+    // 是否为多分片文件额外计算整文件MD5（需要重读整个文件，只在需要按MD5秒传时开启）
+    @Value("${upload.blob-full-md5:false}")
+    private boolean fullMd5Enabled;
+
+    public BlobStore(FileUploadConfig config,
+                     FileBlobRepository blobRepository,
+                     FileInfoRepository fileRepository,
+                     TransactionTemplate transactionTemplate) {
+        this.config = config;
+        this.blobRepository = blobRepository;
+        this.fileRepository = fileRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.digestExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(16),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "blob-digest");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 查找MD5和大小都一致且已校验的 blob，并增加一次引用
+     * @return 可直接引用的 blob；不存在、已被回收或物理文件丢失时返回 empty
+     */
+    @Transactional
+    public Optional<FileBlob> acquireExisting(String md5, Long fileSize) {
+        if (md5 == null || md5.isBlank() || fileSize == null) {
+            return Optional.empty();
+        }
+        Optional<FileBlob> blob = blobRepository.findByMd5AndFileSize(md5.toLowerCase(Locale.ROOT), fileSize);
+        if (blob.isEmpty() || !Files.exists(Paths.get(blob.get().getStoragePath()))) {
+            return Optional.empty();
+        }
+        if (blobRepository.adjustRefCount(blob.get().getId(), 1, LocalDateTime.now()) == 0) {
+            return Optional.empty();
+        }
+        return blob;
+    }
+
+    /**
+     * 为新上传的内容创建 blob（引用数为1），调用方负责把内容写到返回的 storagePath
+     */
+    @Transactional
+    public FileBlob create(Long fileSize) throws IOException {
+        FileBlob blob = new FileBlob();
+        blob.setFileSize(fileSize);
+        blob.setRefCount(1);
+        blobRepository.save(blob);
+
+        Path storagePath = blobPath(blob.getId());
+        Files.createDirectories(storagePath.getParent());
+        blob.setStoragePath(storagePath.toString());
+        return blobRepository.save(blob);
+    }
+
+    /**
+     * 释放一次引用，物理文件由回收任务删除
+     */
+    @Transactional
+    public void release(FileBlob blob) {
+        blobRepository.adjustRefCount(blob.getId(), -1, LocalDateTime.now());
+    }
+
+    /**
+     * 按分片摘要清单查找相同内容的 blob，并增加一次引用；合并分片前调用，命中时无需再写入内容
+     * @param chunkSize 分片大小，只有一个分片时为0
+     */
+    @Transactional
+    public Optional<FileBlob> acquireByManifest(String manifestMd5, int chunkSize, Long fileSize) {
+        Optional<FileBlob> blob = blobRepository.findByManifestMd5AndChunkSize(manifestMd5, chunkSize)
+                .filter(found -> found.getFileSize() != null && found.getFileSize().equals(fileSize));
+        if (blob.isEmpty() || !Files.exists(Paths.get(blob.get().getStoragePath()))) {
+            return Optional.empty();
+        }
+        if (blobRepository.adjustRefCount(blob.get().getId(), 1, LocalDateTime.now()) == 0) {
+            return Optional.empty();
+        }
+        return blob;
+    }
+
+    /**
+     * 当前事务提交后登记新 blob 的内容标识（分片摘要清单，已知时还有整文件MD5）
+     * 登记不读文件；与已有 blob 重复（包括其他实例同时登记了相同内容）时把引用合并过去。
+     * 整文件MD5未知且开启了 upload.blob-full-md5 时，另在专用线程中计算，供按MD5秒传使用。
+     * @param knownMd5 已经确定的整文件MD5（例如只有一个分片时）
+     */
+    public void registerLater(Long blobId, String manifestMd5, int chunkSize, @Nullable String knownMd5) {
+        Runnable task = () -> {
+            try {
+                Long registered = register(blobId, manifestMd5, chunkSize,
+                        knownMd5 != null ? knownMd5.toLowerCase(Locale.ROOT) : null);
+                if (registered != null && knownMd5 == null && fullMd5Enabled) {
+                    scheduleFullDigest(registered);
+                }
+            } catch (Exception e) {
+                log.error("登记文件内容标识失败: blobId={}", blobId, e);
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        digestExecutor.shutdownNow();
+    }
+
+    /**
+     * 写入内容标识；已有相同内容的 blob 时合并过去
+     * @return 写入了标识的 blob ID，合并到已有 blob 或 blob 已不存在时返回 null
+     */
+    @Nullable
+    Long register(Long blobId, @Nullable String manifestMd5, @Nullable Integer chunkSize, @Nullable String md5) {
+        try {
+            return transactionTemplate.execute(status -> {
+                FileBlob current = blobRepository.findById(blobId).orElse(null);
+                if (current == null) {
+                    return null;
+                }
+                Optional<FileBlob> duplicate = findDuplicate(current, manifestMd5, chunkSize, md5);
+                if (duplicate.isPresent()) {
+                    mergeInto(current, duplicate.get());
+                    return null;
+                }
+                if (manifestMd5 != null) {
+                    current.setManifestMd5(manifestMd5);
+                    current.setChunkSize(chunkSize);
+                }
+                if (md5 != null) {
+                    current.setMd5(md5);
+                }
+                // 立即写入，唯一索引冲突在这里抛出
+                blobRepository.saveAndFlush(current);
+                if (md5 != null) {
+                    fileRepository.updateMd5ByBlob(current, md5);
+                }
+                return blobId;
+            });
+        } catch (DataIntegrityViolationException e) {
+            // 其他实例在查重之后登记了相同内容，合并到它登记的 blob
+            return transactionTemplate.execute(status -> {
+                FileBlob current = blobRepository.findById(blobId).orElse(null);
+                if (current == null) {
+                    return null;
+                }
+                Optional<FileBlob> duplicate = findDuplicate(current, manifestMd5, chunkSize, md5);
+                if (duplicate.isEmpty()) {
+                    throw e;
+                }
+                mergeInto(current, duplicate.get());
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 按分片摘要清单或整文件MD5查找内容相同的其他 blob
+     */
+    private Optional<FileBlob> findDuplicate(FileBlob current, @Nullable String manifestMd5,
+                                             @Nullable Integer chunkSize, @Nullable String md5) {
+        Optional<FileBlob> duplicate = Optional.empty();
+        if (manifestMd5 != null) {
+            duplicate = blobRepository.findByManifestMd5AndChunkSize(manifestMd5, chunkSize);
+        }
+        if (duplicate.isEmpty() && md5 != null) {
+            duplicate = blobRepository.findByMd5(md5);
+        }
+        return duplicate.filter(found -> !found.getId().equals(current.getId()));
+    }
+
+    /**
+     * 把引用 current 的文件记录改为引用 target，current 引用数归零等待回收
+     */
+    private void mergeInto(FileBlob current, FileBlob target) {
+        int moved = fileRepository.relinkBlob(current, target, target.getStoragePath());
+        LocalDateTime now = LocalDateTime.now();
+        blobRepository.adjustRefCount(target.getId(), moved, now);
+        blobRepository.adjustRefCount(current.getId(), -moved, now);
+        log.info("发现重复内容，已合并存储: blobId={} -> {}, 文件数={}", current.getId(), target.getId(), moved);
+    }
+
+    /**
+     * 在专用线程中计算整文件MD5；队列已满时放弃，该文件只是不能按MD5秒传
+     */
+    private void scheduleFullDigest(Long blobId) {
+        try {
+            digestExecutor.execute(() -> {
+                try {
+                    FileBlob blob = blobRepository.findById(blobId).orElse(null);
+                    if (blob == null || blob.getMd5() != null || blob.getRefCount() <= 0) {
+                        return;
+                    }
+                    register(blobId, null, null, digest(Paths.get(blob.getStoragePath())));
+                } catch (Exception e) {
+                    log.error("计算整文件MD5失败: blobId={}", blobId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("整文件MD5计算队列已满，跳过: blobId={}", blobId);
+        }
+    }
+
+    /**
+     * 回收引用数为0且超过保留期的 blob
+     */
+    @Scheduled(cron = "${upload.blob-gc-cron:0 0 4 * * *}")
+    public void collectGarbage() {
+        LocalDateTime before = LocalDateTime.now().minusMinutes(gcGraceMinutes);
+        long afterId = 0L;
+        int reclaimedCount = 0;
+        long reclaimedBytes = 0L;
+        while (true) {
+            List<FileBlob> blobs = blobRepository.findUnreferenced(before, afterId, PageRequest.of(0, GC_BATCH_SIZE));
+            if (blobs.isEmpty()) {
+                break;
+            }
+            for (FileBlob blob : blobs) {
+                // 条件删除：若回收前被秒传重新引用，删除不生效
+                Integer deleted = transactionTemplate.execute(status -> blobRepository.deleteIfUnreferenced(blob.getId()));
+                if (deleted == null || deleted == 0) {
+                    continue;
+                }
+                try {
+                    if (blob.getStoragePath() != null && Files.deleteIfExists(Paths.get(blob.getStoragePath()))) {
+                        reclaimedCount++;
+                        reclaimedBytes += blob.getFileSize() != null ? blob.getFileSize() : 0L;
+                    }
+                } catch (IOException e) {
+                    log.warn("删除存储文件失败: {}", blob.getStoragePath(), e);
+                }
+            }
+            afterId = blobs.get(blobs.size() - 1).getId();
+        }
+        if (reclaimedCount > 0) {
+            log.info("回收无引用的存储文件: count={}, bytes={}", reclaimedCount, reclaimedBytes);
+        }
+    }
+
+    private Path blobPath(Long blobId) {
+        // 按ID低8位分散到256个子目录，避免单个目录文件过多
+        return config.getRootPath().resolve("blobs")
+                .resolve(String.format("%02x", blobId & 0xff))
+                .resolve(String.valueOf(blobId));
+    }
+
+    private String digest(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前环境不支持MD5", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,148 @@
+package org.example.backend.service.file;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片上传状态，用 Redis 位图记录：第 i 位为 1 表示第 i 个分片已上传
+ * 标记分片是一次 SETBIT，原子且与分片总数无关；统计已上传数用 BITCOUNT，
+ * 查询缺失分片只需一次 GET 取回整个位图（1000 个分片约 125 字节）。
+ * 每个分片接收时计算的 MD5 存在 upload:digest:{fileId} 哈希中，合并时按序取出组成摘要清单。
+ */
+@Component
+@RequiredArgsConstructor
+public class UploadChunkTracker {
+
+    public static final String KEY_PREFIX = "upload:chunk:";
+    public static final String DIGEST_KEY_PREFIX = "upload:digest:";
+    private static final long EXPIRE_HOURS = 24;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 初始化分片状态，位图长度预先扩展到分片总数
+     */
+    public void init(Long fileId, int chunkCount) {
+        if (chunkCount <= 0) {
+            throw new IllegalArgumentException("分片总数必须大于0");
+        }
+        byte[] key = rawKey(fileId);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.keyCommands().del(key, rawDigestKey(fileId));
+            connection.stringCommands().setBit(key, chunkCount - 1, false);
+            connection.keyCommands().expire(key, TimeUnit.HOURS.toSeconds(EXPIRE_HOURS));
+            return null;
+        });
+    }
+
+    /**
+     * 记录分片的 MD5 并标记分片已上传，先写摘要再置位，保证已上传的分片一定有摘要
+     * @return 该分片此前是否已经标记过（重传）
+     */
+    public boolean markUploaded(Long fileId, int chunkIndex, String chunkMd5) {
+        byte[] key = rawKey(fileId);
+        byte[] digestKey = rawDigestKey(fileId);
+        long expireSeconds = TimeUnit.HOURS.toSeconds(EXPIRE_HOURS);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hSet(digestKey, String.valueOf(chunkIndex).getBytes(StandardCharsets.UTF_8),
+                    chunkMd5.getBytes(StandardCharsets.UTF_8));
+            connection.stringCommands().setBit(key, chunkIndex, true);
+            connection.keyCommands().expire(digestKey, expireSeconds);
+            connection.keyCommands().expire(key, expireSeconds);
+            return null;
+        });
+        return Boolean.TRUE.equals(results.get(1));
+    }
+
+    /**
+     * 取消分片的已上传标记并删除其摘要，先清位再删摘要，同样保证已上传的分片一定有摘要
+     * 直接写入模式重传分片前调用：覆盖写入会改变该区域的内容，写入并校验通过前不能再视为已上传
+     */
+    public void unmark(Long fileId, int chunkIndex) {
+        byte[] key = rawKey(fileId);
+        byte[] digestKey = rawDigestKey(fileId);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().setBit(key, chunkIndex, false);
+            connection.hashCommands().hDel(digestKey, String.valueOf(chunkIndex).getBytes(StandardCharsets.UTF_8));
+            return null;
+        });
+    }
+
+    /**
+     * 按分片顺序取出各分片的 MD5，未上传的分片对应位置为 null
+     */
+    public List<String> chunkDigests(Long fileId, int chunkCount) {
+        List<Object> fields = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            fields.add(String.valueOf(i));
+        }
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(DIGEST_KEY_PREFIX + fileId, fields);
+        List<String> digests = new ArrayList<>(chunkCount);
+        for (Object value : values) {
+            digests.add(value != null ? value.toString() : null);
+        }
+        return digests;
+    }
+
+    public boolean isUploaded(Long fileId, int chunkIndex) {
+        Boolean bit = stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().getBit(rawKey(fileId), chunkIndex));
+        return Boolean.TRUE.equals(bit);
+    }
+
+    /**
+     * 已上传的分片数
+     */
+    public long countUploaded(Long fileId) {
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.stringCommands().bitCount(rawKey(fileId)));
+        return count != null ? count : 0L;
+    }
+
+    public boolean isComplete(Long fileId, int chunkCount) {
+        return countUploaded(fileId) >= chunkCount;
+    }
+
+    /**
+     * 尚未上传的分片序号（升序）
+     */
+    public List<Integer> missingChunks(Long fileId, int chunkCount) {
+        byte[] bitmap = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(rawKey(fileId)));
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (!isSet(bitmap, i)) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    public void clear(Long fileId) {
+        stringRedisTemplate.delete(List.of(KEY_PREFIX + fileId, DIGEST_KEY_PREFIX + fileId));
+    }
+
+    // Redis 位图中第 0 位是第一个字节的最高位
+    private static boolean isSet(byte[] bitmap, int index) {
+        int byteIndex = index >>> 3;
+        if (bitmap == null || byteIndex >= bitmap.length) {
+            return false;
+        }
+        return (bitmap[byteIndex] & (0x80 >>> (index & 7))) != 0;
+    }
+
+    private static byte[] rawKey(Long fileId) {
+        return (KEY_PREFIX + fileId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] rawDigestKey(Long fileId) {
+        return (DIGEST_KEY_PREFIX + fileId).getBytes(StandardCharsets.UTF_8);
+    }
+}
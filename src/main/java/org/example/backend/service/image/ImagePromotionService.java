@@ -0,0 +1,385 @@
+package org.example.backend.service.image;
+
+import com.alibaba.fastjson2.JSON;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.config.FileUploadConfig;
+import org.example.backend.repository.AnswerRepository;
+import org.example.backend.repository.QuestionRepository;
+import org.example.backend.service.question.event.QuestionUpdatedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * 临时图片转正
+ * 发布或修改问题、回答时，请求内改写内容中的图片地址，并把图片从 uploads/temp_* 移动到正式目录
+ * （同一文件系统内只是改名，发布后立即打开的详情页就能访问正式地址；事务回滚时移回临时目录），然后登记任务；
+ * 事务提交后由后台线程批量插入图片记录并生成图片副本。请求内移动失败的图片由后台任务再次移动。
+ *
+ * 任务在执行前先写入 Redis（image:promotion:pending），成功后删除：失败时按退避重试，
+ * 重试耗尽或进程重启遗留的任务由定时任务重新执行。每一步都可重复执行：
+ * 临时文件已不存在而正式文件存在视为已移动，图片记录按 (所属ID, 路径) 唯一键 INSERT IGNORE。
+ * 多个实例共用同一个任务表，执行前以 SET NX 领取任务租约（image:promotion:lease:{任务ID}），
+ * 同一任务同一时间只由一个实例执行。
+ * 问题图片插入后发布 QuestionUpdatedEvent，使列表中的封面图缓存失效。
+ */
+@Slf4j
+@Service
+public class ImagePromotionService {
+
+    public static final String PENDING_KEY = "image:promotion:pending";
+    private static final String LEASE_KEY_PREFIX = "image:promotion:lease:";
+
+    private static final String INSERT_QUESTION_IMAGE_SQL =
+            "INSERT IGNORE INTO question_images (question_id, image_path, created_at) VALUES (?, ?, ?)";
+    private static final String INSERT_ANSWER_IMAGE_SQL =
+            "INSERT IGNORE INTO answer_images (answer_id, image_path, created_at) VALUES (?, ?, ?)";
+
+    /**
+     * 图片所属的内容类型，对应临时目录 temp_{dir} 和正式目录 {dir}
+     */
+    public enum Owner {
+        QUESTION("question"), ANSWER("answer");
+
+        private final String dir;
+
+        Owner(String dir) {
+            this.dir = dir;
+        }
+
+        public String tempDir() {
+            return "temp_" + dir;
+        }
+
+        public String permanentDir() {
+            return dir;
+        }
+    }
+
+    /**
+     * @param createdAt 登记时间（毫秒），用于判断遗留任务
+     */
+    public record PromotionJob(String id, Owner owner, Long ownerId, List<String> imageNames, long createdAt) {
+    }
+
+    private final FileUploadConfig config;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final QuestionRepository questionRepository;
+    private final AnswerRepository answerRepository;
+    private final ImageVariantService imageVariantService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ScheduledThreadPoolExecutor executor;
+    // 本实例正在执行或等待重试的任务
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    @Value("${image.promotion.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${image.promotion.retry-delay-millis:2000}")
+    private long retryDelayMillis;
+    // 登记超过该时间仍未完成且没有实例持有租约的任务，视为遗留任务重新执行；同时也是租约时长
+    @Value("${image.promotion.stale-after-millis:300000}")
+    private long staleAfterMillis;
+
+    public ImagePromotionService(FileUploadConfig config,
+                                 StringRedisTemplate stringRedisTemplate,
+                                 JdbcTemplate jdbcTemplate,
+                                 QuestionRepository questionRepository,
+                                 AnswerRepository answerRepository,
+                                 ImageVariantService imageVariantService,
+                                 ApplicationEventPublisher eventPublisher,
+                                 @Value("${image.promotion.workers:2}") int workers) {
+        this.config = config;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.questionRepository = questionRepository;
+        this.answerRepository = answerRepository;
+        this.imageVariantService = imageVariantService;
+        this.eventPublisher = eventPublisher;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(workers, runnable -> {
+            Thread thread = new Thread(runnable, "image-promotion-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 内容中临时图片地址改写后的正式地址，例如 .../uploads/temp_question/a.png -> .../uploads/question/a.png
+     */
+    public String permanentUrl(Owner owner, String tempUrl) {
+        return tempUrl.replace(owner.tempDir() + "/", owner.permanentDir() + "/");
+    }
+
+    /**
+     * 图片地址是否指向该类型的临时目录
+     */
+    public boolean isTempUrl(Owner owner, String url) {
+        return url != null && url.replace("\\", "/").contains("/" + owner.tempDir() + "/");
+    }
+
+    /**
+     * 内容处理时的 img src 改写：临时地址改为正式地址，并把文件名记入 collectedNames
+     */
+    public UnaryOperator<String> tempImageRewriter(Owner owner, Collection<String> collectedNames) {
+        return src -> {
+            if (!isTempUrl(owner, src)) {
+                return src;
+            }
+            String normalized = src.replace("\\", "/");
+            collectedNames.add(normalized.substring(normalized.lastIndexOf('/') + 1));
+            return permanentUrl(owner, src);
+        };
+    }
+
+    /**
+     * 登记转正任务，当前事务提交后执行；没有事务时立即执行
+     * @param imageNames 临时目录中的文件名
+     */
+    public void promoteLater(Owner owner, Long ownerId, Collection<String> imageNames) {
+        if (imageNames.isEmpty()) {
+            return;
+        }
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(imageNames));
+        List<String> moved = moveNow(owner, names);
+        PromotionJob job = new PromotionJob(UUID.randomUUID().toString(), owner, ownerId,
+                names, System.currentTimeMillis());
+        // 先持久化再执行，进程在执行前退出时由 recoverStaleJobs 补做
+        stringRedisTemplate.opsForHash().put(PENDING_KEY, job.id(), JSON.toJSONString(job));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        submit(job, 1, 0);
+                    } else {
+                        // 事务回滚，内容没有保存，任务作废；图片移回临时目录，重新提交时仍可使用原地址
+                        stringRedisTemplate.opsForHash().delete(PENDING_KEY, job.id());
+                        restore(owner, moved);
+                    }
+                }
+            });
+        } else {
+            submit(job, 1, 0);
+        }
+    }
+
+    /**
+     * 重新执行遗留任务（重试耗尽或进程重启前未完成）；租约仍被其他实例持有的任务跳过
+     */
+    @Scheduled(fixedDelayString = "${image.promotion.recover-interval:60000}")
+    public void recoverStaleJobs() {
+        Map<Object, Object> pending = stringRedisTemplate.opsForHash().entries(PENDING_KEY);
+        long staleBefore = System.currentTimeMillis() - staleAfterMillis;
+        for (Map.Entry<Object, Object> entry : pending.entrySet()) {
+            PromotionJob job;
+            try {
+                job = JSON.parseObject(entry.getValue().toString(), PromotionJob.class);
+            } catch (Exception e) {
+                log.warn("无法解析图片转正任务，已丢弃: {}", entry.getValue(), e);
+                stringRedisTemplate.opsForHash().delete(PENDING_KEY, entry.getKey());
+                continue;
+            }
+            if (job.createdAt() < staleBefore && !running.contains(job.id())) {
+                submit(job, 1, 0);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 未完成的任务仍在 Redis 中，重启后继续
+        executor.shutdownNow();
+    }
+
+    private void submit(PromotionJob job, int attempt, long delayMillis) {
+        if (attempt == 1) {
+            if (!running.add(job.id())) {
+                return;
+            }
+            if (!acquireLease(job)) {
+                running.remove(job.id());
+                return;
+            }
+        }
+        executor.schedule(() -> {
+            try {
+                process(job);
+                stringRedisTemplate.opsForHash().delete(PENDING_KEY, job.id());
+                finish(job);
+            } catch (Exception e) {
+                if (attempt < maxAttempts) {
+                    log.warn("图片转正失败，第{}次重试: owner={}, id={}", attempt, job.owner(), job.ownerId(), e);
+                    submit(job, attempt + 1, retryDelayMillis * (1L << (attempt - 1)));
+                } else {
+                    // 任务保留在 Redis 中并释放租约，由任一实例的 recoverStaleJobs 稍后再试
+                    log.error("图片转正失败，等待稍后重试: owner={}, id={}", job.owner(), job.ownerId(), e);
+                    finish(job);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 领取任务租约，其他实例正在执行该任务时返回 false
+     * 租约到期前任务未完成（实例退出或执行过慢）时可被其他实例重新领取，各步骤可重复执行
+     */
+    private boolean acquireLease(PromotionJob job) {
+        Boolean acquired = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LEASE_KEY_PREFIX + job.id(), "1", Duration.ofMillis(staleAfterMillis));
+        return Boolean.TRUE.equals(acquired);
+    }
+
+    private void finish(PromotionJob job) {
+        try {
+            stringRedisTemplate.delete(LEASE_KEY_PREFIX + job.id());
+        } catch (Exception e) {
+            // 租约到期后自动释放
+            log.debug("释放图片转正任务租约失败: {}", job.id(), e);
+        } finally {
+            running.remove(job.id());
+        }
+    }
+
+    private void process(PromotionJob job) throws IOException {
+        boolean ownerExists = job.owner() == Owner.QUESTION
+                ? questionRepository.existsById(job.ownerId())
+                : answerRepository.existsById(job.ownerId());
+        if (!ownerExists) {
+            // 内容已被删除，临时文件留给回收任务处理
+            log.info("图片所属内容已删除，跳过转正: owner={}, id={}", job.owner(), job.ownerId());
+            return;
+        }
+
+        List<String> imagePaths = new ArrayList<>();
+        for (String imageName : job.imageNames()) {
+            Path source = imagePath(job.owner().tempDir(), imageName);
+            Path target = imagePath(job.owner().permanentDir(), imageName);
+            if (source == null || target == null) {
+                continue;
+            }
+            // 通常已在请求内移动，这里只补做请求内移动失败的
+            if (Files.exists(source)) {
+                move(source, target);
+            } else if (!Files.exists(target)) {
+                log.warn("临时图片不存在，跳过: {}", source);
+                continue;
+            }
+            imagePaths.add("uploads/" + job.owner().permanentDir() + "/" + imageName);
+        }
+
+        if (insertImageRows(job.owner(), job.ownerId(), imagePaths) && job.owner() == Owner.QUESTION) {
+            // 图片记录绕过 JPA 直接插入，列表中缓存的封面图需要失效；回答图片不在任何缓存的视图中
+            eventPublisher.publishEvent(new QuestionUpdatedEvent(job.ownerId()));
+        }
+        imagePaths.forEach(imageVariantService::prefetch);
+    }
+
+    /**
+     * 一次批量插入本任务的图片记录，已存在的记录由唯一键跳过
+     * @return 是否插入了新记录
+     */
+    private boolean insertImageRows(Owner owner, Long ownerId, List<String> imagePaths) {
+        if (imagePaths.isEmpty()) {
+            return false;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>(imagePaths.size());
+        for (String path : imagePaths) {
+            rows.add(new Object[]{ownerId, path, now});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(owner == Owner.QUESTION ? INSERT_QUESTION_IMAGE_SQL : INSERT_ANSWER_IMAGE_SQL, rows);
+        for (int count : updated) {
+            // 驱动未返回具体行数时按已插入处理
+            if (count != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在请求内把临时图片移动到正式目录，失败的留给后台任务
+     * @return 本次移动了的文件名
+     */
+    private List<String> moveNow(Owner owner, List<String> imageNames) {
+        List<String> moved = new ArrayList<>(imageNames.size());
+        for (String imageName : imageNames) {
+            Path source = imagePath(owner.tempDir(), imageName);
+            Path target = imagePath(owner.permanentDir(), imageName);
+            if (source == null || target == null || !Files.exists(source)) {
+                continue;
+            }
+            try {
+                move(source, target);
+                moved.add(imageName);
+            } catch (IOException e) {
+                log.warn("移动临时图片失败，由后台任务重试: {}", source, e);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * 事务回滚后把请求内移动的图片移回临时目录
+     */
+    private void restore(Owner owner, List<String> imageNames) {
+        for (String imageName : imageNames) {
+            Path source = imagePath(owner.permanentDir(), imageName);
+            Path target = imagePath(owner.tempDir(), imageName);
+            try {
+                if (Files.exists(source)) {
+                    move(source, target);
+                }
+            } catch (IOException e) {
+                log.warn("图片移回临时目录失败: {}", source, e);
+            }
+        }
+    }
+
+    /**
+     * uploads/{dir}/{imageName}，文件名试图跳出该目录时返回 null
+     */
+    private Path imagePath(String dir, String imageName) {
+        Path parent = config.getRootPath().resolve(dir);
+        Path path = parent.resolve(imageName).normalize();
+        return path.startsWith(parent) && !path.equals(parent) ? path : null;
+    }
+
+    private void move(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
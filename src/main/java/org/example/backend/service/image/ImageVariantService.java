@@ -0,0 +1,349 @@
+package org.example.backend.service.image;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.config.FileUploadConfig;
+import org.example.backend.utils.UploadResourceCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片缩略图和中等尺寸副本
+ * 副本按需生成：首次请求时提交到有界线程池后台生成，请求本身直接返回原图；生成后缓存在
+ * uploads/variants/{规格}/{原图相对路径}.jpg，原图更新后自动重新生成；原图删除后的副本和中断遗留的 .tmp 文件
+ * 由 FileCleanup 回收。
+ * 副本重新编码为 JPEG，只写入像素数据，原图中的 EXIF 等元数据不会保留；透明背景填充为白色。
+ */
+@Slf4j
+@Service
+public class ImageVariantService {
+
+    public static final String VARIANT_DIR = "variants";
+    public static final String URL_PREFIX = "/uploads/" + VARIANT_DIR + "/";
+    private static final String VARIANT_SUFFIX = ".jpg";
+    private static final Set<String> SUPPORTED_EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "bmp");
+
+    public enum Variant {
+        THUMB, MEDIUM;
+
+        public String pathName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Optional<Variant> fromPathName(String pathName) {
+            for (Variant variant : values()) {
+                if (variant.pathName().equals(pathName)) {
+                    return Optional.of(variant);
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    private final FileUploadConfig config;
+    private final UploadResourceCache uploadResourceCache;
+    private final ThreadPoolExecutor executor;
+    // 正在生成或排队中的副本，避免同一张图重复提交
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+    @Value("${image.variant.thumb-size:320}")
+    private int thumbSize;
+    @Value("${image.variant.medium-size:1024}")
+    private int mediumSize;
+    @Value("${image.variant.quality:0.82}")
+    private float quality;
+    // 超过该像素数的原图不处理，防止解码超大图片耗尽内存
+    @Value("${image.variant.max-source-pixels:50000000}")
+    private long maxSourcePixels;
+
+    public ImageVariantService(FileUploadConfig config,
+                               UploadResourceCache uploadResourceCache,
+                               @Value("${image.variant.workers:2}") int workers,
+                               @Value("${image.variant.queue-capacity:200}") int queueCapacity) {
+        this.config = config;
+        this.uploadResourceCache = uploadResourceCache;
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时直接拒绝，请求继续使用原图，下次请求再提交
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-variant-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 原图地址对应的副本地址，原图不是支持的图片格式时返回 null
+     * @param imagePath 原图地址，形如 uploads/question/xxx.png 或 /uploads/question/xxx.png
+     */
+    public String variantUrl(String imagePath, Variant variant) {
+        String relative = relativePath(imagePath);
+        if (relative == null || !isSupported(relative)) {
+            return null;
+        }
+        return URL_PREFIX + variant.pathName() + "/" + relative;
+    }
+
+    /**
+     * 原图带内容摘要的不可变地址（可长期缓存），摘要尚未计算或无法生成时返回 null
+     * 只查已缓存的摘要，可在组装响应时调用；摘要由 prefetch 在后台计算
+     */
+    public String immutableUrl(String imagePath) {
+        return uploadResourceCache.versionedUrl(config.getRootPath(), imagePath);
+    }
+
+    /**
+     * 查找已生成且不旧于原图的副本；没有时提交后台生成并返回 empty，调用方应回退到原图
+     * @param relative 原图相对 uploads 目录的路径
+     */
+    public Optional<Path> resolve(Variant variant, String relative) {
+        Path source = sourcePath(relative);
+        if (source == null || !isSupported(relative) || !Files.isRegularFile(source)) {
+            return Optional.empty();
+        }
+        Path target = targetPath(variant, relative);
+        try {
+            if (Files.exists(target)
+                    && Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+                return Optional.of(target);
+            }
+        } catch (IOException e) {
+            log.debug("读取图片副本时间失败: {}", target, e);
+        }
+        submit(source, target, variant);
+        return Optional.empty();
+    }
+
+    /**
+     * 图片保存到正式目录后，在后台计算原图内容摘要（用于不可变地址）并预先生成所有副本
+     */
+    public void prefetch(String imagePath) {
+        String relative = relativePath(imagePath);
+        if (relative == null) {
+            return;
+        }
+        try {
+            executor.execute(() -> uploadResourceCache.precompute(config.getRootPath(), imagePath));
+        } catch (RejectedExecutionException e) {
+            // 摘要在首次访问该图片时计算，之前继续使用原地址
+            log.debug("图片处理队列已满，跳过预先计算摘要: {}", relative);
+        }
+        if (!isSupported(relative)) {
+            return;
+        }
+        for (Variant variant : Variant.values()) {
+            resolve(variant, relative);
+        }
+    }
+
+    /**
+     * 副本对应的原图已不存在（或副本路径无法还原出原图）
+     * @param variantFile uploads/variants/{规格}/ 下的副本文件
+     */
+    public boolean isOrphaned(Variant variant, Path variantFile) {
+        Path variantDir = config.getRootPath().resolve(VARIANT_DIR).resolve(variant.pathName());
+        Path normalized = variantFile.normalize();
+        String name = normalized.getFileName().toString();
+        if (!normalized.startsWith(variantDir) || !name.endsWith(VARIANT_SUFFIX)) {
+            return false;
+        }
+        String relative = variantDir.relativize(normalized).toString().replace("\\", "/");
+        Path source = sourcePath(relative.substring(0, relative.length() - VARIANT_SUFFIX.length()));
+        return source == null || !Files.exists(source);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void submit(Path source, Path target, Variant variant) {
+        if (!pending.add(target)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(source, target, maxEdge(variant));
+                } catch (Exception e) {
+                    log.warn("生成图片副本失败: source={}, variant={}", source, variant.pathName(), e);
+                } finally {
+                    pending.remove(target);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(target);
+            log.debug("图片处理队列已满，稍后重试: {}", source);
+        }
+    }
+
+    private void generate(Path source, Path target, int maxEdge) throws IOException {
+        BufferedImage decoded = decode(source, maxEdge);
+        if (decoded == null) {
+            return;
+        }
+        BufferedImage scaled = scale(decoded, maxEdge);
+
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            writeJpeg(scaled, tmp);
+            // 副本时间与原图对齐，原图被替换后时间变新即可识别出副本过期
+            Files.setLastModifiedTime(tmp, FileTime.fromMillis(
+                    Math.max(Files.getLastModifiedTime(source).toMillis(), System.currentTimeMillis())));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 解码原图；原图远大于目标尺寸时按整数倍隔行采样读取，减少解码的内存和耗时
+     */
+    private BufferedImage decode(Path source, int maxEdge) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxSourcePixels) {
+                    log.warn("图片尺寸过大，跳过生成副本: {} ({}x{})", source, width, height);
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                // 采样后仍保留至少两倍目标尺寸，再由平滑缩放得到最终结果
+                int subsampling = Math.max(1, Math.max(width, height) / (maxEdge * 2));
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 按最长边等比缩小到 maxEdge（不放大），每次最多缩小一半，绘制到不透明的 RGB 画布上
+     */
+    private BufferedImage scale(BufferedImage image, int maxEdge) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double ratio = Math.min(1.0, (double) maxEdge / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+
+        BufferedImage current = image;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private int maxEdge(Variant variant) {
+        return variant == Variant.THUMB ? thumbSize : mediumSize;
+    }
+
+    /**
+     * 原图地址转为相对 uploads 目录的路径，不在 uploads 下或是副本本身时返回 null
+     */
+    private String relativePath(String imagePath) {
+        if (imagePath == null || imagePath.isBlank()) {
+            return null;
+        }
+        String path = imagePath.replace("\\", "/");
+        int index = path.indexOf("uploads/");
+        if (index < 0) {
+            return null;
+        }
+        String relative = path.substring(index + "uploads/".length());
+        if (relative.isEmpty() || relative.startsWith(VARIANT_DIR + "/")) {
+            return null;
+        }
+        return relative;
+    }
+
+    private Path sourcePath(String relative) {
+        Path root = config.getRootPath();
+        Path source = root.resolve(relative).normalize();
+        // 防止 ../ 访问 uploads 以外的文件，也不对副本再生成副本
+        if (!source.startsWith(root) || source.startsWith(root.resolve(VARIANT_DIR))) {
+            return null;
+        }
+        return source;
+    }
+
+    private Path targetPath(Variant variant, String relative) {
+        return config.getRootPath().resolve(VARIANT_DIR).resolve(variant.pathName()).resolve(relative + VARIANT_SUFFIX).normalize();
+    }
+
+    private boolean isSupported(String relative) {
+        int dot = relative.lastIndexOf('.');
+        return dot > 0 && SUPPORTED_EXTENSIONS.contains(relative.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,31 @@
+package org.example.backend.service.question;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * 问题流的游标，记录上一页最后一条的 (createdTime, id)
+ * 对外以 Base64URL 编码的不透明字符串传递。
+ * 没有创建时间的旧数据 createdTime 为 null，编码为空字符串。
+ */
+public record FeedCursor(LocalDateTime createdTime, Long id) {
+
+    private static final String SEPARATOR = "|";
+
+    public String encode() {
+        String raw = (createdTime != null ? createdTime.toString() : "") + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static FeedCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int index = raw.lastIndexOf(SEPARATOR);
+            String time = raw.substring(0, index);
+            return new FeedCursor(time.isEmpty() ? null : LocalDateTime.parse(time), Long.parseLong(raw.substring(index + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+    }
+}
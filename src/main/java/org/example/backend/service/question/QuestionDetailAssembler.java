@@ -0,0 +1,120 @@
+package org.example.backend.service.question;
+
+import lombok.RequiredArgsConstructor;
+import org.example.backend.dto.QuestionDetailDTO;
+import org.example.backend.model.*;
+import org.example.backend.repository.AnswerCommentRepository;
+import org.example.backend.repository.AnswerImageRepository;
+import org.example.backend.repository.AnswerRepository;
+import org.example.backend.repository.QuestionVoteRepository;
+import org.example.backend.repository.UserRepository;
+import org.example.backend.service.UserService;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 问题详情组装器
+ * 回答、回答图片、全部评论、评论作者各用一条集合查询取出，再在内存中拼出评论树，
+ * 每次请求的SQL条数固定，不随回答数和评论数增长。
+ */
+@Component
+@RequiredArgsConstructor
+public class QuestionDetailAssembler {
+
+    private final AnswerRepository answerRepository;
+    private final AnswerImageRepository answerImageRepository;
+    private final AnswerCommentRepository answerCommentRepository;
+    private final UserRepository userRepository;
+    private final QuestionVoteRepository questionVoteRepository;
+    private final UserService userService;
+
+    public QuestionDetailDTO assemble(Question question) {
+        // 1. 回答（连带作者）
+        List<Answer> answers = answerRepository.findWithAuthorByQuestionId(question.getId());
+        List<Long> answerIds = answers.stream().map(Answer::getId).collect(Collectors.toList());
+
+        Map<Long, List<String>> imagesByAnswer = new HashMap<>();
+        Map<Long, List<AnswerComment>> rootsByAnswer = new HashMap<>();
+        Map<Long, List<AnswerComment>> childrenByParent = new HashMap<>();
+        Map<Long, User> commentAuthors = Collections.emptyMap();
+
+        if (!answerIds.isEmpty()) {
+            // 2. 回答图片
+            for (AnswerImage image : answerImageRepository.findByAnswerIdInOrderByIdAsc(answerIds)) {
+                imagesByAnswer.computeIfAbsent(image.getAnswerId(), k -> new ArrayList<>()).add(image.getImagePath());
+            }
+
+            // 3. 全部评论（一级评论和子评论一起取出）
+            List<AnswerComment> comments = answerCommentRepository.findByAnswerIdInOrderByIdAsc(answerIds);
+            for (AnswerComment comment : comments) {
+                if (comment.getParentCommentId() == null) {
+                    rootsByAnswer.computeIfAbsent(comment.getAnswerId(), k -> new ArrayList<>()).add(comment);
+                } else {
+                    childrenByParent.computeIfAbsent(comment.getParentCommentId(), k -> new ArrayList<>()).add(comment);
+                }
+            }
+
+            // 4. 评论作者
+            Set<Long> userIds = comments.stream().map(AnswerComment::getUserId).collect(Collectors.toSet());
+            if (!userIds.isEmpty()) {
+                commentAuthors = userRepository.findAllById(userIds).stream()
+                        .collect(Collectors.toMap(User::getId, Function.identity()));
+            }
+        }
+
+        List<QuestionDetailDTO.AnswerDTO> answerDTOS = new ArrayList<>(answers.size());
+        for (Answer answer : answers) {
+            List<QuestionDetailDTO.CommentDTO> commentDTOS = buildCommentTree(
+                    rootsByAnswer.getOrDefault(answer.getId(), Collections.emptyList()),
+                    childrenByParent, commentAuthors, new HashSet<>());
+            answerDTOS.add(QuestionDetailDTO.AnswerDTO.of(
+                    answer,
+                    imagesByAnswer.getOrDefault(answer.getId(), new ArrayList<>()),
+                    commentDTOS));
+        }
+
+        return QuestionDetailDTO.of(question, answerDTOS, findUserVoteStatus(question.getId()));
+    }
+
+    /**
+     * 在内存中递归构建评论树，visited 用于防止脏数据形成环
+     */
+    private List<QuestionDetailDTO.CommentDTO> buildCommentTree(List<AnswerComment> comments,
+                                                                Map<Long, List<AnswerComment>> childrenByParent,
+                                                                Map<Long, User> authors,
+                                                                Set<Long> visited) {
+        List<QuestionDetailDTO.CommentDTO> result = new ArrayList<>(comments.size());
+        for (AnswerComment comment : comments) {
+            if (!visited.add(comment.getId())) {
+                continue;
+            }
+            List<QuestionDetailDTO.CommentDTO> children = buildCommentTree(
+                    childrenByParent.getOrDefault(comment.getId(), Collections.emptyList()),
+                    childrenByParent, authors, visited);
+            result.add(QuestionDetailDTO.CommentDTO.of(comment, authors.get(comment.getUserId()), children));
+        }
+        return result;
+    }
+
+    /**
+     * 当前登录用户对该问题的投票状态，null表示未投票
+     */
+    private Boolean findUserVoteStatus(Long questionId) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return null;
+        }
+        User user = (User) userService.loadUserByUsername(authentication.getPrincipal().toString());
+        if (user == null) {
+            return null;
+        }
+        return questionVoteRepository.findByUserIdAndQuestionId(user.getId(), questionId)
+                .map(QuestionVote::getVoteType)
+                .orElse(null);
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.backend.service.question;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 问题浏览量写回缓冲
+ * 浏览时只在内存中累加增量，由定时任务合并成一批 UPDATE 写回 question 表，
+ * 详情读取时把未落库的增量加到展示值上。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QuestionViewCounter {
+
+    private static final String FLUSH_SQL = "UPDATE question SET view_count = view_count + ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // questionId -> 未落库的浏览增量；ConcurrentHashMap 按桶加锁，merge/remove 对单个key是原子的
+    private final Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次浏览
+     */
+    public void increment(Long questionId) {
+        pending.merge(questionId, 1L, Long::sum);
+    }
+
+    /**
+     * 获取尚未写回数据库的浏览增量
+     */
+    public long pendingDelta(Long questionId) {
+        return pending.getOrDefault(questionId, 0L);
+    }
+
+    /**
+     * 将缓冲的增量批量写回数据库
+     */
+    @Scheduled(fixedDelayString = "${question.view-count.flush-interval:5000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // 逐个摘下增量，摘下之后的新浏览会进入新的计数
+        List<Object[]> batch = new ArrayList<>();
+        for (Long questionId : pending.keySet()) {
+            Long delta = pending.remove(questionId);
+            if (delta != null && delta > 0) {
+                batch.add(new Object[]{delta, questionId});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(FLUSH_SQL, batch);
+            log.debug("浏览量写回完成: count={}", batch.size());
+        } catch (Exception e) {
+            // 写回失败时把增量放回缓冲，等待下次重试
+            for (Object[] row : batch) {
+                pending.merge((Long) row[1], (Long) row[0], Long::sum);
+            }
+            log.error("浏览量写回失败，等待下次重试: count={}", batch.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+}
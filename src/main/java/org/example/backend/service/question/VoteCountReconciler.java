@@ -0,0 +1,43 @@
+package org.example.backend.service.question;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.repository.QuestionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 点赞/点踩计数校准任务
+ * 计数列由投票时的增量UPDATE维护，这里定期按ID区间用 question_vote 重新统计，
+ * 只改写与实际统计值不一致的行，每个区间一个独立的小事务。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VoteCountReconciler {
+
+    private final QuestionRepository questionRepository;
+
+    @Value("${question.vote-count.reconcile-batch-size:1000}")
+    private long batchSize;
+
+    @Scheduled(cron = "${question.vote-count.reconcile-cron:0 30 3 * * *}")
+    public void reconcile() {
+        Long maxId = questionRepository.findMaxId();
+        if (maxId == null) {
+            return;
+        }
+
+        int fixed = 0;
+        for (long fromId = 1; fromId <= maxId; fromId += batchSize) {
+            long toId = Math.min(fromId + batchSize - 1, maxId);
+            try {
+                fixed += questionRepository.reconcileVoteCounts(fromId, toId);
+            } catch (Exception e) {
+                log.error("校准投票计数失败: fromId={}, toId={}", fromId, toId, e);
+            }
+        }
+        log.info("投票计数校准完成: maxId={}, fixed={}", maxId, fixed);
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.backend.service.question.event;
+
+/**
+ * 问题下新增了回答（事务提交后处理）
+ */
+public record AnswerAddedEvent(Long questionId, Long answerId) {
+}
@@ -0,0 +1,7 @@
+package org.example.backend.service.question.event;
+
+/**
+ * 问题下的回答被删除（事务提交后处理）
+ */
+public record AnswerRemovedEvent(Long questionId, Long answerId) {
+}
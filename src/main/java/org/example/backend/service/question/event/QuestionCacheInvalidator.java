@@ -0,0 +1,168 @@
+package org.example.backend.service.question.event;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.dto.QuestionResponseDTO;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 问题相关缓存的失效处理
+ * 事务提交后才执行，避免其他请求在提交前把旧数据重新写回缓存；没有事务时立即执行。
+ * 详情按问题ID删除；列表页只删除包含该问题的页，
+ * 新增、删除问题会改变总数和后续所有页的内容，此时清空整个列表缓存。
+ *
+ * 列表页加载时把缓存 key 和页内问题ID的范围登记在 Redis Hash（questionList:pages）中，
+ * 失效时读取这个 Hash 找出包含该问题的页，不扫描 Redis 的 key，也不查询数据库。
+ *
+ * 登记发生在加载方法内，页面写入缓存在方法返回之后：清空列表缓存恰好发生在两者之间时，页面会在清空后写入。
+ * 因此清空时不直接删除登记，而是把它改名为上一代（questionList:pages:previous），之后的登记写入新的 Hash；
+ * 失效时两代登记都读取，清空后才写入的页仍能被找到。再次清空时上一代被覆盖，其中的页已随这次清空一起删除。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QuestionCacheInvalidator {
+
+    public static final String QUESTION_LIST_CACHE = "questionList";
+    public static final String QUESTION_DETAIL_CACHE = "questionsDetail";
+
+    // 已缓存的列表页：缓存 key -> "最小问题ID,最大问题ID"
+    private static final String LIST_PAGES_KEY = QUESTION_LIST_CACHE + ":pages";
+    // 上一次清空前的登记
+    private static final String PREVIOUS_LIST_PAGES_KEY = LIST_PAGES_KEY + ":previous";
+    // 长于列表缓存的过期时间，登记信息不会先于缓存过期
+    private static final Duration LIST_PAGES_TTL = Duration.ofHours(2);
+
+    // 有登记时改名为上一代，保留原有的过期时间
+    private static final RedisScript<Long> ROTATE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then redis.call('RENAME', KEYS[1], KEYS[2]) return 1 end return 0",
+            Long.class);
+
+    private final CacheManager cacheManager;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 登记刚加载的列表页，由列表查询方法在写入缓存前调用
+     * @param cacheKey 列表缓存的 key（页号_每页条数）
+     */
+    public void trackListPage(String cacheKey, List<QuestionResponseDTO> questions) {
+        if (questions == null || questions.isEmpty()) {
+            return;
+        }
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        for (QuestionResponseDTO question : questions) {
+            minId = Math.min(minId, question.id());
+            maxId = Math.max(maxId, question.id());
+        }
+        try {
+            stringRedisTemplate.opsForHash().put(LIST_PAGES_KEY, cacheKey, minId + "," + maxId);
+            stringRedisTemplate.expire(LIST_PAGES_KEY, LIST_PAGES_TTL);
+        } catch (Exception e) {
+            // 没有登记的页在问题修改时不会被单独删除，清空列表缓存避免返回旧数据
+            log.warn("登记列表缓存页失败，清空列表缓存: key={}", cacheKey, e);
+            clearListPages();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onQuestionCreated(QuestionCreatedEvent event) {
+        evictDetail(event.questionId());
+        clearListPages();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onQuestionDeleted(QuestionDeletedEvent event) {
+        evictDetail(event.questionId());
+        clearListPages();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onQuestionUpdated(QuestionUpdatedEvent event) {
+        evictDetail(event.questionId());
+        evictListPageOf(event.questionId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAnswerAdded(AnswerAddedEvent event) {
+        evictDetail(event.questionId());
+        evictListPageOf(event.questionId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAnswerRemoved(AnswerRemovedEvent event) {
+        evictDetail(event.questionId());
+        evictListPageOf(event.questionId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onVoteChanged(VoteChangedEvent event) {
+        evictDetail(event.questionId());
+        evictListPageOf(event.questionId());
+    }
+
+    // 列表页不展示状态，只需删除详情
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(QuestionStatusChangedEvent event) {
+        evictDetail(event.questionId());
+    }
+
+    private void evictDetail(Long questionId) {
+        Cache cache = cacheManager.getCache(QUESTION_DETAIL_CACHE);
+        if (cache != null) {
+            cache.evict(questionId);
+        }
+    }
+
+    private void clearListPages() {
+        Cache cache = cacheManager.getCache(QUESTION_LIST_CACHE);
+        if (cache != null) {
+            cache.clear();
+        }
+        try {
+            stringRedisTemplate.execute(ROTATE_SCRIPT, List.of(LIST_PAGES_KEY, PREVIOUS_LIST_PAGES_KEY));
+        } catch (Exception e) {
+            // 残留的登记信息只会让后续多删几页
+            log.warn("轮换列表缓存页登记失败", e);
+        }
+    }
+
+    /**
+     * 删除登记的页（当前和上一代）中问题ID范围包含该问题的页
+     */
+    private void evictListPageOf(Long questionId) {
+        Cache cache = cacheManager.getCache(QUESTION_LIST_CACHE);
+        if (cache == null) {
+            return;
+        }
+        try {
+            // 同一页两代都有登记时，任一范围包含该问题都删除
+            for (String key : List.of(LIST_PAGES_KEY, PREVIOUS_LIST_PAGES_KEY)) {
+                Map<Object, Object> pages = stringRedisTemplate.opsForHash().entries(key);
+                for (Map.Entry<Object, Object> page : pages.entrySet()) {
+                    String range = page.getValue().toString();
+                    int separator = range.indexOf(',');
+                    long minId = Long.parseLong(range.substring(0, separator));
+                    long maxId = Long.parseLong(range.substring(separator + 1));
+                    if (questionId >= minId && questionId <= maxId) {
+                        cache.evict(page.getKey().toString());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // 定位失败时退回到清空整个列表缓存，宁可多删也不返回旧数据
+            log.warn("定位问题所在列表页失败，清空列表缓存: questionId={}", questionId, e);
+            clearListPages();
+        }
+    }
+}
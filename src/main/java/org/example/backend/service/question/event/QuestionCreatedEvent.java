@@ -0,0 +1,7 @@
+package org.example.backend.service.question.event;
+
+/**
+ * 问题已创建（事务提交后处理）
+ */
+public record QuestionCreatedEvent(Long questionId) {
+}
@@ -0,0 +1,9 @@
+package org.example.backend.service.question.event;
+
+import org.example.backend.model.Question;
+
+/**
+ * 问题状态变化，例如封禁、审核通过（事务提交后处理）
+ */
+public record QuestionStatusChangedEvent(Long questionId, Question.QuestionStatus status) {
+}
@@ -0,0 +1,7 @@
+package org.example.backend.service.question.event;
+
+/**
+ * 问题的标题、正文、分类或已解决答案发生变化（事务提交后处理）
+ */
+public record QuestionUpdatedEvent(Long questionId) {
+}
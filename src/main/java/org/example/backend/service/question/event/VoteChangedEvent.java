@@ -0,0 +1,7 @@
+package org.example.backend.service.question.event;
+
+/**
+ * 问题的点赞/点踩数变化（事务提交后处理）
+ */
+public record VoteChangedEvent(Long questionId) {
+}
@@ -0,0 +1,318 @@
+package org.example.backend.service.question.search;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.dto.QuestionIndexView;
+import org.example.backend.model.Question;
+import org.example.backend.repository.QuestionRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 问题全文检索的内存倒排索引
+ * 对标题、正文（去掉HTML）、作者昵称分词后建立倒排表，按字段加权的 BM25 打分。
+ * 启动时异步全量构建，问题增删改的事务提交后由 QuestionSearchIndexUpdater 增量更新；
+ * 昵称修改不会触发更新，由重建命令兜底。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QuestionSearchIndex {
+
+    // 字段权重
+    private static final float TITLE_BOOST = 3f;
+    private static final float NICKNAME_BOOST = 2f;
+    private static final float CONTENT_BOOST = 1f;
+
+    // BM25 参数
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // 英文词前缀扩展时的降权系数和最大扩展词数
+    private static final double PREFIX_PENALTY = 0.5;
+    private static final int MAX_PREFIX_EXPANSION = 64;
+
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    private final QuestionRepository questionRepository;
+
+    // 正在提供查询的索引，首次构建完成前为 null
+    private volatile Segment active;
+    // 重建过程中的新索引，重建期间的增量更新会同时写入
+    private volatile Segment building;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        CompletableFuture.runAsync(() -> {
+            try {
+                rebuild();
+            } catch (Exception e) {
+                log.error("启动时构建搜索索引失败，搜索将回退到数据库查询", e);
+            }
+        });
+    }
+
+    public boolean isReady() {
+        return active != null;
+    }
+
+    /**
+     * 全量重建索引，构建完成后整体替换旧索引
+     * @return 索引的问题数
+     */
+    public synchronized int rebuild() {
+        long start = System.currentTimeMillis();
+        Segment segment = new Segment();
+        building = segment;
+        try {
+            long afterId = 0L;
+            while (true) {
+                List<QuestionIndexView> views = questionRepository.findIndexViewsAfter(afterId, PageRequest.of(0, REBUILD_BATCH_SIZE));
+                if (views.isEmpty()) {
+                    break;
+                }
+                for (QuestionIndexView view : views) {
+                    segment.put(view.getId(), view.getTitle(), view.getContent(), view.getNickname(), view.getStatus());
+                }
+                afterId = views.get(views.size() - 1).getId();
+            }
+            active = segment;
+        } finally {
+            building = null;
+        }
+        log.info("搜索索引重建完成: docs={}, terms={}, cost={}ms",
+                segment.docCount(), segment.termCount(), System.currentTimeMillis() - start);
+        return segment.docCount();
+    }
+
+    /**
+     * 按数据库中已提交的数据新增或更新问题的索引，问题已不存在时移除
+     */
+    public void reindex(Long questionId) {
+        Optional<QuestionIndexView> view = questionRepository.findIndexViewById(questionId);
+        if (view.isEmpty()) {
+            remove(questionId);
+            return;
+        }
+        QuestionIndexView v = view.get();
+        apply(segment -> segment.put(v.getId(), v.getTitle(), v.getContent(), v.getNickname(), v.getStatus()));
+    }
+
+    public void updateStatus(Long questionId, Question.QuestionStatus status) {
+        apply(segment -> segment.updateStatus(questionId, status));
+    }
+
+    public void remove(Long questionId) {
+        apply(segment -> segment.remove(questionId));
+    }
+
+    /**
+     * 搜索状态为 NORMAL 的问题，按相关度降序返回问题ID
+     * @return 索引未就绪或关键字中没有可检索的词时返回 empty，由调用方回退到数据库查询
+     */
+    public Optional<List<Long>> search(String keyword) {
+        Segment segment = active;
+        if (segment == null) {
+            return Optional.empty();
+        }
+        List<String> tokens = SearchTokenizer.tokenizeQuery(keyword);
+        if (tokens.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(segment.search(new LinkedHashSet<>(tokens)));
+    }
+
+    private void apply(Consumer<Segment> operation) {
+        Segment current = active;
+        if (current != null) {
+            operation.accept(current);
+        }
+        Segment next = building;
+        if (next != null && next != current) {
+            operation.accept(next);
+        }
+    }
+
+    private record DocEntry(Question.QuestionStatus status, float length, Set<String> terms) {
+    }
+
+    /**
+     * 一份完整的倒排索引，读写通过读写锁保护
+     */
+    private static final class Segment {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // 词 -> (问题ID -> 加权词频)，TreeMap 便于英文词前缀扩展
+        private final TreeMap<String, Map<Long, Float>> postings = new TreeMap<>();
+        private final Map<Long, DocEntry> docs = new HashMap<>();
+        private double totalLength;
+
+        void put(Long id, String title, String content, String nickname, Question.QuestionStatus status) {
+            Map<String, Float> termFreqs = new HashMap<>();
+            addField(termFreqs, title, TITLE_BOOST);
+            addField(termFreqs, SearchTokenizer.stripHtml(content), CONTENT_BOOST);
+            addField(termFreqs, nickname, NICKNAME_BOOST);
+            float length = 0f;
+            for (float tf : termFreqs.values()) {
+                length += tf;
+            }
+
+            lock.writeLock().lock();
+            try {
+                removeLocked(id);
+                for (Map.Entry<String, Float> entry : termFreqs.entrySet()) {
+                    postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(id, entry.getValue());
+                }
+                docs.put(id, new DocEntry(status, length, termFreqs.keySet()));
+                totalLength += length;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void updateStatus(Long id, Question.QuestionStatus status) {
+            lock.writeLock().lock();
+            try {
+                DocEntry doc = docs.get(id);
+                if (doc != null) {
+                    docs.put(id, new DocEntry(status, doc.length(), doc.terms()));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(Long id) {
+            lock.writeLock().lock();
+            try {
+                removeLocked(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        List<Long> search(Set<String> tokens) {
+            lock.readLock().lock();
+            try {
+                int docCount = docs.size();
+                if (docCount == 0) {
+                    return new ArrayList<>();
+                }
+                double avgLength = totalLength / docCount;
+
+                // 每个查询词都必须命中（AND），分数累加
+                Map<Long, Double> scores = null;
+                for (String token : tokens) {
+                    Map<Long, Double> tokenScores = new HashMap<>();
+                    for (Map.Entry<String, Map<Long, Float>> entry : matchingTerms(token).entrySet()) {
+                        double weight = entry.getKey().equals(token) ? 1.0 : PREFIX_PENALTY;
+                        Map<Long, Float> posting = entry.getValue();
+                        double idf = Math.log(1 + (docCount - posting.size() + 0.5) / (posting.size() + 0.5));
+                        for (Map.Entry<Long, Float> hit : posting.entrySet()) {
+                            DocEntry doc = docs.get(hit.getKey());
+                            double tf = hit.getValue();
+                            double norm = K1 * (1 - B + B * doc.length() / avgLength);
+                            double score = weight * idf * tf * (K1 + 1) / (tf + norm);
+                            tokenScores.merge(hit.getKey(), score, Math::max);
+                        }
+                    }
+                    if (scores == null) {
+                        scores = tokenScores;
+                    } else {
+                        scores.keySet().retainAll(tokenScores.keySet());
+                        for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+                            entry.setValue(entry.getValue() + tokenScores.get(entry.getKey()));
+                        }
+                    }
+                    if (scores.isEmpty()) {
+                        break;
+                    }
+                }
+
+                List<Map.Entry<Long, Double>> ranked = new ArrayList<>();
+                for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+                    if (docs.get(entry.getKey()).status() == Question.QuestionStatus.NORMAL) {
+                        ranked.add(entry);
+                    }
+                }
+                ranked.sort(Map.Entry.<Long, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.<Long, Double>comparingByKey().reversed()));
+
+                List<Long> ids = new ArrayList<>(ranked.size());
+                for (Map.Entry<Long, Double> entry : ranked) {
+                    ids.add(entry.getKey());
+                }
+                return ids;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int docCount() {
+            lock.readLock().lock();
+            try {
+                return docs.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int termCount() {
+            lock.readLock().lock();
+            try {
+                return postings.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * 中文二元词精确匹配；英文词按前缀扩展，兼容原先 LIKE '%kw%' 的部分匹配习惯
+         */
+        private Map<String, Map<Long, Float>> matchingTerms(String token) {
+            if (!SearchTokenizer.isWordTerm(token)) {
+                Map<Long, Float> posting = postings.get(token);
+                return posting == null ? Collections.emptyMap() : Map.of(token, posting);
+            }
+            Map<String, Map<Long, Float>> result = new HashMap<>();
+            for (Map.Entry<String, Map<Long, Float>> entry
+                    : postings.subMap(token, true, token + Character.MAX_VALUE, true).entrySet()) {
+                result.put(entry.getKey(), entry.getValue());
+                if (result.size() >= MAX_PREFIX_EXPANSION) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        private void removeLocked(Long id) {
+            DocEntry old = docs.remove(id);
+            if (old == null) {
+                return;
+            }
+            totalLength -= old.length();
+            for (String term : old.terms()) {
+                Map<Long, Float> posting = postings.get(term);
+                if (posting != null) {
+                    posting.remove(id);
+                    if (posting.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+
+        private static void addField(Map<String, Float> termFreqs, String text, float boost) {
+            for (String token : SearchTokenizer.tokenizeForIndex(text)) {
+                termFreqs.merge(token, boost, Float::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.backend.service.question.search;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.backend.service.question.event.QuestionCreatedEvent;
+import org.example.backend.service.question.event.QuestionDeletedEvent;
+import org.example.backend.service.question.event.QuestionStatusChangedEvent;
+import org.example.backend.service.question.event.QuestionUpdatedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * 问题增删改后更新内存搜索索引
+ * 事务提交后才执行，回滚的修改不会进入索引；没有事务时立即执行。
+ * 新增和修改按数据库中已提交的数据重新建索引，不依赖事件发布时的实体状态。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QuestionSearchIndexUpdater {
+
+    private final QuestionSearchIndex questionSearchIndex;
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onQuestionCreated(QuestionCreatedEvent event) {
+        reindex(event.questionId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onQuestionUpdated(QuestionUpdatedEvent event) {
+        reindex(event.questionId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onQuestionDeleted(QuestionDeletedEvent event) {
+        questionSearchIndex.remove(event.questionId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(QuestionStatusChangedEvent event) {
+        questionSearchIndex.updateStatus(event.questionId(), event.status());
+    }
+
+    private void reindex(Long questionId) {
+        try {
+            questionSearchIndex.reindex(questionId);
+        } catch (Exception e) {
+            // 索引与数据库不一致只影响搜索结果，由重建命令兜底
+            log.warn("更新搜索索引失败: questionId={}", questionId, e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.backend.service.question.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 搜索分词器
+ * 中日韩文字按相邻两字切分（bigram），建索引时额外保留一元词；
+ * 英文和数字按连续字母数字切成整词并转小写；其余字符作为分隔符。
+ */
+public final class SearchTokenizer {
+
+    private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern HTML_ENTITY = Pattern.compile("&[a-zA-Z#0-9]+;");
+
+    private SearchTokenizer() {
+    }
+
+    /**
+     * 去掉富文本中的标签和实体，只保留可检索的文字
+     */
+    public static String stripHtml(String html) {
+        if (html == null || html.isEmpty()) {
+            return "";
+        }
+        String text = HTML_TAG.matcher(html).replaceAll(" ");
+        return HTML_ENTITY.matcher(text).replaceAll(" ");
+    }
+
+    /**
+     * 建索引用的分词：中日韩文字同时输出一元词和二元词，保证单字查询也能命中
+     */
+    public static List<String> tokenizeForIndex(String text) {
+        return tokenize(text, true);
+    }
+
+    /**
+     * 查询用的分词：中日韩文字只输出二元词（单字查询输出一元词）
+     */
+    public static List<String> tokenizeQuery(String text) {
+        return tokenize(text, false);
+    }
+
+    private static List<String> tokenize(String text, boolean forIndex) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        StringBuilder word = new StringBuilder();
+        int prevCjk = -1; // 上一个中日韩字符，-1 表示当前不在中日韩字符串中
+        int cjkRunLength = 0;
+
+        int i = 0;
+        while (i < text.length()) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+
+            if (isCjk(cp)) {
+                flushWord(word, tokens);
+                if (forIndex) {
+                    tokens.add(new String(Character.toChars(cp)));
+                }
+                if (prevCjk >= 0) {
+                    tokens.add(new String(new int[]{prevCjk, cp}, 0, 2));
+                }
+                prevCjk = cp;
+                cjkRunLength++;
+            } else {
+                flushSingleCjk(prevCjk, cjkRunLength, forIndex, tokens);
+                prevCjk = -1;
+                cjkRunLength = 0;
+                if (Character.isLetterOrDigit(cp)) {
+                    word.appendCodePoint(cp);
+                } else {
+                    flushWord(word, tokens);
+                }
+            }
+        }
+        flushSingleCjk(prevCjk, cjkRunLength, forIndex, tokens);
+        flushWord(word, tokens);
+        return tokens;
+    }
+
+    /**
+     * 是否为字母数字组成的词（这类词在查询时支持前缀匹配）
+     */
+    public static boolean isWordTerm(String term) {
+        return !term.isEmpty() && !isCjk(term.codePointAt(0));
+    }
+
+    private static void flushSingleCjk(int cjk, int runLength, boolean forIndex, List<String> tokens) {
+        // 查询中孤立的单个汉字没有二元词可用，退化为一元词
+        if (!forIndex && runLength == 1) {
+            tokens.add(new String(Character.toChars(cjk)));
+        }
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            tokens.add(word.toString().toLowerCase(Locale.ROOT));
+            word.setLength(0);
+        }
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -1,45 +1,523 @@
 package org.example.backend.utils;
 
-// FileCleanupTask.java
+import org.example.backend.config.FileUploadConfig;
 import org.example.backend.model.FileInfo;
+import org.example.backend.model.ResourceCategory;
+import org.example.backend.repository.AnswerImageRepository;
 import org.example.backend.repository.FileInfoRepository;
-import lombok.RequiredArgsConstructor;
+import org.example.backend.repository.QuestionImageRepository;
+import org.example.backend.repository.ResourceCategoryRepository;
+import org.example.backend.service.file.UploadChunkTracker;
+import org.example.backend.service.image.ImageVariantService;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+/**
+ * 上传临时文件回收
+ * 定时清理被放弃的分片目录、直接写入模式的 .part 文件、无主的 Redis 上传状态，
+ * 从未被问题或回答引用的临时图片（uploads/temp_question、temp_answer），
+ * 以及原图已删除的图片副本和生成副本时中断遗留的 .tmp 文件（uploads/variants）。
+ *
+ * 每个目录每轮只按文件名顺序检查一批条目，下一轮从上次结束的文件名继续，走完一遍后从头开始；
+ * 目录再大，单轮也只读取文件名并对一批条目取属性。Redis 键同样每轮只检查一批，SCAN 游标保留到下一轮。
+ * 删除按 max-deletes-per-second 限速。
+ * 回收在独立的单线程中执行，限速等待不占用 @Scheduled 共用的调度线程；上一轮未结束时跳过本轮。
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class FileCleanup {
+
+    // 临时目录 -> 图片转正后的正式目录
+    // temp_cover 不在其中：封面图不会被转正，也没有图片记录引用，无法判断是否仍被使用，不回收
+    private static final Map<String, String> TEMP_IMAGE_DIRS = Map.of(
+            "temp_question", "question",
+            "temp_answer", "answer");
+    private static final String LOCK_KEY_PREFIX = "upload:lock:";
+    private static final String PART_SUFFIX = ".part";
+    private static final String TMP_SUFFIX = ".tmp";
+    // 每个前缀每轮最多执行的 SCAN 次数，匹配的键很稀疏时避免单轮走完整个键空间
+    private static final int MAX_SCAN_CALLS = 16;
+
+    /**
+     * 从给定游标执行一次 SCAN，返回 "下一个游标\n键1\n键2..."
+     * ARGV: 游标, MATCH 模式, COUNT
+     */
+    private static final RedisScript<String> SCAN_SCRIPT = new DefaultRedisScript<>(
+            "local result = redis.call('SCAN', ARGV[1], 'MATCH', ARGV[2], 'COUNT', ARGV[3]) "
+                    + "if #result[2] == 0 then return result[1] end "
+                    + "return result[1] .. '\\n' .. table.concat(result[2], '\\n')",
+            String.class);
+
+    private final FileUploadConfig config;
     private final FileInfoRepository fileRepository;
+    private final ResourceCategoryRepository categoryRepository;
+    private final QuestionImageRepository questionImageRepository;
+    private final AnswerImageRepository answerImageRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ImageVariantService imageVariantService;
+    // 回收线程：单线程，忙时直接拒绝新的一轮
+    private final ThreadPoolExecutor reclaimExecutor;
 
+    // 每个目录下次开始检查的位置（上一批最后一个文件名）
+    private final Map<Path, String> cursors = new ConcurrentHashMap<>();
+    // 每个 Redis 键前缀下次 SCAN 的游标
+    private final Map<String, String> scanCursors = new ConcurrentHashMap<>();
+    // 累计回收量，按区域统计
+    private final Map<String, LongAdder> reclaimedEntries = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> reclaimedBytes = new ConcurrentHashMap<>();
+    private volatile Map<String, Object> lastRun = Map.of();
 
+    private long nextDeleteAtNanos;
 
-    private void cleanupChunkFiles(String fileKey) {
+    public FileCleanup(FileUploadConfig config,
+                       FileInfoRepository fileRepository,
+                       ResourceCategoryRepository categoryRepository,
+                       QuestionImageRepository questionImageRepository,
+                       AnswerImageRepository answerImageRepository,
+                       StringRedisTemplate stringRedisTemplate,
+                       ImageVariantService imageVariantService) {
+        this.config = config;
+        this.fileRepository = fileRepository;
+        this.categoryRepository = categoryRepository;
+        this.questionImageRepository = questionImageRepository;
+        this.answerImageRepository = answerImageRepository;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.imageVariantService = imageVariantService;
+        this.reclaimExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "file-cleanup");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 只负责把本轮回收交给回收线程，不在调度线程中执行删除和限速等待
+     */
+    @Scheduled(fixedDelayString = "${upload.cleanup.interval:600000}", initialDelayString = "${upload.cleanup.initial-delay:60000}")
+    public void reclaim() {
+        if (!Boolean.TRUE.equals(config.getCleanup().getEnabled())) {
+            return;
+        }
         try {
-            // 清理临时分片目录
-            Path chunkDir = Paths.get("./uploads/chunks", fileKey);
-            if (Files.exists(chunkDir)) {
-                Files.walk(chunkDir)
-                        .sorted((a, b) -> -a.compareTo(b))
-                        .forEach(path -> {
-                            try {
-                                Files.deleteIfExists(path);
-                            } catch (IOException e) {
-                                log.warn("删除分片文件失败: {}", path, e);
-                            }
-                        });
-                log.info("清理分片文件: {}", fileKey);
-            }
+            reclaimExecutor.execute(this::runReclaim);
+        } catch (RejectedExecutionException e) {
+            log.info("上一轮临时文件回收仍在进行，跳过本轮");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reclaimExecutor.shutdownNow();
+    }
+
+    private void runReclaim() {
+        FileUploadConfig.Cleanup cleanup = config.getCleanup();
+        long start = System.currentTimeMillis();
+        Instant cutoff = Instant.now().minus(cleanup.getMaxAge());
+        Map<String, long[]> run = new LinkedHashMap<>();
+
+        try {
+            run.put("chunkDirs", reclaimChunkDirs(cutoff));
+            run.put("partFiles", reclaimPartFiles(cutoff));
+            run.put("tempImages", reclaimTempImages(cutoff));
+            run.put("imageVariants", reclaimImageVariants(cutoff));
+            run.put("redisKeys", reclaimRedisKeys());
         } catch (Exception e) {
-            log.error("清理分片文件失败: {}", fileKey, e);
+            log.error("回收临时文件失败", e);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("finishedAt", LocalDateTime.now());
+        summary.put("costMillis", System.currentTimeMillis() - start);
+        long totalEntries = 0;
+        long totalBytes = 0;
+        for (Map.Entry<String, long[]> entry : run.entrySet()) {
+            long[] counts = entry.getValue();
+            summary.put(entry.getKey(), Map.of("entries", counts[0], "bytes", counts[1]));
+            reclaimedEntries.computeIfAbsent(entry.getKey(), k -> new LongAdder()).add(counts[0]);
+            reclaimedBytes.computeIfAbsent(entry.getKey(), k -> new LongAdder()).add(counts[1]);
+            totalEntries += counts[0];
+            totalBytes += counts[1];
+        }
+        lastRun = summary;
+        if (totalEntries > 0) {
+            log.info("回收临时文件: entries={}, bytes={}, 明细={}", totalEntries, totalBytes, summary);
+        }
+    }
+
+    /**
+     * 最近一轮和累计的回收量
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> total = new LinkedHashMap<>();
+        for (String area : reclaimedEntries.keySet()) {
+            total.put(area, Map.of(
+                    "entries", reclaimedEntries.get(area).sum(),
+                    "bytes", reclaimedBytes.computeIfAbsent(area, k -> new LongAdder()).sum()));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("lastRun", lastRun);
+        result.put("total", total);
+        return result;
+    }
+
+    /**
+     * 分片目录以文件ID命名：Redis 中已没有该文件的分片状态（上传完成、被放弃或状态已过期），
+     * 且目录超过保留时间未修改时删除
+     */
+    private long[] reclaimChunkDirs(Instant cutoff) {
+        Path chunkRoot = config.getChunkTempPath();
+        long[] counts = new long[2];
+        List<Path> batch = nextBatch(chunkRoot);
+        Set<Path> live = liveUploads(batch, path -> path.getFileName().toString());
+        for (Path chunkDir : batch) {
+            if (live.contains(chunkDir) || !olderThan(chunkDir, cutoff)) {
+                continue;
+            }
+            long bytes = cleanupChunkFiles(chunkDir);
+            if (bytes >= 0) {
+                counts[0]++;
+                counts[1] += bytes;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 直接写入模式的预分配文件，文件名为 {文件ID}_{文件名}.part
+     */
+    private long[] reclaimPartFiles(Instant cutoff) {
+        long[] counts = new long[2];
+        for (ResourceCategory category : categoryRepository.findAll()) {
+            Path categoryDir = config.getRootPath().resolve(category.getCategoryName());
+            List<Path> batch = nextBatch(categoryDir).stream()
+                    .filter(path -> path.getFileName().toString().endsWith(PART_SUFFIX))
+                    .collect(Collectors.toList());
+            Set<Path> live = liveUploads(batch, path -> {
+                String name = path.getFileName().toString();
+                int separator = name.indexOf('_');
+                return separator > 0 ? name.substring(0, separator) : name;
+            });
+            for (Path partFile : batch) {
+                if (!live.contains(partFile) && olderThan(partFile, cutoff)) {
+                    deleteFile(partFile, counts);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 临时图片在发布问题或回答时会被移动到正式目录，超过保留时间仍留在临时目录且没有图片记录引用的即为废弃
+     * 图片记录保存的是正式目录下的路径，每批按完整路径一次 IN 查询（image_path 有索引）
+     */
+    private long[] reclaimTempImages(Instant cutoff) {
+        long[] counts = new long[2];
+        for (Map.Entry<String, String> dir : TEMP_IMAGE_DIRS.entrySet()) {
+            Path tempDir = config.getRootPath().resolve(dir.getKey());
+            List<Path> expired = nextBatch(tempDir).stream()
+                    .filter(image -> olderThan(image, cutoff))
+                    .collect(Collectors.toList());
+            if (expired.isEmpty()) {
+                continue;
+            }
+            Set<String> referenced = referencedImageNames(dir.getValue(), expired);
+            for (Path image : expired) {
+                if (!referenced.contains(image.getFileName().toString())) {
+                    deleteFile(image, counts);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 这批文件中已有图片记录引用的文件名
+     * 记录中的路径为 uploads/{正式目录}/{文件名}，Windows 下写入的记录分隔符为反斜杠，两种写法都查
+     */
+    private Set<String> referencedImageNames(String permanentDir, List<Path> images) {
+        List<String> paths = new ArrayList<>(images.size() * 2);
+        for (Path image : images) {
+            String fileName = image.getFileName().toString();
+            paths.add("uploads/" + permanentDir + "/" + fileName);
+            paths.add("uploads\\" + permanentDir + "\\" + fileName);
+        }
+        List<String> found = "answer".equals(permanentDir)
+                ? answerImageRepository.findImagePathsIn(paths)
+                : questionImageRepository.findImagePathsIn(paths);
+        return found.stream()
+                .map(path -> path.replace("\\", "/"))
+                .map(path -> path.substring(path.lastIndexOf('/') + 1))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * 图片副本：原图已删除的副本直接删除；.tmp 为生成副本时中断遗留的临时文件，超过保留时间后删除
+     * 副本目录按原图目录分层（variants/{规格}/{原图目录}/），逐个原图目录分批检查
+     */
+    private long[] reclaimImageVariants(Instant cutoff) {
+        long[] counts = new long[2];
+        Path variantRoot = config.getRootPath().resolve(ImageVariantService.VARIANT_DIR);
+        for (ImageVariantService.Variant variant : ImageVariantService.Variant.values()) {
+            for (Path dir : subdirectories(variantRoot.resolve(variant.pathName()))) {
+                for (Path entry : nextBatch(dir)) {
+                    if (Files.isDirectory(entry)) {
+                        continue;
+                    }
+                    boolean expired = entry.getFileName().toString().endsWith(TMP_SUFFIX)
+                            ? olderThan(entry, cutoff)
+                            : imageVariantService.isOrphaned(variant, entry);
+                    if (expired) {
+                        deleteFile(entry, counts);
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    private List<Path> subdirectories(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            stream.forEach(result::add);
+        } catch (IOException e) {
+            log.warn("读取目录失败: {}", dir, e);
+        }
+        return result;
+    }
+
+    /**
+     * 分片状态、分片摘要和上传并发计数：文件记录已删除或已上传完成时删除；
+     * 并发计数没有过期时间（设置过期时间前进程中断）时也删除
+     */
+    private long[] reclaimRedisKeys() {
+        long[] counts = new long[2];
+        int batchSize = config.getCleanup().getBatchSize();
+        for (String prefix : List.of(UploadChunkTracker.KEY_PREFIX, UploadChunkTracker.DIGEST_KEY_PREFIX, LOCK_KEY_PREFIX)) {
+            Map<Long, String> keysByFileId = new HashMap<>();
+            List<String> leaked = new ArrayList<>();
+            for (String key : nextKeys(prefix, batchSize)) {
+                try {
+                    keysByFileId.put(Long.parseLong(key.substring(prefix.length())), key);
+                } catch (NumberFormatException e) {
+                    // 按旧的 fileKey 记录的状态，已无法对应到文件记录
+                    leaked.add(key);
+                }
+            }
+
+            Map<Long, FileInfo> files = fileRepository.findAllById(keysByFileId.keySet()).stream()
+                    .collect(Collectors.toMap(FileInfo::getId, Function.identity()));
+            for (Map.Entry<Long, String> entry : keysByFileId.entrySet()) {
+                FileInfo fileInfo = files.get(entry.getKey());
+                if (fileInfo == null || fileInfo.getFilePath() != null) {
+                    leaked.add(entry.getValue());
+                } else if (LOCK_KEY_PREFIX.equals(prefix)) {
+                    Long ttl = stringRedisTemplate.getExpire(entry.getValue(), TimeUnit.SECONDS);
+                    if (ttl != null && ttl == -1) {
+                        leaked.add(entry.getValue());
+                    }
+                }
+            }
+            for (String key : leaked) {
+                throttle();
+                if (Boolean.TRUE.equals(stringRedisTemplate.delete(key))) {
+                    counts[0]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 从上一轮结束的 SCAN 游标继续，取回约 batchSize 个匹配前缀的键
+     * 游标回到 0 说明已走完一遍，下一轮从头开始
+     */
+    private List<String> nextKeys(String prefix, int batchSize) {
+        List<String> keys = new ArrayList<>();
+        String cursor = scanCursors.getOrDefault(prefix, "0");
+        for (int i = 0; i < MAX_SCAN_CALLS && keys.size() < batchSize; i++) {
+            String result = stringRedisTemplate.execute(SCAN_SCRIPT, List.of(),
+                    cursor, prefix + "*", String.valueOf(batchSize));
+            if (result == null) {
+                break;
+            }
+            String[] parts = result.split("\n");
+            cursor = parts[0];
+            keys.addAll(Arrays.asList(parts).subList(1, parts.length));
+            if ("0".equals(cursor)) {
+                break;
+            }
+        }
+        if ("0".equals(cursor)) {
+            scanCursors.remove(prefix);
+        } else {
+            scanCursors.put(prefix, cursor);
+        }
+        return keys;
+    }
+
+    /**
+     * 目录中文件名大于游标的前 batchSize 个条目（按文件名升序）
+     * 只遍历目录项名称，用大小为 batchSize 的堆挑出本批条目，内存占用与目录大小无关
+     */
+    private List<Path> nextBatch(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        int batchSize = config.getCleanup().getBatchSize();
+        String after = cursors.getOrDefault(dir, "");
+        PriorityQueue<String> heap = new PriorityQueue<>(Comparator.reverseOrder());
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                String name = entry.getFileName().toString();
+                if (name.compareTo(after) <= 0) {
+                    continue;
+                }
+                if (heap.size() < batchSize) {
+                    heap.add(name);
+                } else if (name.compareTo(heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(name);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取目录失败: {}", dir, e);
+            return List.of();
+        }
+
+        List<String> names = new ArrayList<>(heap);
+        Collections.sort(names);
+        // 不足一批说明已走到目录末尾，下一轮从头开始
+        if (names.size() < batchSize) {
+            cursors.remove(dir);
+        } else {
+            cursors.put(dir, names.get(names.size() - 1));
+        }
+        return names.stream().map(dir::resolve).collect(Collectors.toList());
+    }
+
+    /**
+     * 批量检查条目对应的上传是否仍在进行（Redis 中存在分片状态）
+     * @param fileIdOf 从条目取出文件ID
+     */
+    private Set<Path> liveUploads(List<Path> entries, Function<Path, String> fileIdOf) {
+        if (entries.isEmpty()) {
+            return Set.of();
+        }
+        List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Path entry : entries) {
+                byte[] key = (UploadChunkTracker.KEY_PREFIX + fileIdOf.apply(entry)).getBytes(StandardCharsets.UTF_8);
+                connection.keyCommands().exists(key);
+            }
+            return null;
+        });
+        Set<Path> live = new HashSet<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (Boolean.TRUE.equals(exists.get(i))) {
+                live.add(entries.get(i));
+            }
+        }
+        return live;
+    }
+
+    private boolean olderThan(Path path, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            // 已被其他流程删除
+            return false;
+        }
+    }
+
+    private void deleteFile(Path path, long[] counts) {
+        try {
+            long size = Files.size(path);
+            throttle();
+            if (Files.deleteIfExists(path)) {
+                counts[0]++;
+                counts[1] += size;
+            }
+        } catch (IOException e) {
+            log.warn("删除临时文件失败: {}", path, e);
+        }
+    }
+
+    /**
+     * 删除分片目录
+     * @return 回收的字节数，删除失败返回 -1
+     */
+    private long cleanupChunkFiles(Path chunkDir) {
+        long[] bytes = new long[1];
+        try {
+            Files.walkFileTree(chunkDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    throttle();
+                    Files.deleteIfExists(file);
+                    bytes[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            log.info("清理分片文件: {}", chunkDir.getFileName());
+            return bytes[0];
+        } catch (IOException e) {
+            log.error("清理分片文件失败: {}", chunkDir, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 按 max-deletes-per-second 控制删除速度，只在回收线程中等待
+     */
+    private void throttle() {
+        int rate = config.getCleanup().getMaxDeletesPerSecond();
+        if (rate <= 0) {
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long now = System.nanoTime();
+        if (nextDeleteAtNanos > now) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nextDeleteAtNanos - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            now = nextDeleteAtNanos;
         }
+        nextDeleteAtNanos = now + interval;
     }
-}
\ No newline at end of file
+}
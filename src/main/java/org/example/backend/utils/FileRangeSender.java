@@ -0,0 +1,197 @@
+package org.example.backend.utils;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 文件下载输出：支持 Range 断点续传（单段和多段 206）、ETag / If-None-Match / If-Range 条件请求
+ * 整个文件或单段范围优先交给 Tomcat 的 sendfile 零拷贝发送；不支持时用 FileChannel.transferTo 写出。
+ */
+@Component
+public class FileRangeSender {
+
+    // Tomcat sendfile 相关的请求属性
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // 单次请求最多允许的范围段数，避免恶意请求拆成大量小段
+    private static final int MAX_RANGES = 16;
+    private static final String CACHE_CONTROL = "public, max-age=86400";
+
+    /**
+     * @param etag 不带引号的实体标签
+     */
+    public void send(HttpServletRequest request, HttpServletResponse response,
+                     Path filePath, String etag, String fileName) throws IOException {
+        long length = Files.size(filePath);
+        long lastModified = Files.getLastModifiedTime(filePath).toMillis();
+        String quotedEtag = "\"" + etag + "\"";
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, quotedEtag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+
+        // If-None-Match 命中时不返回内容
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && matches(ifNoneMatch, quotedEtag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        String encodedFileName = URLEncoder.encode(fileName, StandardCharsets.UTF_8).replaceAll("\\+", "%20");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + encodedFileName);
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !ifRangeSatisfied(request, quotedEtag, lastModified)) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            sendRegion(request, response, filePath, 0, length);
+            return;
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            ranges = List.of();
+        }
+        if (ranges.isEmpty() || ranges.size() > MAX_RANGES || !allSatisfiable(ranges, length)) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            return;
+        }
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(length);
+            long end = ranges.get(0).getRangeEnd(length);
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            sendRegion(request, response, filePath, start, end - start + 1);
+            return;
+        }
+        sendMultipart(response, filePath, ranges, length);
+    }
+
+    /**
+     * 发送文件的一段，能用 sendfile 时只设置请求属性，由 Tomcat 在请求结束后直接从文件发送
+     */
+    private void sendRegion(HttpServletRequest request, HttpServletResponse response,
+                            Path filePath, long start, long count) throws IOException {
+        response.setContentLengthLong(count);
+        if (count == 0) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, filePath.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ServletOutputStream outputStream = response.getOutputStream();
+            transfer(channel, start, count, Channels.newChannel(outputStream));
+            outputStream.flush();
+        }
+    }
+
+    private void sendMultipart(HttpServletResponse response, Path filePath,
+                               List<HttpRange> ranges, long length) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+
+        ServletOutputStream outputStream = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(outputStream);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            for (HttpRange range : ranges) {
+                long start = range.getRangeStart(length);
+                long end = range.getRangeEnd(length);
+                String partHeader = "\r\n--" + boundary + "\r\n"
+                        + HttpHeaders.CONTENT_TYPE + ": " + MediaType.APPLICATION_OCTET_STREAM_VALUE + "\r\n"
+                        + HttpHeaders.CONTENT_RANGE + ": bytes " + start + "-" + end + "/" + length + "\r\n\r\n";
+                outputStream.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+                outputStream.flush();
+                transfer(channel, start, end - start + 1, target);
+            }
+        }
+        outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        outputStream.flush();
+    }
+
+    private void transfer(FileChannel channel, long start, long count, WritableByteChannel target) throws IOException {
+        long position = start;
+        long end = start + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new IOException("文件传输中断");
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * If-Range 为空，或与当前 ETag / 最后修改时间一致时，Range 才生效；否则返回整个文件
+     */
+    private boolean ifRangeSatisfied(HttpServletRequest request, String quotedEtag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range 只做强比较，弱 ETag 一律视为不匹配
+            return ifRange.equals(quotedEtag);
+        }
+        try {
+            long ifRangeTime = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return ifRangeTime >= 0 && lastModified / 1000 == ifRangeTime / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean matches(String ifNoneMatch, String quotedEtag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(quotedEtag) || tag.equals("W/" + quotedEtag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean allSatisfiable(List<HttpRange> ranges, long length) {
+        if (length == 0) {
+            return false;
+        }
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (start < 0 || start >= length || end < start) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,427 @@
+package org.example.backend.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * 问题、回答富文本内容的单遍处理
+ * 从左到右扫描一次 HTML，同时完成：收集 img 的 src、按回调改写 src、清理不安全的标签和属性。
+ * 清理规则按白名单：只保留 ALLOWED_TAGS 中的标签，其他标签连同内容删除（svg、math、noscript、textarea 等都不在其中）；
+ * 注释删除；属性只保留 ALLOWED_ATTRIBUTES 中的，href/src 只保留 http、https 和相对地址（img 的 src 另允许 data:image/），
+ * style 中含 url(、expression 等的整个删除。
+ * 文本和保留下来的属性按原样输出，不做其他格式化。输出缓冲按线程复用。
+ */
+@Component
+public class HtmlContentProcessor {
+
+    private static final Set<String> ALLOWED_TAGS = Set.of(
+            "p", "br", "hr", "div", "span", "section", "article", "header", "footer",
+            "h1", "h2", "h3", "h4", "h5", "h6", "blockquote", "pre", "code", "kbd", "samp",
+            "b", "strong", "i", "em", "u", "s", "strike", "del", "ins", "sub", "sup", "mark", "small", "big", "font", "center",
+            "ul", "ol", "li", "dl", "dt", "dd", "a", "img", "figure", "figcaption",
+            "table", "caption", "colgroup", "col", "thead", "tbody", "tfoot", "tr", "th", "td");
+    private static final Set<String> ALLOWED_ATTRIBUTES = Set.of(
+            "class", "style", "title", "alt", "href", "src", "target", "rel", "width", "height",
+            "align", "valign", "colspan", "rowspan", "start", "type", "lang", "dir", "color", "size", "face");
+    // 浏览器按纯文本解析内容的元素，内容一直到第一个对应结束标签为止，其中的 '<' 不构成标签
+    private static final Set<String> RAW_TEXT_TAGS = Set.of(
+            "script", "style", "textarea", "xmp", "noscript", "noembed", "noframes", "iframe", "title", "plaintext");
+    private static final Set<String> URL_ATTRIBUTES = Set.of("href", "src");
+    private static final String[] UNSAFE_STYLE = {"url(", "expression", "javascript:", "behavior", "binding", "@import", "\\"};
+    private static final Set<String> ALLOWED_SCHEMES = Set.of("http", "https");
+    private static final String DATA_IMAGE_TYPE = "image/";
+
+    // 复用的输出缓冲，超过该容量的不再保留，避免个别超长内容长期占用内存
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+    /**
+     * @param html 处理后的内容
+     * @param imageSources 内容中 img 的原始 src，按出现顺序
+     */
+    public record Result(String html, List<String> imageSources) {
+    }
+
+    /**
+     * 处理内容，img 的 src 不需要改写时 rewriter 原样返回
+     */
+    public Result process(String html, UnaryOperator<String> imageSrcRewriter) {
+        if (html == null || html.isEmpty()) {
+            return new Result(html == null ? "" : html, List.of());
+        }
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        out.ensureCapacity(html.length() + 64);
+        List<String> images = new ArrayList<>(4);
+        try {
+            scan(html, out, images, imageSrcRewriter);
+            return new Result(out.toString(), images);
+        } finally {
+            if (out.capacity() > MAX_RETAINED_CAPACITY) {
+                BUFFER.remove();
+            } else {
+                out.setLength(0);
+            }
+        }
+    }
+
+    private void scan(String html, StringBuilder out, List<String> images, UnaryOperator<String> rewriter) {
+        int len = html.length();
+        int pos = 0;
+        while (pos < len) {
+            int lt = html.indexOf('<', pos);
+            if (lt < 0) {
+                out.append(html, pos, len);
+                break;
+            }
+            out.append(html, pos, lt);
+
+            if (html.startsWith("<!--", lt)) {
+                int end = html.indexOf("-->", lt + 4);
+                pos = end < 0 ? len : end + 3;
+                continue;
+            }
+
+            int cursor = lt + 1;
+            boolean closing = cursor < len && html.charAt(cursor) == '/';
+            if (closing) {
+                cursor++;
+            }
+            int nameStart = cursor;
+            while (cursor < len && isNameChar(html.charAt(cursor))) {
+                cursor++;
+            }
+            int tagEnd = cursor > nameStart && Character.isLetter(html.charAt(nameStart)) ? findTagEnd(html, cursor) : -1;
+            if (tagEnd < 0) {
+                // 不是标签（如 "a < b"、<!DOCTYPE>）或标签未闭合，按文本输出
+                out.append("&lt;");
+                pos = lt + 1;
+                continue;
+            }
+
+            String name = html.substring(nameStart, cursor).toLowerCase(Locale.ROOT);
+            pos = tagEnd + 1;
+            if (!ALLOWED_TAGS.contains(name)) {
+                if (!closing && html.charAt(tagEnd - 1) != '/') {
+                    pos = skipElement(html, name, pos);
+                }
+                continue;
+            }
+            if (closing) {
+                out.append("</").append(html, nameStart, cursor).append('>');
+                continue;
+            }
+
+            out.append('<').append(html, nameStart, cursor);
+            writeAttributes(html, cursor, tagEnd, name.equals("img"), out, images, rewriter);
+            out.append('>');
+        }
+    }
+
+    private void writeAttributes(String html, int from, int tagEnd, boolean img, StringBuilder out,
+                                 List<String> images, UnaryOperator<String> rewriter) {
+        boolean selfClosing = false;
+        int c = from;
+        while (c < tagEnd) {
+            char ch = html.charAt(c);
+            if (isWhitespace(ch)) {
+                c++;
+                continue;
+            }
+            if (ch == '/') {
+                selfClosing = true;
+                c++;
+                continue;
+            }
+
+            int nameStart = c;
+            while (c < tagEnd && !isWhitespace(html.charAt(c)) && html.charAt(c) != '=' && html.charAt(c) != '/') {
+                c++;
+            }
+            if (c == nameStart) {
+                // 多余的 '='
+                c++;
+                continue;
+            }
+            int nameEnd = c;
+            selfClosing = false;
+
+            while (c < tagEnd && isWhitespace(html.charAt(c))) {
+                c++;
+            }
+            String value = null;
+            char quote = 0;
+            if (c < tagEnd && html.charAt(c) == '=') {
+                c++;
+                while (c < tagEnd && isWhitespace(html.charAt(c))) {
+                    c++;
+                }
+                if (c < tagEnd && (html.charAt(c) == '"' || html.charAt(c) == '\'')) {
+                    quote = html.charAt(c);
+                    int valueStart = c + 1;
+                    int valueEnd = html.indexOf(quote, valueStart);
+                    if (valueEnd < 0 || valueEnd > tagEnd) {
+                        valueEnd = tagEnd;
+                    }
+                    value = html.substring(valueStart, valueEnd);
+                    c = valueEnd + 1;
+                } else {
+                    int valueStart = c;
+                    while (c < tagEnd && !isWhitespace(html.charAt(c))) {
+                        c++;
+                    }
+                    value = html.substring(valueStart, c);
+                }
+            }
+
+            String attribute = html.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+            if (!ALLOWED_ATTRIBUTES.contains(attribute)) {
+                continue;
+            }
+            boolean imageSrc = img && attribute.equals("src");
+            if (value != null && URL_ATTRIBUTES.contains(attribute) && !isAllowedUrl(value, imageSrc)) {
+                continue;
+            }
+            if (value != null && attribute.equals("style") && !isSafeStyle(value)) {
+                continue;
+            }
+            if (imageSrc && value != null) {
+                images.add(value);
+                String rewritten = rewriter.apply(value);
+                if (rewritten != null) {
+                    value = rewritten;
+                }
+            }
+
+            out.append(' ').append(html, nameStart, nameEnd);
+            if (value != null) {
+                char outQuote = quote != 0 ? quote : '"';
+                out.append('=').append(outQuote);
+                appendEscaped(out, value, outQuote);
+                out.append(outQuote);
+            }
+        }
+        if (selfClosing) {
+            out.append(" /");
+        }
+    }
+
+    /**
+     * 标签结束的 '>'，跳过属性值引号中的 '>'
+     */
+    private static int findTagEnd(String html, int from) {
+        char quote = 0;
+        char previous = 0; // 上一个非空白字符
+        for (int i = from; i < html.length(); i++) {
+            char ch = html.charAt(i);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                    previous = ch;
+                }
+                continue;
+            }
+            if (ch == '>') {
+                return i;
+            }
+            if ((ch == '"' || ch == '\'') && previous == '=') {
+                quote = ch;
+                continue;
+            }
+            if (!isWhitespace(ch)) {
+                previous = ch;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 跳过不在白名单中的元素的内容，返回其结束标签之后的位置
+     * 纯文本元素与浏览器一致，到第一个对应结束标签为止，未闭合时删除之后的全部内容；
+     * 其他元素按同名标签的嵌套层数找对应的结束标签，找不到时只删除开始标签本身，内容继续按白名单处理
+     */
+    private static int skipElement(String html, String name, int from) {
+        boolean rawText = RAW_TEXT_TAGS.contains(name);
+        int depth = 1;
+        int i = from;
+        while (true) {
+            int lt = html.indexOf('<', i);
+            if (lt < 0) {
+                return rawText ? html.length() : from;
+            }
+            boolean closing = lt + 1 < html.length() && html.charAt(lt + 1) == '/';
+            int nameStart = lt + (closing ? 2 : 1);
+            int nameEnd = nameStart + name.length();
+            if ((rawText && !closing) || !html.regionMatches(true, nameStart, name, 0, name.length())
+                    || (nameEnd < html.length() && isNameChar(html.charAt(nameEnd)))) {
+                i = lt + 1;
+                continue;
+            }
+            int end = rawText ? html.indexOf('>', nameEnd) : findTagEnd(html, nameEnd);
+            if (end < 0) {
+                return rawText ? html.length() : from;
+            }
+            if (closing) {
+                if (--depth == 0) {
+                    return end + 1;
+                }
+            } else if (html.charAt(end - 1) != '/') {
+                depth++;
+            }
+            i = end + 1;
+        }
+    }
+
+    /**
+     * 地址协议按白名单判断：只允许 http、https 和不带协议的地址（相对地址、//host），img 的 src 另允许 data:image/
+     * 判断前去掉空白和控制字符，并按浏览器的规则解码字符引用：数字引用读到第一个非数字字符为止，
+     * 有没有结尾的 ';' 都算（"&#106avascript:"）；命名引用只解码 &colon; &tab; &newline;
+     */
+    private static boolean isAllowedUrl(String value, boolean imageSrc) {
+        StringBuilder scheme = new StringBuilder(16);
+        int colon = -1; // scheme 中 ':' 之后内容的起点，未遇到 ':' 时为 -1
+        int i = 0;
+        while (i < value.length()) {
+            int decoded = value.charAt(i++);
+            if (decoded == '&') {
+                long reference = decodeReference(value, i);
+                if (reference >= 0) {
+                    decoded = (int) (reference >>> 32);
+                    i = (int) reference;
+                }
+            }
+            if (decoded <= ' ') {
+                continue;
+            }
+            char ch = decoded > Character.MAX_VALUE ? '\uFFFD' : Character.toLowerCase((char) decoded);
+            if (colon >= 0) {
+                scheme.append(ch);
+                if (scheme.length() - colon >= DATA_IMAGE_TYPE.length()) {
+                    break;
+                }
+                continue;
+            }
+            if (ch == '/' || ch == '?' || ch == '#') {
+                // 协议之前先遇到路径、查询或片段，是相对地址
+                return true;
+            }
+            if (ch != ':') {
+                scheme.append(ch);
+                continue;
+            }
+            String name = scheme.toString();
+            if (ALLOWED_SCHEMES.contains(name)) {
+                return true;
+            }
+            if (!imageSrc || !name.equals("data")) {
+                return false;
+            }
+            colon = scheme.length();
+        }
+        return colon < 0 || scheme.substring(colon).startsWith(DATA_IMAGE_TYPE);
+    }
+
+    /**
+     * style 按字符引用解码、去掉空白并转小写后，不能含有 url(、expression、javascript: 等可加载资源或执行脚本的写法，
+     * 也不能含有 CSS 转义的反斜杠
+     */
+    private static boolean isSafeStyle(String value) {
+        StringBuilder decoded = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            int ch = value.charAt(i++);
+            if (ch == '&') {
+                long reference = decodeReference(value, i);
+                if (reference >= 0) {
+                    ch = (int) (reference >>> 32);
+                    i = (int) reference;
+                }
+            }
+            if (ch > ' ') {
+                decoded.append(ch > Character.MAX_VALUE ? '\uFFFD' : Character.toLowerCase((char) ch));
+            }
+        }
+        for (String unsafe : UNSAFE_STYLE) {
+            if (decoded.indexOf(unsafe) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解码 value 中 from 处开始的字符引用（from 为 '&' 之后的位置）
+     * @return 高32位为解码后的码点，低32位为引用之后的位置；不是可识别的引用时返回 -1
+     */
+    private static long decodeReference(String value, int from) {
+        int i = from;
+        if (i < value.length() && value.charAt(i) == '#') {
+            i++;
+            int radix = 10;
+            if (i < value.length() && (value.charAt(i) == 'x' || value.charAt(i) == 'X')) {
+                radix = 16;
+                i++;
+            }
+            int digitsStart = i;
+            long codePoint = 0;
+            while (i < value.length() && Character.digit(value.charAt(i), radix) >= 0) {
+                // 超出范围的码点按浏览器的处理替换为 U+FFFD，继续读完剩余数字
+                codePoint = Math.min(codePoint * radix + Character.digit(value.charAt(i), radix), Character.MAX_CODE_POINT + 1L);
+                i++;
+            }
+            if (i == digitsStart) {
+                return -1;
+            }
+            if (i < value.length() && value.charAt(i) == ';') {
+                i++;
+            }
+            if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT) {
+                codePoint = 0xFFFD;
+            }
+            return codePoint << 32 | i;
+        }
+        int nameStart = i;
+        while (i < value.length() && Character.isLetter(value.charAt(i))) {
+            i++;
+        }
+        if (i == nameStart || i >= value.length() || value.charAt(i) != ';') {
+            return -1;
+        }
+        int decoded = switch (value.substring(nameStart, i).toLowerCase(Locale.ROOT)) {
+            case "colon" -> ':';
+            case "tab" -> '\t';
+            case "newline" -> '\n';
+            default -> -1;
+        };
+        return decoded < 0 ? -1 : (long) decoded << 32 | (i + 1);
+    }
+
+    private static void appendEscaped(StringBuilder out, String value, char quote) {
+        if (value.indexOf(quote) < 0) {
+            out.append(value);
+            return;
+        }
+        String replacement = quote == '"' ? "&quot;" : "&#39;";
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == quote) {
+                out.append(replacement);
+            } else {
+                out.append(ch);
+            }
+        }
+    }
+
+    private static boolean isNameChar(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '-' || ch == ':' || ch == '_';
+    }
+
+    private static boolean isWhitespace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r' || ch == '\f';
+    }
+}
@@ -14,14 +14,25 @@ import java.util.Map;
 @Component
 public class MessageConverter {
 
+    /**
+     * RAG 注入检索内容时追加在用户消息之后的标记（DefaultContentInjector 的默认模板）
+     */
+    public static final String RETRIEVAL_MARKER = "Answer using the following information:";
+
+    /**
+     * 用户消息中 RAG 注入的检索内容与用户原话分开保存：content 为原话，retrievalContext 为检索内容
+     */
     public ChatMessageEntity toEntity(ChatMessage chatMessage, String sessionId, int index) {
+        String text = AiTypeConversion.extractTextFromMessage(chatMessage);
+        String content = chatMessage instanceof UserMessage ? stripRetrievedContent(text) : text;
         return ChatMessageEntity.builder()
                 .sessionId(sessionId)
                 .messageIndex(index)
                 .messageType(getMessageType(chatMessage))
                 .role(getRole(chatMessage))
-                .content(AiTypeConversion.extractTextFromMessage(chatMessage))
-                .contentHash(calculateHash(chatMessage))
+                .content(content)
+                .retrievalContext(chatMessage instanceof UserMessage ? retrievedContent(text) : null)
+                .contentHash(content != null ? Integer.toHexString(content.hashCode()) : null)
                 .metadata(extractMetadata(chatMessage))
                 .build();
     }
@@ -61,16 +72,6 @@ public class MessageConverter {
         return "unknown";
     }
 
-    private String calculateHash(ChatMessage chatMessage) {
-        try {
-            String content = AiTypeConversion.extractTextFromMessage(chatMessage);
-            // 简单的哈希计算，可以使用MD5或其他算法
-            return Integer.toHexString(content.hashCode());
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     private Map<String, Object> extractMetadata(ChatMessage chatMessage) {
         Map<String, Object> metadata = new HashMap<>();
 
@@ -97,6 +98,28 @@ public class MessageConverter {
         System.out.println("提取文本内容："+message);
         return AiTypeConversion.extractTextFromMessage(message);
     }
+    /**
+     * 用户原话：去掉 RAG 注入的检索内容，没有注入时原样返回
+     */
+    public static String stripRetrievedContent(String text) {
+        if (text == null) {
+            return null;
+        }
+        int marker = text.indexOf(RETRIEVAL_MARKER);
+        return marker >= 0 ? text.substring(0, marker).trim() : text;
+    }
+
+    /**
+     * RAG 注入的检索内容（从标记开始），没有注入时返回 null
+     */
+    public static String retrievedContent(String text) {
+        if (text == null) {
+            return null;
+        }
+        int marker = text.indexOf(RETRIEVAL_MARKER);
+        return marker >= 0 ? text.substring(marker) : null;
+    }
+
     public String extractContent(ChatMessage message) {
         if (message instanceof dev.langchain4j.data.message.UserMessage) {
             return ((dev.langchain4j.data.message.UserMessage) message).singleText();
@@ -0,0 +1,347 @@
+package org.example.backend.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.servlet.resource.AbstractResourceResolver;
+import org.springframework.web.servlet.resource.AbstractVersionStrategy;
+import org.springframework.web.servlet.resource.ResourceResolver;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+import org.springframework.web.servlet.resource.VersionPathStrategy;
+import org.springframework.web.servlet.resource.VersionStrategy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * /uploads 静态资源的内容摘要和热点缓存
+ * 摘要按 文件路径 + 修改时间 + 大小 缓存，文件不变时只计算一次，用作强 ETag 和带摘要的不可变地址
+ * （不可变地址只用已缓存的摘要，图片保存或转正时在后台预先计算）；
+ * 小图片读入内存，按字节预算淘汰，命中时只需一次 stat 确认文件未变。
+ */
+@Slf4j
+@Component
+public class UploadResourceCache {
+
+    public static final String VERSIONED_PREFIX = "/uploads/v/";
+
+    // 文件名中的内容摘要：name-<32位md5>.ext
+    private static final Pattern VERSION_PATTERN = Pattern.compile("-([0-9a-f]{32})(\\.[^./]*)?$");
+
+    private final Cache<Path, Fingerprint> fingerprints;
+    private final Cache<String, CachedResource> hotResources;
+    private final long hotMaxEntryBytes;
+    private final long hashMaxBytes;
+
+    public UploadResourceCache(@Value("${upload.static.hot-cache-bytes:33554432}") long hotCacheBytes,
+                               @Value("${upload.static.hot-max-entry-bytes:262144}") long hotMaxEntryBytes,
+                               @Value("${upload.static.hash-max-bytes:33554432}") long hashMaxBytes) {
+        this.fingerprints = Caffeine.newBuilder().maximumSize(100_000).build();
+        this.hotResources = Caffeine.newBuilder()
+                .maximumWeight(hotCacheBytes)
+                .weigher((String key, CachedResource value) -> (int) Math.min(Integer.MAX_VALUE, value.contentLength()))
+                .build();
+        this.hotMaxEntryBytes = hotMaxEntryBytes;
+        this.hashMaxBytes = hashMaxBytes;
+    }
+
+    /**
+     * 资源的强 ETag（不带引号）；无法读取时返回 null，由 Last-Modified 兜底
+     */
+    @Nullable
+    public String etag(Resource resource) {
+        if (resource instanceof CachedResource cached) {
+            return cached.fingerprint.hash();
+        }
+        try {
+            return resource.isFile() ? fingerprint(resource.getFile().toPath()).hash() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 带内容摘要的不可变地址，例如 uploads/question/a.png -> /uploads/v/question/a-<md5>.png
+     * 只使用已缓存的摘要（图片保存或转正时由 precompute 预先计算，首次访问文件时也会计算），不在调用线程读取文件；
+     * 摘要尚未计算、文件不存在或过大（摘要退化为 大小-修改时间）时返回 null，调用方继续使用原地址
+     */
+    @Nullable
+    public String versionedUrl(Path root, @Nullable String imagePath) {
+        String relative = relativePath(imagePath);
+        Path file = resolveFile(root, relative);
+        if (file == null) {
+            return null;
+        }
+        try {
+            Fingerprint fingerprint = cachedFingerprint(file, Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+            if (fingerprint == null || !fingerprint.contentHash()) {
+                return null;
+            }
+            return VERSIONED_PREFIX + addVersion(relative, fingerprint.hash());
+        } catch (IOException e) {
+            log.debug("读取文件属性失败: {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 预先计算并缓存图片的内容摘要，供 versionedUrl 使用；应在后台线程调用
+     */
+    public void precompute(Path root, @Nullable String imagePath) {
+        Path file = resolveFile(root, relativePath(imagePath));
+        if (file == null) {
+            return;
+        }
+        try {
+            fingerprint(file);
+        } catch (IOException e) {
+            log.debug("计算文件摘要失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 版本策略：文件名后缀内容摘要，摘要取自缓存
+     */
+    public VersionStrategy versionStrategy() {
+        return new ContentHashVersionStrategy();
+    }
+
+    /**
+     * 放在版本解析之前，只放行带摘要的请求路径，避免不带摘要的地址也被当作不可变资源长期缓存
+     */
+    public ResourceResolver versionedOnlyResolver() {
+        return new AbstractResourceResolver() {
+            @Override
+            protected Resource resolveResourceInternal(@Nullable HttpServletRequest request, String requestPath,
+                                                       List<? extends Resource> locations, ResourceResolverChain chain) {
+                return VERSION_PATTERN.matcher(requestPath).find() ? chain.resolveResource(request, requestPath, locations) : null;
+            }
+
+            @Override
+            protected String resolveUrlPathInternal(String resourceUrlPath, List<? extends Resource> locations,
+                                                    ResourceResolverChain chain) {
+                return chain.resolveUrlPath(resourceUrlPath, locations);
+            }
+        };
+    }
+
+    /**
+     * 热点小文件缓存，放在解析链最前面
+     */
+    public ResourceResolver hotResolver() {
+        return new AbstractResourceResolver() {
+            @Override
+            protected Resource resolveResourceInternal(@Nullable HttpServletRequest request, String requestPath,
+                                                       List<? extends Resource> locations, ResourceResolverChain chain) {
+                CachedResource cached = hotResources.getIfPresent(requestPath);
+                if (cached != null) {
+                    if (cached.isFresh()) {
+                        return cached;
+                    }
+                    hotResources.invalidate(requestPath);
+                }
+                Resource resolved = chain.resolveResource(request, requestPath, locations);
+                return resolved != null ? cacheIfSmall(requestPath, resolved) : null;
+            }
+
+            @Override
+            protected String resolveUrlPathInternal(String resourceUrlPath, List<? extends Resource> locations,
+                                                    ResourceResolverChain chain) {
+                return chain.resolveUrlPath(resourceUrlPath, locations);
+            }
+        };
+    }
+
+    /**
+     * 小文件读入内存缓存；摘要直接用已读出的内容计算，不再单独读一遍文件
+     */
+    private Resource cacheIfSmall(String requestPath, Resource resolved) {
+        try {
+            if (!resolved.isFile()) {
+                return resolved;
+            }
+            Path file = resolved.getFile().toPath();
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            long size = Files.size(file);
+            if (size > hotMaxEntryBytes) {
+                return resolved;
+            }
+            byte[] content = Files.readAllBytes(file);
+            Fingerprint fingerprint = cachedFingerprint(file, lastModified, size);
+            if (fingerprint == null) {
+                fingerprint = new Fingerprint(lastModified, size, DigestUtils.md5DigestAsHex(content), true);
+            }
+            CachedResource cached = new CachedResource(content, file, fingerprint);
+            // 读取期间文件被替换时不缓存
+            if (!cached.isFresh()) {
+                return resolved;
+            }
+            fingerprints.put(file, fingerprint);
+            hotResources.put(requestPath, cached);
+            return cached;
+        } catch (IOException e) {
+            return resolved;
+        }
+    }
+
+    private Fingerprint fingerprint(Path file) throws IOException {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        long size = Files.size(file);
+        Fingerprint cached = cachedFingerprint(file, lastModified, size);
+        if (cached != null) {
+            return cached;
+        }
+        Fingerprint fingerprint;
+        if (size > hashMaxBytes) {
+            // 大文件不读取内容，用 大小-修改时间 作为标识
+            fingerprint = new Fingerprint(lastModified, size, Long.toHexString(size) + "-" + Long.toHexString(lastModified), false);
+        } else {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                fingerprint = new Fingerprint(lastModified, size, DigestUtils.md5DigestAsHex(inputStream), true);
+            }
+        }
+        fingerprints.put(file, fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * 与文件当前修改时间和大小一致的缓存摘要，没有时返回 null
+     */
+    @Nullable
+    private Fingerprint cachedFingerprint(Path file, long lastModified, long size) {
+        Fingerprint cached = fingerprints.getIfPresent(file);
+        return cached != null && cached.lastModified() == lastModified && cached.size() == size ? cached : null;
+    }
+
+    /**
+     * 图片地址转为相对 uploads 目录的路径，不在 uploads 下时返回 null
+     */
+    @Nullable
+    private static String relativePath(@Nullable String imagePath) {
+        if (imagePath == null || imagePath.isBlank()) {
+            return null;
+        }
+        String path = imagePath.replace("\\", "/");
+        int index = path.indexOf("uploads/");
+        return index < 0 ? null : path.substring(index + "uploads/".length());
+    }
+
+    /**
+     * uploads 目录下存在的普通文件，越出目录或不存在时返回 null
+     */
+    @Nullable
+    private static Path resolveFile(Path root, @Nullable String relative) {
+        if (relative == null) {
+            return null;
+        }
+        Path file = root.resolve(relative).normalize();
+        return file.startsWith(root) && Files.isRegularFile(file) ? file : null;
+    }
+
+    private static String addVersion(String path, String version) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return path + "-" + version;
+        }
+        return path.substring(0, dot) + "-" + version + path.substring(dot);
+    }
+
+    /**
+     * @param contentHash hash 是否为内容摘要（否则为 大小-修改时间）
+     */
+    private record Fingerprint(long lastModified, long size, String hash, boolean contentHash) {
+    }
+
+    /**
+     * 文件名末尾的摘要固定为32位十六进制，按最后一个 "-" 之后匹配，文件名本身含 "-"（如 UUID）也不受影响
+     */
+    private static final class ContentHashPathStrategy implements VersionPathStrategy {
+
+        @Override
+        public String extractVersion(String requestPath) {
+            Matcher matcher = VERSION_PATTERN.matcher(requestPath);
+            return matcher.find() ? matcher.group(1) : null;
+        }
+
+        @Override
+        public String removeVersion(String requestPath, String version) {
+            return requestPath.replace("-" + version, "");
+        }
+
+        @Override
+        public String addVersion(String requestPath, String version) {
+            return UploadResourceCache.addVersion(requestPath, version);
+        }
+    }
+
+    private final class ContentHashVersionStrategy extends AbstractVersionStrategy {
+
+        ContentHashVersionStrategy() {
+            super(new ContentHashPathStrategy());
+        }
+
+        @Override
+        public String getResourceVersion(Resource resource) {
+            String etag = etag(resource);
+            return etag != null ? etag : "";
+        }
+    }
+
+    /**
+     * 内存中的文件内容，保留文件名和修改时间供响应头使用
+     */
+    private static final class CachedResource extends ByteArrayResource {
+
+        private final Path file;
+        private final Fingerprint fingerprint;
+
+        CachedResource(byte[] content, Path file, Fingerprint fingerprint) {
+            super(content, file.toString());
+            this.file = file;
+            this.fingerprint = fingerprint;
+        }
+
+        boolean isFresh() {
+            try {
+                return Files.getLastModifiedTime(file).toMillis() == fingerprint.lastModified()
+                        && Files.size(file) == fingerprint.size()
+                        && getByteArray().length == fingerprint.size();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public String getFilename() {
+            return file.getFileName().toString();
+        }
+
+        @Override
+        public long lastModified() {
+            return fingerprint.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+}
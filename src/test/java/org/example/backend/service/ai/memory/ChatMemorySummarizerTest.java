@@ -0,0 +1,61 @@
+package org.example.backend.service.ai.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatMemorySummarizerTest {
+
+    private final UserMessage thanks1 = UserMessage.from("谢谢");
+    private final AiMessage ai1 = AiMessage.from("不客气");
+    private final UserMessage question = UserMessage.from("什么是缓存");
+    private final AiMessage ai2 = AiMessage.from("缓存是……");
+    private final UserMessage thanks2 = UserMessage.from("谢谢");
+
+    @Test
+    void repeatedMessagesAfterTailAreUnfolded() {
+        // 已合并到第一条"谢谢"（序号 1），之后内容相同的"谢谢"不影响判断
+        List<ChatMessage> unfolded = new ArrayList<>();
+        long tail = ChatMemorySummarizer.unfolded(new ChatMemorySummarizer.Summary("摘要", 1),
+                List.of(thanks1, ai1, question, ai2, thanks2), List.of(1L, 2L, 3L, 4L, 5L), unfolded);
+
+        assertThat(unfolded).containsExactly(ai1, question, ai2, thanks2);
+        assertThat(tail).isEqualTo(5);
+    }
+
+    @Test
+    void allDroppedAreUnfoldedWithoutSummary() {
+        List<ChatMessage> unfolded = new ArrayList<>();
+        long tail = ChatMemorySummarizer.unfolded(ChatMemorySummarizer.Summary.EMPTY,
+                List.of(thanks1, ai1), List.of(1L, 2L), unfolded);
+
+        assertThat(unfolded).containsExactly(thanks1, ai1);
+        assertThat(tail).isEqualTo(2);
+    }
+
+    @Test
+    void messagesUpToTailAreNotFoldedAgain() {
+        List<ChatMessage> unfolded = new ArrayList<>();
+        long tail = ChatMemorySummarizer.unfolded(new ChatMemorySummarizer.Summary("摘要", 4),
+                List.of(thanks1, ai1, question, ai2), List.of(1L, 2L, 3L, 4L), unfolded);
+
+        assertThat(unfolded).isEmpty();
+        assertThat(tail).isEqualTo(4);
+    }
+
+    @Test
+    void unknownIndexesAreTreatedAsUnfolded() {
+        List<ChatMessage> unfolded = new ArrayList<>();
+        long tail = ChatMemorySummarizer.unfolded(new ChatMemorySummarizer.Summary("摘要", 4),
+                List.of(question, ai2), List.of(-1L, -1L), unfolded);
+
+        assertThat(unfolded).containsExactly(question, ai2);
+        assertThat(tail).isEqualTo(4);
+    }
+}
@@ -0,0 +1,140 @@
+package org.example.backend.service.ai.memory;
+
+import io.lettuce.core.RedisBusyException;
+import io.lettuce.core.RedisCommandExecutionException;
+import org.example.backend.utils.MessageConverter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatMessageWriteBehindTest {
+
+    private StringRedisTemplate redis;
+    private StreamOperations<String, Object, Object> stream;
+    private JdbcTemplate jdbcTemplate;
+    private ChatMessageWriteBehind writeBehind;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        stream = mock(StreamOperations.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        when(redis.opsForStream()).thenReturn(stream);
+        // 没有会话被删除
+        when(redis.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> new ArrayList<>(Collections.nCopies(10, false)));
+        writeBehind = new ChatMessageWriteBehind(redis, jdbcTemplate, new MessageConverter());
+    }
+
+    @Test
+    void writesBatchAndAcknowledges() {
+        List<MapRecord<String, Object, Object>> records = List.of(record("1-0", 0, "你好"), record("1-1", 1, "再见"));
+
+        write(records);
+
+        verify(jdbcTemplate).batchUpdate(anyString(), argThat((List<Object[]> rows) -> rows.size() == 2));
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+        verify(stream).acknowledge(eq(ChatMessageWriteBehind.STREAM_KEY), anyString(), any(RecordId[].class));
+    }
+
+    @Test
+    void poisonRecordIsDeadLetteredAndBatchAcknowledged() {
+        List<MapRecord<String, Object, Object>> records = List.of(
+                record("1-0", 0, "正常消息"), record("1-1", 1, "超长消息"), record("1-2", 2, "已写入"));
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new DataIntegrityViolationException("Data too long"));
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenAnswer(invocation -> {
+            // 参数展开为 sql, session_id, message_index, ...
+            int index = invocation.getArgument(2);
+            if (index == 1) {
+                throw new DataIntegrityViolationException("Data too long for column 'content'");
+            }
+            if (index == 2) {
+                throw new DuplicateKeyException("Duplicate entry");
+            }
+            return 1;
+        });
+
+        write(records);
+
+        verify(jdbcTemplate, times(3)).update(anyString(), any(Object[].class));
+        verify(stream).add(argThat(record -> ChatMessageWriteBehind.DEAD_LETTER_KEY.equals(record.getStream())
+                && "1".equals(String.valueOf(((Map<?, ?>) record.getValue()).get("index")))
+                && "1-1".equals(String.valueOf(((Map<?, ?>) record.getValue()).get("sourceId")))));
+        verify(stream).acknowledge(eq(ChatMessageWriteBehind.STREAM_KEY), anyString(),
+                eq(RecordId.of("1-0")), eq(RecordId.of("1-1")), eq(RecordId.of("1-2")));
+    }
+
+    @Test
+    void databaseUnavailableLeavesBatchPending() {
+        List<MapRecord<String, Object, Object>> records = List.of(record("1-0", 0, "你好"));
+        doThrow(new CannotGetJdbcConnectionException("Connection refused"))
+                .when(jdbcTemplate).batchUpdate(anyString(), anyList());
+
+        assertThatThrownBy(() -> write(records)).isInstanceOf(CannotGetJdbcConnectionException.class);
+
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+        verify(stream, never()).acknowledge(anyString(), anyString(), any(RecordId[].class));
+    }
+
+    @Test
+    void notAcceptingWhileFailing() {
+        ReflectionTestUtils.setField(writeBehind, "running", true);
+        ReflectionTestUtils.setField(writeBehind, "maxBacklog", 100L);
+        assertThat(writeBehind.accepting()).isTrue();
+
+        ReflectionTestUtils.setField(writeBehind, "failing", true);
+        assertThat(writeBehind.accepting()).isFalse();
+    }
+
+    @Test
+    void onlyBusyGroupMeansGroupExists() {
+        assertThat(ChatMessageWriteBehind.isBusyGroup(new RedisSystemException("Error in execution",
+                new RedisBusyException("BUSYGROUP Consumer Group name already exists")))).isTrue();
+        assertThat(ChatMessageWriteBehind.isBusyGroup(new RedisConnectionFailureException("Unable to connect to Redis"))).isFalse();
+        assertThat(ChatMessageWriteBehind.isBusyGroup(new RedisSystemException("Error in execution",
+                new RedisCommandExecutionException("NOGROUP No such key")))).isFalse();
+    }
+
+    private void write(List<MapRecord<String, Object, Object>> records) {
+        ReflectionTestUtils.invokeMethod(writeBehind, "write", records, false);
+    }
+
+    private static MapRecord<String, Object, Object> record(String id, int index, String content) {
+        Map<Object, Object> fields = Map.of(
+                "session", "session-1",
+                "index", Integer.toString(index),
+                "message", "{\"type\":\"USER\",\"content\":\"" + content + "\"}");
+        return StreamRecords.mapBacked(fields).withStreamKey(ChatMessageWriteBehind.STREAM_KEY).withId(RecordId.of(id));
+    }
+}
@@ -0,0 +1,192 @@
+package org.example.backend.service.ai.memory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import org.example.backend.config.CacheKeyConfig;
+import org.example.backend.repository.ChatMessageRepository;
+import org.example.backend.utils.MessageConverter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HybridChatMemoryStoreTest {
+
+    private static final String SESSION = "session-1";
+
+    private final SystemMessage system = SystemMessage.from("你是问答助手");
+    private final UserMessage user1 = UserMessage.from("你好");
+    private final AiMessage ai1 = AiMessage.from("你好，有什么可以帮你？");
+    private final UserMessage user2 = UserMessage.from("什么是缓存");
+    private final AiMessage ai2 = AiMessage.from("缓存是……");
+
+    private StringRedisTemplate redis;
+    private ChatMessageWriteBehind writeBehind;
+    private HybridChatMemoryStore store;
+    // 每次追加脚本调用的 ARGV
+    private final List<List<Object>> appended = new ArrayList<>();
+    private long nextSeq;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        writeBehind = mock(ChatMessageWriteBehind.class);
+        when(writeBehind.accepting()).thenReturn(true);
+        when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenAnswer(invocation -> {
+            Object[] arguments = invocation.getArguments();
+            List<Object> argv = Arrays.asList(arguments).subList(2, arguments.length);
+            appended.add(argv);
+            nextSeq += (argv.size() - 4) / 3;
+            return nextSeq;
+        });
+
+        store = new HybridChatMemoryStore();
+        ReflectionTestUtils.setField(store, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(store, "chatMessageRepository", mock(ChatMessageRepository.class));
+        ReflectionTestUtils.setField(store, "messageConverter", new MessageConverter());
+        ReflectionTestUtils.setField(store, "writeBehind", writeBehind);
+        ReflectionTestUtils.setField(store, "windowSize", 20);
+        ReflectionTestUtils.setField(store, "redisMaxMessages", 100);
+    }
+
+    @Test
+    void repeatedUserMessageIsNew() {
+        HybridChatMemoryStore.SessionWindow window = new HybridChatMemoryStore.SessionWindow(3, List.of(system, user1, ai1));
+        UserMessage repeated = UserMessage.from("你好");
+
+        // 内容相同但不是窗口中的对象，按新增处理
+        assertThat(repeated).isEqualTo(user1);
+        assertThat(window.newMessages(List.of(system, user1, ai1, repeated))).containsExactly(repeated);
+    }
+
+    @Test
+    void newMessagesAfterWindowEviction() {
+        HybridChatMemoryStore.SessionWindow window = new HybridChatMemoryStore.SessionWindow(5,
+                List.of(system, user1, ai1, user2, ai2));
+        UserMessage user3 = UserMessage.from("再问一个");
+
+        assertThat(window.newMessages(List.of(system, ai1, user2, ai2, user3))).containsExactly(user3);
+        assertThat(window.newMessages(List.of(system, user2, ai2))).isEmpty();
+    }
+
+    @Test
+    void newMessagesKeepIncomingOrder() {
+        HybridChatMemoryStore.SessionWindow window = new HybridChatMemoryStore.SessionWindow(1, List.of(system));
+        UserMessage user3 = UserMessage.from("问题");
+        AiMessage ai3 = AiMessage.from("回答");
+
+        assertThat(window.newMessages(List.of(system, user3, ai3))).containsExactly(user3, ai3);
+    }
+
+    @Test
+    void updateAppendsOnlyNewMessagesAndAdvancesWindow() {
+        nextSeq = 3;
+        windows().put(SESSION, new HybridChatMemoryStore.SessionWindow(3, List.of(system, user1, ai1)));
+        UserMessage repeated = UserMessage.from("你好");
+
+        store.updateMessages(SESSION, List.of(system, user1, ai1, repeated));
+
+        assertThat(appended).hasSize(1);
+        assertThat(messagesOf(appended.get(0))).hasSize(1);
+        assertThat(messagesOf(appended.get(0)).get(0)).contains("你好").contains("USER");
+        HybridChatMemoryStore.SessionWindow window = windows().getIfPresent(SESSION);
+        assertThat(window).isNotNull();
+        assertThat(window.seq()).isEqualTo(4);
+        assertThat(window.messages()).containsExactly(system, user1, ai1, repeated);
+    }
+
+    @Test
+    void windowTracksIndexesOfNewMessages() {
+        nextSeq = 3;
+        windows().put(SESSION, new HybridChatMemoryStore.SessionWindow(3, List.of(system, user1, ai1), List.of(-1L, 1L, 2L)));
+
+        store.updateMessages(SESSION, List.of(system, user1, ai1, user2, ai2));
+
+        assertThat(store.messageIndexes(SESSION, List.of(user1, ai1, user2, ai2))).containsExactly(1L, 2L, 3L, 4L);
+        // 内容相同但不是窗口中的对象，序号未知
+        assertThat(store.messageIndexes(SESSION, List.of(UserMessage.from("你好")))).containsExactly(-1L);
+    }
+
+    @Test
+    void evictionOnlyUpdateDoesNotTouchRedis() {
+        windows().put(SESSION, new HybridChatMemoryStore.SessionWindow(5, List.of(system, user1, ai1, user2, ai2)));
+
+        store.updateMessages(SESSION, List.of(system, user2, ai2));
+
+        verify(redis, never()).execute(any(RedisScript.class), anyList(), any(Object[].class));
+        HybridChatMemoryStore.SessionWindow window = windows().getIfPresent(SESSION);
+        assertThat(window).isNotNull();
+        assertThat(window.seq()).isEqualTo(5);
+        assertThat(window.messages()).containsExactly(system, user2, ai2);
+    }
+
+    @Test
+    void missingLocalWindowAppendsLastMessageOnly() {
+        nextSeq = 4;
+
+        store.updateMessages(SESSION, List.of(system, user1, ai1, user2));
+
+        assertThat(appended).hasSize(1);
+        List<String> messages = messagesOf(appended.get(0));
+        assertThat(messages).hasSize(1);
+        assertThat(messages.get(0)).contains("什么是缓存");
+        // 没有本地窗口时无法确认序号连续，不缓存窗口
+        assertThat(windows().getIfPresent(SESSION)).isNull();
+    }
+
+    @Test
+    void missingLocalWindowWithEmptyListAppendsNothing() {
+        store.updateMessages(SESSION, List.of());
+
+        assertThat(appended).isEmpty();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void evictKeepsSeqInMeta() {
+        HashOperations<String, Object, Object> hash = mock(HashOperations.class);
+        when(redis.opsForHash()).thenReturn(hash);
+        windows().put(SESSION, new HybridChatMemoryStore.SessionWindow(5, List.of(system, user1)));
+
+        store.evict(SESSION);
+
+        assertThat(windows().getIfPresent(SESSION)).isNull();
+        verify(redis).delete(List.of(CacheKeyConfig.buildMessageListKey(SESSION), CacheKeyConfig.buildMessagesKey(SESSION)));
+        // seq 保留，只去掉系统消息和 List 有效标记
+        verify(hash).delete(CacheKeyConfig.buildMessageMetaKey(SESSION), "system", "cached");
+        verify(redis, never()).delete(CacheKeyConfig.buildMessageMetaKey(SESSION));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<String, HybridChatMemoryStore.SessionWindow> windows() {
+        return (Cache<String, HybridChatMemoryStore.SessionWindow>) ReflectionTestUtils.getField(store, "windows");
+    }
+
+    /**
+     * 追加脚本 ARGV 中的消息内容（前4个为公共参数，之后每条消息 类型、内容、检索内容）
+     */
+    private static List<String> messagesOf(List<Object> argv) {
+        List<String> messages = new ArrayList<>();
+        for (int i = 4; i + 2 < argv.size(); i += 3) {
+            messages.add(argv.get(i + 1).toString());
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.backend.service.ai.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TokenBudgetChatMemoryTest {
+
+    private static final String SESSION = "session-1";
+
+    private final SystemMessage system = SystemMessage.from("你是问答助手");
+    private final UserMessage user1 = UserMessage.from("你好");
+    private final AiMessage ai1 = AiMessage.from("你好，有什么可以帮你？");
+    private final UserMessage user2 = UserMessage.from("什么是缓存");
+
+    private HybridChatMemoryStore store;
+    private ChatMemorySummarizer summarizer;
+    private TokenBudgetChatMemory memory;
+
+    // 存储窗口中消息的序号
+    private final Map<ChatMessage, Long> indexes = new IdentityHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        store = mock(HybridChatMemoryStore.class);
+        summarizer = mock(ChatMemorySummarizer.class);
+        when(store.messageIndexes(eq(SESSION), anyList())).thenAnswer(invocation -> {
+            List<ChatMessage> messages = invocation.getArgument(1);
+            return messages.stream().map(message -> indexes.getOrDefault(message, -1L)).toList();
+        });
+        when(summarizer.current(SESSION)).thenReturn(ChatMemorySummarizer.Summary.EMPTY);
+        memory = new TokenBudgetChatMemory(SESSION, store, summarizer, 2, 10_000);
+    }
+
+    @Test
+    void evictedMessagesAreFoldedWithTheirIndexes() {
+        indexes.put(user1, 1L);
+        indexes.put(ai1, 2L);
+        when(store.getMessages(SESSION)).thenReturn(List.of(system, user1, ai1));
+
+        memory.add(user2);
+
+        verify(store).updateMessages(SESSION, List.of(system, ai1, user2));
+        verify(summarizer).foldLater(eq(SESSION), any(), eq(List.of(user1)), eq(List.of(1L)));
+    }
+
+    @Test
+    void noFoldWithoutEviction() {
+        when(store.getMessages(SESSION)).thenReturn(List.of(system, user1));
+
+        memory.add(ai1);
+
+        verify(summarizer, never()).current(anyString());
+        verify(summarizer, never()).foldLater(anyString(), any(), anyList(), anyList());
+    }
+
+    @Test
+    void summaryCountsTowardsTokenBudget() {
+        String text = "缓存".repeat(20);
+        List<ChatMessage> history = List.of(UserMessage.from(text), AiMessage.from(text), UserMessage.from(text),
+                AiMessage.from(text), UserMessage.from(text));
+        List<ChatMessage> stored = new ArrayList<>(history);
+        stored.add(0, system);
+        when(store.getMessages(SESSION)).thenReturn(stored);
+        for (int i = 0; i < history.size(); i++) {
+            indexes.put(history.get(i), i + 1L);
+        }
+        when(summarizer.current(SESSION)).thenReturn(new ChatMemorySummarizer.Summary("摘要".repeat(30), -1));
+        int maxTokens = TokenBudgetChatMemory.estimateTokens(system.text()) + 3 * TokenBudgetChatMemory.estimateTokens(text);
+        memory = new TokenBudgetChatMemory(SESSION, store, summarizer, 20, maxTokens);
+
+        List<ChatMessage> messages = memory.messages();
+
+        // 不计摘要时能放入最后三条，计入摘要后只能放入最后一条
+        assertThat(messages).hasSize(2);
+        assertThat(((SystemMessage) messages.get(0)).text()).startsWith(system.text()).endsWith("摘要".repeat(30));
+        assertThat(messages.get(1)).isSameAs(history.get(4));
+        int total = 0;
+        for (ChatMessage message : messages) {
+            total += TokenBudgetChatMemory.estimateTokens(message instanceof SystemMessage systemMessage
+                    ? systemMessage.text() : ((UserMessage) message).singleText());
+        }
+        assertThat(total).isLessThanOrEqualTo(maxTokens);
+        verify(summarizer).foldLater(eq(SESSION), any(), eq(history.subList(0, 4)), eq(List.of(1L, 2L, 3L, 4L)));
+    }
+}
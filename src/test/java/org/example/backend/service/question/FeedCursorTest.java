@@ -0,0 +1,30 @@
+package org.example.backend.service.question;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FeedCursorTest {
+
+    @Test
+    void roundTrip() {
+        FeedCursor cursor = new FeedCursor(LocalDateTime.of(2024, 5, 1, 12, 30, 15, 123_000_000), 42L);
+
+        assertThat(FeedCursor.decode(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void nullCreatedTimeRoundTrip() {
+        FeedCursor cursor = new FeedCursor(null, 7L);
+
+        assertThat(FeedCursor.decode(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void invalidCursorIsRejected() {
+        assertThatThrownBy(() -> FeedCursor.decode("not-a-cursor")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
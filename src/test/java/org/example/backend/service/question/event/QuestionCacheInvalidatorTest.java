@@ -0,0 +1,87 @@
+package org.example.backend.service.question.event;
+
+import org.example.backend.dto.QuestionResponseDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class QuestionCacheInvalidatorTest {
+
+    // 模拟 Redis 中的登记 Hash：key -> (缓存 key -> 范围)
+    private final Map<String, Map<Object, Object>> hashes = new HashMap<>();
+
+    private Cache cache;
+    private QuestionCacheInvalidator invalidator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        CacheManager cacheManager = mock(CacheManager.class);
+        cache = mock(Cache.class);
+        when(cacheManager.getCache(QuestionCacheInvalidator.QUESTION_LIST_CACHE)).thenReturn(cache);
+
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hash = mock(HashOperations.class);
+        when(redis.opsForHash()).thenReturn(hash);
+        doAnswer(invocation -> hashes.computeIfAbsent(invocation.getArgument(0), key -> new HashMap<>())
+                .put(invocation.getArgument(1), invocation.getArgument(2)))
+                .when(hash).put(anyString(), any(), any());
+        when(hash.entries(anyString())).thenAnswer(invocation -> hashes.getOrDefault(invocation.getArgument(0), Map.of()));
+        when(redis.execute(any(RedisScript.class), anyList())).thenAnswer(invocation -> {
+            List<String> keys = invocation.getArgument(1);
+            Map<Object, Object> current = hashes.remove(keys.get(0));
+            if (current == null) {
+                return 0L;
+            }
+            hashes.put(keys.get(1), current);
+            return 1L;
+        });
+        invalidator = new QuestionCacheInvalidator(cacheManager, redis);
+    }
+
+    @Test
+    void updateEvictsPageContainingQuestion() {
+        invalidator.trackListPage("0_10", List.of(question(11), question(20)));
+        invalidator.trackListPage("1_10", List.of(question(1), question(10)));
+
+        invalidator.onQuestionUpdated(new QuestionUpdatedEvent(15L));
+
+        verify(cache).evict("0_10");
+        verify(cache, never()).evict("1_10");
+    }
+
+    @Test
+    void pageWrittenAfterClearIsStillTracked() {
+        // 页面已登记、尚未写入缓存时清空列表缓存，之后页面才写入
+        invalidator.trackListPage("0_10", List.of(question(11), question(20)));
+        invalidator.onQuestionCreated(new QuestionCreatedEvent(21L));
+        verify(cache).clear();
+
+        invalidator.onQuestionUpdated(new QuestionUpdatedEvent(15L));
+
+        verify(cache).evict("0_10");
+    }
+
+    private static QuestionResponseDTO question(long id) {
+        QuestionResponseDTO question = mock(QuestionResponseDTO.class);
+        when(question.id()).thenReturn(id);
+        return question;
+    }
+}
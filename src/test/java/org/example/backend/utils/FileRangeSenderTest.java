@@ -0,0 +1,235 @@
+package org.example.backend.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileRangeSenderTest {
+
+    private static final String CONTENT = "0123456789";
+    private static final String ETAG = "abc123";
+    private static final Instant LAST_MODIFIED = Instant.parse("2024-01-02T03:04:05Z");
+
+    @TempDir
+    Path tempDir;
+
+    private final FileRangeSender sender = new FileRangeSender();
+    private Path file;
+    private Path emptyFile;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.writeString(tempDir.resolve("data.bin"), CONTENT);
+        Files.setLastModifiedTime(file, FileTime.from(LAST_MODIFIED));
+        emptyFile = Files.createFile(tempDir.resolve("empty.bin"));
+    }
+
+    @Test
+    void sendsWholeFileWithoutRange() throws Exception {
+        MockHttpServletResponse response = send(new MockHttpServletRequest(), file);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+        assertThat(response.getContentLengthLong()).isEqualTo(10);
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + ETAG + "\"");
+    }
+
+    @Test
+    void sendsSingleRange() throws Exception {
+        MockHttpServletResponse response = send(withRange("bytes=2-5"), file);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+    }
+
+    @Test
+    void sendsOpenEndedRange() throws Exception {
+        MockHttpServletResponse response = send(withRange("bytes=7-"), file);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+        assertThat(response.getContentAsString()).isEqualTo("789");
+    }
+
+    @Test
+    void sendsSuffixRange() throws Exception {
+        MockHttpServletResponse response = send(withRange("bytes=-3"), file);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+        assertThat(response.getContentAsString()).isEqualTo("789");
+    }
+
+    @Test
+    void suffixRangeLongerThanFileReturnsWholeFile() throws Exception {
+        MockHttpServletResponse response = send(withRange("bytes=-100"), file);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 0-9/10");
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void clampsRangeEndToFileLength() throws Exception {
+        MockHttpServletResponse response = send(withRange("bytes=8-100"), file);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 8-9/10");
+        assertThat(response.getContentAsString()).isEqualTo("89");
+    }
+
+    @Test
+    void rangeStartingPastEndIsNotSatisfiable() throws Exception {
+        MockHttpServletResponse response = send(withRange("bytes=10-"), file);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void anyRangeOnEmptyFileIsNotSatisfiable() throws Exception {
+        MockHttpServletResponse response = send(withRange("bytes=0-"), emptyFile);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */0");
+    }
+
+    @Test
+    void emptyFileWithoutRangeIsSentAsEmptyBody() throws Exception {
+        MockHttpServletResponse response = send(new MockHttpServletRequest(), emptyFile);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentLengthLong()).isZero();
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void malformedRangesAreNotSatisfiable() throws Exception {
+        assertThat(send(withRange("items=0-1"), file).getStatus()).isEqualTo(416);
+        assertThat(send(withRange("bytes=5-2"), file).getStatus()).isEqualTo(416);
+        assertThat(send(withRange("bytes=abc"), file).getStatus()).isEqualTo(416);
+    }
+
+    @Test
+    void tooManyRangesAreNotSatisfiable() throws Exception {
+        StringBuilder header = new StringBuilder("bytes=");
+        for (int i = 0; i < 17; i++) {
+            header.append(i > 0 ? "," : "").append(i % 10).append('-').append(i % 10);
+        }
+        assertThat(send(withRange(header.toString()), file).getStatus()).isEqualTo(416);
+    }
+
+    @Test
+    void sendsOverlappingRangesAsMultipart() throws Exception {
+        MockHttpServletResponse response = send(withRange("bytes=0-3,2-5"), file);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        String contentType = response.getContentType();
+        assertThat(contentType).startsWith("multipart/byteranges; boundary=");
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+
+        String body = response.getContentAsString(StandardCharsets.US_ASCII);
+        String[] parts = body.split("\r\n--" + boundary);
+        // 开头的空串、两个分段、结尾的 "--\r\n"
+        assertThat(parts).hasSize(4);
+        assertThat(parts[1]).contains("Content-Range: bytes 0-3/10").endsWith("\r\n\r\n0123");
+        assertThat(parts[2]).contains("Content-Range: bytes 2-5/10").endsWith("\r\n\r\n2345");
+        assertThat(parts[3]).isEqualTo("--\r\n");
+    }
+
+    @Test
+    void ifRangeWithCurrentEtagHonoursRange() throws Exception {
+        MockHttpServletRequest request = withRange("bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"" + ETAG + "\"");
+
+        MockHttpServletResponse response = send(request, file);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("01");
+    }
+
+    @Test
+    void ifRangeWithOtherOrWeakEtagSendsWholeFile() throws Exception {
+        MockHttpServletRequest stale = withRange("bytes=0-1");
+        stale.addHeader(HttpHeaders.IF_RANGE, "\"other\"");
+        MockHttpServletRequest weak = withRange("bytes=0-1");
+        weak.addHeader(HttpHeaders.IF_RANGE, "W/\"" + ETAG + "\"");
+
+        for (MockHttpServletRequest request : new MockHttpServletRequest[]{stale, weak}) {
+            MockHttpServletResponse response = send(request, file);
+            assertThat(response.getStatus()).isEqualTo(200);
+            assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    void ifRangeWithDateComparesLastModified() throws Exception {
+        MockHttpServletRequest current = withRange("bytes=0-1");
+        current.addHeader(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED));
+        MockHttpServletRequest older = withRange("bytes=0-1");
+        older.addHeader(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED.minusSeconds(60)));
+
+        assertThat(send(current, file).getStatus()).isEqualTo(206);
+        assertThat(send(older, file).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void ifNoneMatchReturnsNotModified() throws Exception {
+        for (String ifNoneMatch : new String[]{"\"" + ETAG + "\"", "*", "\"x\", W/\"" + ETAG + "\""}) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+
+            MockHttpServletResponse response = send(request, file);
+
+            assertThat(response.getStatus()).isEqualTo(304);
+            assertThat(response.getContentAsByteArray()).isEmpty();
+        }
+    }
+
+    @Test
+    void usesSendfileWhenSupported() throws Exception {
+        MockHttpServletRequest request = withRange("bytes=2-5");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+
+        MockHttpServletResponse response = send(request, file);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename")).isEqualTo(file.toAbsolutePath().toString());
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(2L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(6L);
+    }
+
+    private MockHttpServletResponse send(MockHttpServletRequest request, Path path) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        sender.send(request, response, path, ETAG, "数据.bin");
+        return response;
+    }
+
+    private static MockHttpServletRequest withRange(String range) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, range);
+        return request;
+    }
+
+    private static String httpDate(Instant instant) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(instant.atOffset(ZoneOffset.UTC));
+    }
+}
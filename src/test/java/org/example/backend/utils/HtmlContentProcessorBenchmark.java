@@ -0,0 +1,114 @@
+package org.example.backend.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 发布问题时内容处理的基准：原先的两遍正则（每次请求编译 Pattern，先替换临时图片地址再提取 img src）
+ * 对比 HtmlContentProcessor.process 的单遍扫描（同时完成清理、改写和收集）
+ *
+ * 运行：mvn test-compile 后以测试类路径执行本类的 main 方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlContentProcessorBenchmark {
+
+    private static final String TEMP_DIR = "temp_question";
+
+    // 内容中的段落数，每 4 段一张临时图片
+    @Param({"10", "100", "1000"})
+    private int paragraphs;
+
+    private String html;
+    private HtmlContentProcessor processor;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            builder.append("<p class=\"content\">第").append(i).append("段：问题描述 <b>重点</b> and some English text, ")
+                    .append("<a href=\"https://example.com/doc/").append(i).append("\">参考链接</a></p>");
+            if (i % 4 == 0) {
+                builder.append("<p><img src=\"http://127.0.0.1:8080/uploads/").append(TEMP_DIR).append('/')
+                        .append("4f38eb1e-d103-4382-9903-55dacb3967db_").append(i).append(".png\" alt=\"图").append(i).append("\"></p>");
+            }
+        }
+        html = builder.toString();
+        processor = new HtmlContentProcessor();
+    }
+
+    @Benchmark
+    public void regexPasses(Blackhole blackhole) {
+        // 替换 src 中的 temp_
+        Pattern pattern1 = Pattern.compile("src=['\"](.*?temp_)(.*?)['\"]", Pattern.CASE_INSENSITIVE);
+        Matcher matcher1 = pattern1.matcher(html);
+        StringBuffer result = new StringBuffer();
+        while (matcher1.find()) {
+            String newPath = matcher1.group(1).replace("temp_", "") + matcher1.group(2);
+            matcher1.appendReplacement(result, "src='" + newPath + "'");
+        }
+        matcher1.appendTail(result);
+
+        // 提取原内容的 img src，筛出临时图片文件名
+        Set<String> imgUrls = new LinkedHashSet<>();
+        Pattern pattern2 = Pattern.compile("<img[^>]+src\\s*=\\s*['\"]([^'\"]+)['\"][^>]*>");
+        Matcher matcher2 = pattern2.matcher(html);
+        while (matcher2.find()) {
+            imgUrls.add(matcher2.group(1));
+        }
+        List<String> imageNames = new ArrayList<>();
+        for (String imgUrl : imgUrls) {
+            if (imgUrl.contains("/" + TEMP_DIR + "/")) {
+                imageNames.add(imgUrl.substring(imgUrl.lastIndexOf('/') + 1));
+            }
+        }
+        blackhole.consume(result.toString());
+        blackhole.consume(imageNames);
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole blackhole) {
+        List<String> imageNames = new ArrayList<>();
+        UnaryOperator<String> rewriter = src -> {
+            if (!src.contains("/" + TEMP_DIR + "/")) {
+                return src;
+            }
+            imageNames.add(src.substring(src.lastIndexOf('/') + 1));
+            return src.replace(TEMP_DIR + "/", "question/");
+        };
+        blackhole.consume(processor.process(html, rewriter).html());
+        blackhole.consume(imageNames);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HtmlContentProcessorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,194 @@
+package org.example.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HtmlContentProcessorTest {
+
+    private final HtmlContentProcessor processor = new HtmlContentProcessor();
+
+    @Test
+    void keepsPlainContentUnchanged() {
+        String html = "<p class=\"intro\">你好 <b>world</b></p><br/>";
+
+        assertThat(process(html)).isEqualTo("<p class=\"intro\">你好 <b>world</b></p><br />");
+    }
+
+    @Test
+    void nullAndEmptyContentBecomeEmpty() {
+        assertThat(processor.process(null, UnaryOperator.identity()).html()).isEmpty();
+        assertThat(processor.process("", UnaryOperator.identity()).imageSources()).isEmpty();
+    }
+
+    @Test
+    void dropsScriptAndStyleWithContent() {
+        assertThat(process("<script>alert(1)</script><p>ok</p>")).isEqualTo("<p>ok</p>");
+        assertThat(process("<SCRIPT type=\"text/javascript\">alert(1)</script ><p>ok</p>")).isEqualTo("<p>ok</p>");
+        assertThat(process("a<style>p{color:red}</style>b")).isEqualTo("ab");
+    }
+
+    @Test
+    void unclosedScriptDropsRestOfContent() {
+        assertThat(process("<p>ok</p><script>alert(1)")).isEqualTo("<p>ok</p>");
+    }
+
+    @Test
+    void dropsEmbeddingTagsAndComments() {
+        assertThat(process("<iframe src=\"https://example.com\"></iframe><object data=\"x\"></object>")).isEmpty();
+        assertThat(process("a<!-- <script>alert(1)</script> -->b")).isEqualTo("ab");
+        assertThat(process("a<!-- 未闭合的注释")).isEqualTo("a");
+    }
+
+    @Test
+    void dropsEventHandlersAndSrcdoc() {
+        assertThat(process("<p onclick=\"x()\" ONMOUSEOVER='y()'>hi</p>")).isEqualTo("<p>hi</p>");
+        assertThat(process("<img src=\"a.png\" onerror=alert(1)>")).isEqualTo("<img src=\"a.png\">");
+        assertThat(process("<div srcdoc=\"<script>alert(1)</script>\">x</div>")).isEqualTo("<div>x</div>");
+    }
+
+    @Test
+    void unclosedTagIsEscapedAsText() {
+        assertThat(process("a <img src=\"x.png\" onerror=\"alert(1)\""))
+                .isEqualTo("a &lt;img src=\"x.png\" onerror=\"alert(1)\"");
+        assertThat(process("1 < 2 and <3")).isEqualTo("1 &lt; 2 and &lt;3");
+    }
+
+    @Test
+    void scriptInsideQuotedAttributeIsNotParsedAsTag() {
+        String html = "<img alt=\"<script>alert(1)</script>\" src=\"a.png\">";
+
+        HtmlContentProcessor.Result result = processor.process(html, UnaryOperator.identity());
+
+        assertThat(result.html()).isEqualTo(html);
+        assertThat(result.imageSources()).containsExactly("a.png");
+    }
+
+    @Test
+    void greaterThanInsideQuotedAttributeDoesNotEndTag() {
+        assertThat(process("<a title=\"a > b\" href=\"/q/1\">x</a>")).isEqualTo("<a title=\"a > b\" href=\"/q/1\">x</a>");
+    }
+
+    @Test
+    void unquotedValuesAreQuotedOnOutput() {
+        assertThat(process("<a href=/q/1 target=_blank>x</a>")).isEqualTo("<a href=\"/q/1\" target=\"_blank\">x</a>");
+        assertThat(process("<a href=javascript:alert(1)>x</a>")).isEqualTo("<a>x</a>");
+    }
+
+    @Test
+    void keepsQuoteInsideOtherQuote() {
+        assertThat(process("<a title='say \"hi\"'>x</a>")).isEqualTo("<a title='say \"hi\"'>x</a>");
+    }
+
+    @Test
+    void allowsHttpHttpsAndRelativeUrls() {
+        assertThat(process("<a href=\"https://example.com/a\">x</a>")).isEqualTo("<a href=\"https://example.com/a\">x</a>");
+        assertThat(process("<a href=\"HTTP://example.com\">x</a>")).isEqualTo("<a href=\"HTTP://example.com\">x</a>");
+        assertThat(process("<a href=\"//example.com/a\">x</a>")).isEqualTo("<a href=\"//example.com/a\">x</a>");
+        assertThat(process("<a href=\"/search?q=a:b\">x</a>")).isEqualTo("<a href=\"/search?q=a:b\">x</a>");
+        assertThat(process("<a href=\"#top\">x</a>")).isEqualTo("<a href=\"#top\">x</a>");
+        assertThat(process("<img src=\"a.png\">")).isEqualTo("<img src=\"a.png\">");
+    }
+
+    @Test
+    void dropsSchemesOutsideAllowList() {
+        assertThat(process("<a href=\"javascript:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"  JaVaScRiPt:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"vbscript:msgbox(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"mailto:a@example.com\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<img src=\"ftp://example.com/a.png\">")).isEqualTo("<img>");
+    }
+
+    @Test
+    void rawTextElementsAreDroppedUpToTheirEndTag() {
+        // 浏览器中这些元素的内容是纯文本，属性值里的结束标签会提前结束元素，之后的 img 会被执行
+        for (String tag : new String[]{"noscript", "textarea", "xmp", "noembed", "noframes"}) {
+            String html = "<" + tag + "><p title=\"</" + tag + "><img src=x onerror=alert(1)>\">";
+            assertThat(process(html)).isEqualTo("<img src=\"x\">\">");
+        }
+    }
+
+    @Test
+    void svgAndMathAreDroppedWithContent() {
+        assertThat(process("<svg><a><animate attributeName=\"href\" values=\"javascript:alert(1)\"/><text>x</text></a></svg><p>ok</p>"))
+                .isEqualTo("<p>ok</p>");
+        assertThat(process("<svg><a><set attributeName=\"href\" to=\"javascript:alert(1)\"/></a></svg>")).isEmpty();
+        assertThat(process("<math><mtext><table><mglyph><style><img src=x onerror=alert(1)></style></mglyph></table></mtext></math>"))
+                .doesNotContain("onerror").doesNotContain("<math");
+        assertThat(process("<template><img src=x onerror=alert(1)></template>ok")).isEqualTo("ok");
+    }
+
+    @Test
+    void tagsOutsideAllowListAreDroppedWithContent() {
+        assertThat(process("<form action=\"/login\"><input name=\"a\"></form><p>ok</p>")).isEqualTo("<p>ok</p>");
+        assertThat(process("<details open ontoggle=alert(1)>x</details>")).isEmpty();
+        assertThat(process("<x-foo><x-foo>a</x-foo>b</x-foo>c")).isEqualTo("c");
+        // 没有结束标签时只删除标签本身
+        assertThat(process("<foo>a<b>b</b>")).isEqualTo("a<b>b</b>");
+        assertThat(process("<animate attributeName=\"href\" values=\"javascript:alert(1)\"/>a")).isEqualTo("a");
+    }
+
+    @Test
+    void attributesOutsideAllowListAreDropped() {
+        assertThat(process("<a href=\"/q/1\" id=\"x\" name=\"y\" values=\"javascript:alert(1)\" xlink:href=\"javascript:alert(1)\">x</a>"))
+                .isEqualTo("<a href=\"/q/1\">x</a>");
+        assertThat(process("<p style=\"color: red; text-align: center\">x</p>")).isEqualTo("<p style=\"color: red; text-align: center\">x</p>");
+        assertThat(process("<p style=\"background: URL(javascript:alert(1))\">x</p>")).isEqualTo("<p>x</p>");
+        assertThat(process("<p style=\"width: expression(alert(1))\">x</p>")).isEqualTo("<p>x</p>");
+        assertThat(process("<p style=\"background: &#117;rl(a.png)\">x</p>")).isEqualTo("<p>x</p>");
+        assertThat(process("<p style=\"background: u\\72 l(a.png)\">x</p>")).isEqualTo("<p>x</p>");
+    }
+
+    @Test
+    void decodesNumericReferencesWithoutSemicolon() {
+        assertThat(process("<a href=\"&#106avascript:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"&#x6A;avascript:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"&#x6aavascript:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"&#0000106&#0000097vascript:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+    }
+
+    @Test
+    void decodesNamedAndWhitespaceReferences() {
+        assertThat(process("<a href=\"javascript&colon;alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"java&#x09;script:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"java&Tab;script:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<a href=\"java\nscript:alert(1)\">x</a>")).isEqualTo("<a>x</a>");
+    }
+
+    @Test
+    void keepsUnrelatedEntitiesInRelativeUrls() {
+        assertThat(process("<a href=\"/q?a=1&amp;b=2\">x</a>")).isEqualTo("<a href=\"/q?a=1&amp;b=2\">x</a>");
+    }
+
+    @Test
+    void dataUrlsOnlyAllowedForImageSources() {
+        assertThat(process("<img src=\"data:image/png;base64,AAAA\">")).isEqualTo("<img src=\"data:image/png;base64,AAAA\">");
+        assertThat(process("<img src=\"data:text/html,<script>alert(1)</script>\">")).isEqualTo("<img>");
+        assertThat(process("<a href=\"data:image/png;base64,AAAA\">x</a>")).isEqualTo("<a>x</a>");
+        assertThat(process("<img src=\"data&colon;image/png;base64,AAAA\">")).isEqualTo("<img src=\"data&colon;image/png;base64,AAAA\">");
+    }
+
+    @Test
+    void collectsAndRewritesImageSourcesInOrder() {
+        String html = "<p><img src='/uploads/temp_question/a.png'></p><img SRC=\"/uploads/question/b.png\" alt=\"b\">";
+
+        HtmlContentProcessor.Result result = processor.process(html, src -> src.replace("temp_question/", "question/"));
+
+        assertThat(result.imageSources()).containsExactly("/uploads/temp_question/a.png", "/uploads/question/b.png");
+        assertThat(result.html()).isEqualTo("<p><img src='/uploads/question/a.png'></p><img SRC=\"/uploads/question/b.png\" alt=\"b\">");
+    }
+
+    @Test
+    void unsafeImageSourcesAreNotCollected() {
+        HtmlContentProcessor.Result result = processor.process("<img src=\"javascript:alert(1)\">", UnaryOperator.identity());
+
+        assertThat(result.html()).isEqualTo("<img>");
+        assertThat(result.imageSources()).isEmpty();
+    }
+
+    private String process(String html) {
+        return processor.process(html, UnaryOperator.identity()).html();
+    }
+}